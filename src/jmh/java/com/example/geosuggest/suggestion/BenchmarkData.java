@@ -0,0 +1,174 @@
+package com.example.geosuggest.suggestion;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.IntStream;
+
+/**
+ * The datasets the benchmarks run on, and helpers to load them as the application does.
+ *
+ * - {@value #REAL}: the GeoNames file bundled with the application.
+ * - {@value #SYNTHETIC}: the bundled file repeated {@value #SCALE} times, each copy with distinct names, slightly
+ *   moved coordinates and populations, so prefixes match ten times as many cities as in production.
+ */
+public final class BenchmarkData {
+
+    public static final String REAL = "canada-usa";
+    public static final String SYNTHETIC = "synthetic-x10";
+
+    private static final int SCALE = 10;
+    private static final String BUNDLED = "geonames/cities_canada-usa.tsv";
+
+    private static Path syntheticFile;
+
+    private BenchmarkData() {}
+
+    /**
+     * Retrieves the TSV file of a dataset, generating the synthetic one on first use.
+     *
+     * @param dataset {@link #REAL} or {@link #SYNTHETIC}.
+     * @return The TSV file of the dataset.
+     * @throws IOException if an error occurs while generating the synthetic dataset.
+     */
+    public static synchronized Resource dataSource(String dataset) throws IOException {
+        switch (dataset) {
+            case REAL:
+                return new ClassPathResource(BUNDLED);
+            case SYNTHETIC:
+                if (syntheticFile == null) {
+                    syntheticFile = generateSynthetic();
+                }
+                return new FileSystemResource(syntheticFile);
+            default:
+                throw new IllegalArgumentException("Unknown dataset: " + dataset);
+        }
+    }
+
+    /**
+     * Creates a DAO for a dataset, without loading its cities.
+     *
+     * @param dataset      {@link #REAL} or {@link #SYNTHETIC}.
+     * @param snapshotPath The path of the city snapshot, or an empty string to always parse the TSV file.
+     * @return The DAO, configured as by the application properties.
+     * @throws IOException if an error occurs while generating the synthetic dataset.
+     */
+    public static SuggestionDAO createDAO(String dataset, String snapshotPath) throws IOException {
+        SuggestionDAO suggestionDAO = new SuggestionDAO();
+        setField(suggestionDAO, "dataSource", dataSource(dataset));
+        setField(suggestionDAO, "snapshotPath", snapshotPath);
+        return suggestionDAO;
+    }
+
+    /**
+     * Loads the cities of a dataset from its TSV file.
+     *
+     * @param dataset {@link #REAL} or {@link #SYNTHETIC}.
+     * @return The DAO holding the loaded cities.
+     * @throws IOException if an error occurs while reading the dataset.
+     */
+    public static SuggestionDAO loadDAO(String dataset) throws IOException {
+        SuggestionDAO suggestionDAO = createDAO(dataset, "");
+        suggestionDAO.loadCities();
+        return suggestionDAO;
+    }
+
+    /**
+     * Creates the services answering suggestions from the given DAO, wired as by Spring.
+     *
+     * @param suggestionDAO The DAO holding the loaded cities.
+     * @return The uncached service.
+     */
+    public static SuggestionServiceImpl createService(SuggestionDAO suggestionDAO) {
+        SuggestionServiceImpl suggestionService = new SuggestionServiceImpl();
+        setField(suggestionService, "suggestionDAO", suggestionDAO);
+        return suggestionService;
+    }
+
+    /**
+     * Creates the cached service in front of the given service, wired as by Spring.
+     *
+     * @param suggestionService The uncached service.
+     * @param suggestionDAO     The DAO holding the loaded cities.
+     * @return The cached service.
+     */
+    public static CachingSuggestionService createCachingService(SuggestionServiceImpl suggestionService,
+                                                                SuggestionDAO suggestionDAO) {
+        CachingSuggestionService cachingService = new CachingSuggestionService();
+        setField(cachingService, "suggestionService", suggestionService);
+        setField(cachingService, "suggestionDAO", suggestionDAO);
+        cachingService.createCache();
+        return cachingService;
+    }
+
+    /**
+     * Picks prefixes of the given length from the names of the cities, one in every few cities, so frequent
+     * prefixes are picked more often, as they are typed more often.
+     *
+     * @param cities The loaded cities.
+     * @param length The length of the prefixes.
+     * @return The distinct prefixes, in the order of the cities.
+     */
+    public static String[] prefixes(CityIndex cities, int length) {
+        return IntStream.range(0, cities.getCityCount())
+                .filter(cityId -> cityId % 7 == 0)
+                .mapToObj(cities::getCityName)
+                .filter(name -> name.length() >= length)
+                .map(name -> name.substring(0, length))
+                .toArray(String[]::new);
+    }
+
+    // Writes the bundled file SCALE times, suffixing the names of every copy but the first
+    private static Path generateSynthetic() throws IOException {
+        Path file = Files.createTempFile("cities_synthetic", ".tsv");
+        file.toFile().deleteOnExit();
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int copy = 0; copy < SCALE; copy++) {
+                try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                        new ClassPathResource(BUNDLED).getInputStream(), StandardCharsets.UTF_8))) {
+                    String header = in.readLine();
+                    if (copy == 0) {
+                        out.write(header);
+                        out.newLine();
+                    }
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        String[] columns = line.split("\t", -1);
+                        if (columns.length < 15) {
+                            continue;
+                        }
+                        if (copy > 0) {
+                            columns[1] = columns[1] + " " + copy;
+                            columns[4] = Double.toString(Double.parseDouble(columns[4]) + 0.01 * copy);
+                            columns[5] = Double.toString(Double.parseDouble(columns[5]) + 0.01 * copy);
+                            columns[14] = columns[14].isEmpty() ? "" : Long.toString(Long.parseLong(columns[14]) + copy);
+                        }
+                        out.write(String.join("\t", columns));
+                        out.newLine();
+                    }
+                }
+            }
+        }
+        return file;
+    }
+
+    // Sets a field injected by Spring in the application
+    private static void setField(Object target, String name, Object value) {
+        try {
+            Field field = target.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot set " + name + " on " + target.getClass().getSimpleName(), e);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.geosuggest.suggestion;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the ranking paths of the cities matching the words of a query, which the suggestions go through: by
+ * population and by proximity, for all matching cities and for the top ten, and by a blend of both for the top ten.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CityIndexBenchmark {
+
+    // Downtown Toronto
+    private static final double LATITUDE = 43.65;
+    private static final double LONGITUDE = -79.38;
+
+    @Param({BenchmarkData.REAL, BenchmarkData.SYNTHETIC})
+    private String dataset;
+
+    @Param({"1", "3"})
+    private int prefixLength;
+
+    private CityIndex cities;
+    private String[] prefixes;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.cities = BenchmarkData.loadDAO(this.dataset).getCityIndex();
+        this.prefixes = BenchmarkData.prefixes(this.cities, this.prefixLength);
+    }
+
+    @Benchmark
+    public int[] sortedByPopulation() {
+        return this.cities.getCityIdsMatchingWordsSortedByPopulation(nextPrefix());
+    }
+
+    @Benchmark
+    public int[] sortedByPopulationTop10() {
+        return this.cities.getCityIdsMatchingWordsSortedByPopulation(nextPrefix(), 10);
+    }
+
+    @Benchmark
+    public NearestCities nearest() {
+        return this.cities.getNearestCitiesMatchingWords(nextPrefix(), LATITUDE, LONGITUDE);
+    }
+
+    @Benchmark
+    public NearestCities nearestTop10() {
+        return this.cities.getNearestCitiesMatchingWords(nextPrefix(), LATITUDE, LONGITUDE, 10);
+    }
+
+    @Benchmark
+    public BlendedCities blendedTop10() {
+        return this.cities.getBlendedCitiesMatchingWords(nextPrefix(), LATITUDE, LONGITUDE, 0.5, 100, 10);
+    }
+
+    // Cycles through the prefixes, so no single prefix is benchmarked
+    private String nextPrefix() {
+        String prefix = this.prefixes[this.next];
+        this.next = (this.next + 1) % this.prefixes.length;
+        return prefix;
+    }
+}
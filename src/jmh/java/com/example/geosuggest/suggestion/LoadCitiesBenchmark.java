@@ -0,0 +1,53 @@
+package com.example.geosuggest.suggestion;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the startup of the application: loading the cities from the TSV file, or from an up-to-date
+ * snapshot. Each measurement is a single load, as at startup, so warm-up iterations are kept few.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+public class LoadCitiesBenchmark {
+
+    @Param({BenchmarkData.REAL, BenchmarkData.SYNTHETIC})
+    private String dataset;
+
+    @Param({"tsv", "snapshot"})
+    private String source;
+
+    private Path snapshot;
+
+    @Setup
+    public void setUp() throws IOException {
+        if (this.source.equals("snapshot")) {
+            // The first load writes the snapshot read by the measured ones
+            this.snapshot = Files.createTempDirectory("geosuggest").resolve("cities.snapshot");
+            BenchmarkData.createDAO(this.dataset, this.snapshot.toString()).loadCities();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (this.snapshot != null) {
+            Files.deleteIfExists(this.snapshot);
+            Files.deleteIfExists(this.snapshot.getParent());
+        }
+    }
+
+    @Benchmark
+    public CityIndex loadCities() throws IOException {
+        SuggestionDAO suggestionDAO = BenchmarkData.createDAO(this.dataset,
+                this.snapshot == null ? "" : this.snapshot.toString());
+        suggestionDAO.loadCities();
+        return suggestionDAO.getCityIndex();
+    }
+}
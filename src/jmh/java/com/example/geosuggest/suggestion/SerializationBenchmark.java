@@ -0,0 +1,64 @@
+package com.example.geosuggest.suggestion;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the serialization of the suggestions into a JSON response: Jackson over a list of
+ * {@link SuggestionDTO}, built from the columns as the service used to, against the {@link CitySuggestionsJsonWriter}
+ * writing straight from the columns. The allocation rates reported by {@code -prof gc} are the point of comparison;
+ * short prefixes match thousands of cities.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerializationBenchmark {
+
+    @Param({BenchmarkData.REAL, BenchmarkData.SYNTHETIC})
+    private String dataset;
+
+    @Param({"1", "3"})
+    private int prefixLength;
+
+    // The response stream is not closed by the converter either
+    private final ObjectMapper objectMapper = new ObjectMapper().configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+    private final OutputStream out = OutputStream.nullOutputStream();
+    private CitySuggestions[] suggestions;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        SuggestionDAO suggestionDAO = BenchmarkData.loadDAO(this.dataset);
+        SuggestionServiceImpl suggestionService = BenchmarkData.createService(suggestionDAO);
+        String[] prefixes = BenchmarkData.prefixes(suggestionDAO.getCityIndex(), this.prefixLength);
+        this.suggestions = new CitySuggestions[prefixes.length];
+        for (int i = 0; i < prefixes.length; i++) {
+            this.suggestions[i] = (CitySuggestions) suggestionService.getCitiesSuggestions(prefixes[i]);
+        }
+    }
+
+    @Benchmark
+    public void jackson() throws IOException {
+        List<SuggestionDTO> dtos = new ArrayList<>(nextSuggestions());
+        this.objectMapper.writeValue(this.out, dtos);
+    }
+
+    @Benchmark
+    public void columns() throws IOException {
+        CitySuggestionsJsonWriter.write(nextSuggestions(), this.out);
+    }
+
+    // Cycles through the suggestions of the prefixes, so no single prefix is benchmarked
+    private CitySuggestions nextSuggestions() {
+        CitySuggestions suggestions = this.suggestions[this.next];
+        this.next = (this.next + 1) % this.suggestions.length;
+        return suggestions;
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.geosuggest.suggestion;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the whole suggestion pipeline, from the query to the scored suggestions: ranking, score
+ * normalization and the building of the suggestions, with and without the cache in front of it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SuggestionServiceBenchmark {
+
+    // Downtown Toronto
+    private static final double LATITUDE = 43.65;
+    private static final double LONGITUDE = -79.38;
+
+    @Param({BenchmarkData.REAL, BenchmarkData.SYNTHETIC})
+    private String dataset;
+
+    @Param({"1", "3"})
+    private int prefixLength;
+
+    private SuggestionServiceImpl suggestionService;
+    private CachingSuggestionService cachingService;
+    private String[] prefixes;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        SuggestionDAO suggestionDAO = BenchmarkData.loadDAO(this.dataset);
+        this.suggestionService = BenchmarkData.createService(suggestionDAO);
+        this.cachingService = BenchmarkData.createCachingService(this.suggestionService, suggestionDAO);
+        this.prefixes = BenchmarkData.prefixes(suggestionDAO.getCityIndex(), this.prefixLength);
+    }
+
+    @Benchmark
+    public Iterable<SuggestionDTO> byPopulation() {
+        return this.suggestionService.getCitiesSuggestions(nextPrefix());
+    }
+
+    @Benchmark
+    public Iterable<SuggestionDTO> byPopulationTop10() {
+        return this.suggestionService.getCitiesSuggestions(nextPrefix(), 10);
+    }
+
+    @Benchmark
+    public Iterable<SuggestionDTO> byProximity() {
+        return this.suggestionService.getCitiesSuggestions(nextPrefix(), LATITUDE, LONGITUDE);
+    }
+
+    @Benchmark
+    public Iterable<SuggestionDTO> byProximityTop10() {
+        return this.suggestionService.getCitiesSuggestions(nextPrefix(), LATITUDE, LONGITUDE, 10);
+    }
+
+    // Once the cache is warm, as for the prefixes most typed in production
+    @Benchmark
+    public Iterable<SuggestionDTO> byPopulationTop10Cached() {
+        return this.cachingService.getCitiesSuggestions(nextPrefix(), 10);
+    }
+
+    // Cycles through the prefixes, so no single prefix is benchmarked
+    private String nextPrefix() {
+        String prefix = this.prefixes[this.next];
+        this.next = (this.next + 1) % this.prefixes.length;
+        return prefix;
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.geosuggest.suggestion.trie;
+
+import com.example.geosuggest.suggestion.BenchmarkData;
+import com.example.geosuggest.suggestion.CityIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks searching the Trie for misspelled prefixes against searching it for the same prefixes spelled
+ * correctly. Each misspelled prefix has one character substituted past the first one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FuzzyTrieBenchmark {
+
+    @Param({BenchmarkData.REAL, BenchmarkData.SYNTHETIC})
+    private String dataset;
+
+    @Param({"4", "7"})
+    private int prefixLength;
+
+    @Param({"1", "2"})
+    private int maxDistance;
+
+    @Param({"0", "1"})
+    private int exactLength;
+
+    private Trie trie;
+    private String[] prefixes;
+    private String[] misspelledPrefixes;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        CityIndex cities = BenchmarkData.loadDAO(this.dataset).getCityIndex();
+        this.trie = new Trie();
+        for (int cityId = 0; cityId < cities.getCityCount(); cityId++) {
+            this.trie.insert(cities.getCityName(cityId), cityId);
+        }
+        this.prefixes = BenchmarkData.prefixes(cities, this.prefixLength);
+        this.misspelledPrefixes = new String[this.prefixes.length];
+        for (int i = 0; i < this.prefixes.length; i++) {
+            char[] misspelled = this.prefixes[i].toCharArray();
+            int position = 1 + i % (misspelled.length - 1);
+            misspelled[position] = misspelled[position] == 'x' ? 'z' : 'x';
+            this.misspelledPrefixes[i] = new String(misspelled);
+        }
+    }
+
+    // The baseline: the prefixes spelled correctly, searched exactly
+    @Benchmark
+    public int[] exact() {
+        return this.trie.getIdsStartingWith(this.prefixes[nextIndex()]);
+    }
+
+    @Benchmark
+    public int[] fuzzy() {
+        return this.trie.getIdsStartingWithin(this.misspelledPrefixes[nextIndex()], this.exactLength, this.maxDistance);
+    }
+
+    // Cycles through the prefixes, so no single prefix is benchmarked
+    private int nextIndex() {
+        int index = this.next;
+        this.next = (this.next + 1) % this.prefixes.length;
+        return index;
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.geosuggest.suggestion.trie;
+
+import com.example.geosuggest.suggestion.BenchmarkData;
+import com.example.geosuggest.suggestion.CityIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks building the Trie of the city names and searching it by prefix.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TrieBenchmark {
+
+    @Param({BenchmarkData.REAL, BenchmarkData.SYNTHETIC})
+    private String dataset;
+
+    @Param({"1", "2", "3", "5"})
+    private int prefixLength;
+
+    private String[] names;
+    private String[] prefixes;
+    private Trie trie;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        CityIndex cities = BenchmarkData.loadDAO(this.dataset).getCityIndex();
+        this.names = new String[cities.getCityCount()];
+        this.trie = new Trie();
+        for (int cityId = 0; cityId < this.names.length; cityId++) {
+            this.names[cityId] = cities.getCityName(cityId);
+            this.trie.insert(this.names[cityId], cityId);
+        }
+        this.prefixes = BenchmarkData.prefixes(cities, this.prefixLength);
+    }
+
+    // Inserts every city name into a new Trie; independent of the prefix length
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Trie insert() {
+        Trie trie = new Trie();
+        for (int cityId = 0; cityId < this.names.length; cityId++) {
+            trie.insert(this.names[cityId], cityId);
+        }
+        return trie;
+    }
+
+    @Benchmark
+    public List<String> getLettersStartingWith() {
+        return this.trie.getLettersStartingWith(nextPrefix());
+    }
+
+    // Cycles through the prefixes, so no single prefix is benchmarked
+    private String nextPrefix() {
+        String prefix = this.prefixes[this.next];
+        this.next = (this.next + 1) % this.prefixes.length;
+        return prefix;
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.geosuggest.suggestion;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Answers batches of suggestion queries, such as those of geocoding jobs, in a single request.
+ *
+ * The queries of a batch are split into contiguous slices, answered in parallel against the shared, read-only
+ * city index, each slice going through the {@link SuggestionService} like a single request does, cache included.
+ * A slice is one task, so the overhead of the executor is paid once per slice and not once per query, and the
+ * request thread answers the last slice itself instead of waiting idle.
+ *
+ * Each slice runs on its own virtual thread, and a semaphore bounds how many of them search at once across all
+ * batches (see {@code geosuggest.batch.threads}), as the searches are bound by the processors: slices beyond it
+ * wait for a permit parked, which costs no platform thread, and slow down the batches instead of crowding out
+ * the single requests. If a slice fails, the slices still waiting or running are cancelled, and the batch fails.
+ */
+@Service
+public class BatchSuggestionService {
+
+    private static final int MIN_QUERIES_PER_SLICE = 16; // Fewer queries are not worth handing to another thread
+
+    @Autowired
+    private SuggestionService suggestionService;
+
+    @Value("${geosuggest.batch.threads:0}")
+    private int threads = 0;
+
+    @Value("${geosuggest.batch.max-queries:10000}")
+    private int maxQueries = 10000;
+
+    private int parallelism;
+    private Semaphore permits; // One per slice allowed to search at once, across all batches
+    private ExecutorService executor;
+
+    /**
+     * Starts the executor answering the slices of the batches, on virtual threads, letting one slice per processor
+     * search at once unless {@code geosuggest.batch.threads} is set.
+     */
+    @PostConstruct
+    public void startExecutor() {
+        this.parallelism = this.threads > 0 ? this.threads : Runtime.getRuntime().availableProcessors();
+        this.permits = new Semaphore(this.parallelism);
+        this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("suggestion-batch-", 1).factory());
+    }
+
+    /**
+     * Stops the executor answering the batches, letting the batches in progress finish.
+     */
+    @PreDestroy
+    public void stopExecutor() {
+        this.executor.shutdown();
+    }
+
+    /**
+     * Retrieves the maximum number of queries of a batch (see {@code geosuggest.batch.max-queries}).
+     *
+     * @return The maximum number of queries of a batch.
+     */
+    public int getMaxQueries() {
+        return this.maxQueries;
+    }
+
+    /**
+     * Retrieves the suggestions of each query of a batch, as {@link SuggestionService} would for a single request:
+     * ranked by proximity if the query has both coordinates, by population otherwise, and limited if it has a limit.
+     *
+     * @param queries The queries, each with a query string and a positive limit if any.
+     * @return The suggestions of each query, in the order of the queries.
+     */
+    public List<Iterable<SuggestionDTO>> getCitiesSuggestions(List<SuggestionQueryDTO> queries) {
+        @SuppressWarnings("unchecked")
+        Iterable<SuggestionDTO>[] suggestions = new Iterable[queries.size()];
+        int slices = Math.max(1, Math.min(this.parallelism + 1, queries.size() / MIN_QUERIES_PER_SLICE));
+
+        List<Future<?>> futures = new ArrayList<>(slices - 1);
+        boolean answered = false;
+        try {
+            for (int slice = 0; slice < slices - 1; slice++) {
+                int from = slice * queries.size() / slices;
+                int to = (slice + 1) * queries.size() / slices;
+                futures.add(this.executor.submit(() -> suggestWithPermit(queries, from, to, suggestions)));
+            }
+            suggest(queries, (slices - 1) * queries.size() / slices, queries.size(), suggestions);
+
+            // Waiting for every slice also makes the suggestions they stored visible to this thread
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof RuntimeException cause
+                            ? cause : new IllegalStateException(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while answering a batch of suggestion queries", e);
+                }
+            }
+            answered = true;
+        } finally {
+            // Nobody reads the suggestions of a failed batch, so the other slices stop searching for them
+            if (!answered) {
+                for (Future<?> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+        return Arrays.asList(suggestions);
+    }
+
+    // Answers the queries from one index to another, exclusive, on a thread of the executor once a permit to search is
+    // available, stopping at the next query if the slice is cancelled
+    private void suggestWithPermit(List<SuggestionQueryDTO> queries, int from, int to,
+                                   Iterable<SuggestionDTO>[] suggestions) {
+        try {
+            this.permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to answer a batch of suggestion queries", e);
+        }
+        try {
+            for (int i = from; i < to && !Thread.currentThread().isInterrupted(); i++) {
+                suggestions[i] = suggest(queries.get(i));
+            }
+        } finally {
+            this.permits.release();
+        }
+    }
+
+    // Answers the queries from one index to another, exclusive, storing their suggestions at the same indexes
+    private void suggest(List<SuggestionQueryDTO> queries, int from, int to, Iterable<SuggestionDTO>[] suggestions) {
+        for (int i = from; i < to; i++) {
+            suggestions[i] = suggest(queries.get(i));
+        }
+    }
+
+    // Answers a query like a single request with the same parameters
+    private Iterable<SuggestionDTO> suggest(SuggestionQueryDTO query) {
+        if (query.getLatitude() == null || query.getLongitude() == null) {
+            if (query.getLimit() == null) {
+                return suggestionService.getCitiesSuggestions(query.getQ());
+            }
+            return suggestionService.getCitiesSuggestions(query.getQ(), query.getLimit());
+        }
+        if (query.getLimit() == null) {
+            return suggestionService.getCitiesSuggestions(query.getQ(), query.getLatitude(), query.getLongitude());
+        }
+        return suggestionService.getCitiesSuggestions(query.getQ(), query.getLatitude(), query.getLongitude(),
+                query.getLimit());
+    }
+}
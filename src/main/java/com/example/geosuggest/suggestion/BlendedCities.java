@@ -0,0 +1,25 @@
+package com.example.geosuggest.suggestion;
+
+public class BlendedCities {
+    private final int[] cityIds;
+    private final double[] scores;
+
+    /**
+     * Creates a ranking of cities by a blend of their population and their proximity.
+     *
+     * @param cityIds The ids of the cities, best first.
+     * @param scores  The blended score of each city, between 0 and 1, in the same order as the ids.
+     */
+    public BlendedCities(int[] cityIds, double[] scores) {
+        this.cityIds = cityIds;
+        this.scores = scores;
+    }
+
+    public int[] getCityIds() {
+        return cityIds;
+    }
+
+    public double[] getScores() {
+        return scores;
+    }
+}
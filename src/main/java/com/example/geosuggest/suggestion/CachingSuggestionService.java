@@ -0,0 +1,231 @@
+package com.example.geosuggest.suggestion;
+
+import com.example.geosuggest.suggestion.util.NameNormalizer;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Caches the suggestions of {@link SuggestionServiceImpl} for the most requested queries.
+ *
+ * Autocomplete traffic is dominated by a few short prefixes, so the suggestions of each query and limit are kept
+ * in a Caffeine cache bounded by the total number of cached suggestions (see {@code geosuggest.cache.max-suggestions}).
+ * Caffeine evicts with W-TinyLFU, which keeps the frequently requested queries even when many rare ones pass
+ * through, and records hit and miss counts (see {@link #getCacheStats()}). Queries are
+ * {@link NameNormalizer normalized} once, before the cache is looked up, so queries differing only in case, accents
+ * or punctuation ("new york", "New-York") share their suggestions.
+ *
+ * Concurrent misses on the same query are collapsed by a {@link SingleFlight}, so a spike of identical requests
+ * computes their suggestions once: the first request computes them, outside of any lock of the cache, and the
+ * others wait for it and share them (counted by {@code geosuggest.suggestion.collapsed}). Proximity queries that
+ * are not cached are collapsed too, when their coordinates are the same.
+ *
+ * Proximity queries are cached by snapping their coordinates to the center of a grid cell (see
+ * {@code geosuggest.cache.grid-cell-degrees}): every location in a cell gets the suggestions computed for its
+ * center. A cell size of 0 disables the caching of proximity queries.
+ *
+ * Cached suggestions belong to the {@link CityIndex} they were computed from: the index is part of the cache key,
+ * and the whole cache is invalidated as soon as the cities are reloaded.
+ */
+@Service
+@Primary
+public class CachingSuggestionService implements SuggestionService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachingSuggestionService.class);
+
+    private static final int NO_LIMIT = 0;
+
+    @Autowired
+    private SuggestionServiceImpl suggestionService;
+
+    @Autowired
+    private SuggestionDAO suggestionDAO;
+
+    @Value("${geosuggest.cache.max-suggestions:100000}")
+    private long maxSuggestions = 100000;
+
+    @Value("${geosuggest.cache.grid-cell-degrees:0.01}")
+    private double gridCellDegrees = 0.01;
+
+    private Cache<CacheKey, List<SuggestionDTO>> cache;
+
+    private final SingleFlight<CacheKey, List<SuggestionDTO>> inFlight =
+            new SingleFlight<>(SuggestionMetrics.COLLAPSED_REQUESTS);
+
+    // The index the cached suggestions were computed from
+    private volatile CityIndex cachedCityIndex;
+
+    // Key of the suggestions of a query; the cells are 0 for queries without coordinates, and the bits of the
+    // coordinates for proximity queries that are not cached
+    private record CacheKey(CityIndex cities, String query, int limit, boolean proximity,
+                            long latitudeCell, long longitudeCell) {}
+
+    /**
+     * Creates the cache, bounded by the total number of suggestions it holds.
+     */
+    @PostConstruct
+    public void createCache() {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(this.maxSuggestions)
+                .weigher((CacheKey key, List<SuggestionDTO> suggestions) -> suggestions.size() + 1)
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public Iterable<SuggestionDTO> getCitiesSuggestions(String query) {
+        String normalizedQuery = NameNormalizer.normalize(query);
+        return getCached(normalizedQuery, NO_LIMIT, () -> suggestionService.getCitiesSuggestions(normalizedQuery));
+    }
+
+    @Override
+    public Iterable<SuggestionDTO> getCitiesSuggestions(String query, int limit) {
+        String normalizedQuery = NameNormalizer.normalize(query);
+        return getCached(normalizedQuery, limit, () -> suggestionService.getCitiesSuggestions(normalizedQuery, limit));
+    }
+
+    @Override
+    public Iterable<SuggestionDTO> getCitiesSuggestions(String query, double latitude, double longitude) {
+        String normalizedQuery = NameNormalizer.normalize(query);
+        if (this.gridCellDegrees <= 0) {
+            return getCollapsed(normalizedQuery, NO_LIMIT, latitude, longitude,
+                    () -> suggestionService.getCitiesSuggestions(normalizedQuery, latitude, longitude));
+        }
+        long latitudeCell = toCell(latitude);
+        long longitudeCell = toCell(longitude);
+        return getCached(normalizedQuery, NO_LIMIT, latitudeCell, longitudeCell, () -> suggestionService.getCitiesSuggestions(
+                normalizedQuery, toCellCenter(latitudeCell), toCellCenter(longitudeCell)));
+    }
+
+    @Override
+    public Iterable<SuggestionDTO> getCitiesSuggestions(String query, double latitude, double longitude, int limit) {
+        String normalizedQuery = NameNormalizer.normalize(query);
+        if (this.gridCellDegrees <= 0) {
+            return getCollapsed(normalizedQuery, limit, latitude, longitude,
+                    () -> suggestionService.getCitiesSuggestions(normalizedQuery, latitude, longitude, limit));
+        }
+        long latitudeCell = toCell(latitude);
+        long longitudeCell = toCell(longitude);
+        return getCached(normalizedQuery, limit, latitudeCell, longitudeCell, () -> suggestionService.getCitiesSuggestions(
+                normalizedQuery, toCellCenter(latitudeCell), toCellCenter(longitudeCell), limit));
+    }
+
+    /**
+     * Fingerprints the settings of {@link SuggestionServiceImpl} and the grid cells of cached proximity queries
+     * ({@code geosuggest.cache.grid-cell-degrees}), whose suggestions are computed for the center of their cell.
+     *
+     * @return A value that only changes when these settings change.
+     */
+    @Override
+    public long getSettingsFingerprint() {
+        return Objects.hash(suggestionService.getSettingsFingerprint(), this.gridCellDegrees);
+    }
+
+    /**
+     * Retrieves the hit, miss and eviction counts of the cache since the application started.
+     *
+     * @return The statistics of the cache.
+     */
+    public CacheStats getCacheStats() {
+        return this.cache.stats();
+    }
+
+    // Counts the queries whose suggestions are cached
+    long getCachedQueryCount() {
+        this.cache.cleanUp();
+        return this.cache.estimatedSize();
+    }
+
+    // Gets the suggestions of a query without coordinates from the cache, computing them on a miss
+    private Iterable<SuggestionDTO> getCached(String query, int limit, Supplier<Iterable<SuggestionDTO>> suggestions) {
+        return get(new CacheKey(currentCityIndex(), query, limit, false, 0, 0), suggestions);
+    }
+
+    // Gets the suggestions of a proximity query from the cache, computing them on a miss
+    private Iterable<SuggestionDTO> getCached(String query, int limit, long latitudeCell, long longitudeCell,
+                                              Supplier<Iterable<SuggestionDTO>> suggestions) {
+        return get(new CacheKey(currentCityIndex(), query, limit, true, latitudeCell, longitudeCell), suggestions);
+    }
+
+    // Computes the suggestions of a proximity query that is not cached, sharing them with identical queries in flight.
+    // A reload is noticed here too, so the cache does not keep the previous index alive while only such queries come
+    private Iterable<SuggestionDTO> getCollapsed(String query, int limit, double latitude, double longitude,
+                                                 Supplier<Iterable<SuggestionDTO>> suggestions) {
+        CacheKey key = new CacheKey(currentCityIndex(), query, limit, true,
+                Double.doubleToLongBits(latitude), Double.doubleToLongBits(longitude));
+        return this.inFlight.execute(key, () -> toShared(suggestions.get()));
+    }
+
+    // Gets the suggestions of a key from the cache, or computes them once for the concurrent misses on the key
+    private Iterable<SuggestionDTO> get(CacheKey key, Supplier<Iterable<SuggestionDTO>> suggestions) {
+        List<SuggestionDTO> cached = this.cache.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+        return this.inFlight.execute(key, () -> {
+            // An identical request may have filled the cache since it was looked up; reading the map of the cache
+            // does not count as a second miss
+            List<SuggestionDTO> computed = this.cache.asMap().get(key);
+            if (computed == null) {
+                computed = toShared(suggestions.get());
+                this.cache.put(key, computed);
+                // Suggestions computed while the cities were reloaded belong to the previous index, whose entries
+                // are invalidated: they could never be hit again, and would keep that whole index alive until evicted
+                if (key.cities() != suggestionDAO.getCityIndex()) {
+                    this.cache.invalidate(key);
+                }
+            }
+            return computed;
+        });
+    }
+
+    // Suggestions are shared between requests, so they are returned unmodifiable; city suggestions already are,
+    // and are kept as they are so they can still be written from the columns of the index
+    private static List<SuggestionDTO> toShared(Iterable<SuggestionDTO> suggestions) {
+        if (suggestions instanceof CitySuggestions citySuggestions) {
+            return citySuggestions;
+        }
+        List<SuggestionDTO> list = new ArrayList<>();
+        suggestions.forEach(list::add);
+        return Collections.unmodifiableList(list);
+    }
+
+    // Retrieves the current index, invalidating the cache if the cities were reloaded since it was filled
+    private CityIndex currentCityIndex() {
+        CityIndex cities = suggestionDAO.getCityIndex();
+        if (cities != this.cachedCityIndex) {
+            synchronized (this) {
+                if (cities != this.cachedCityIndex) {
+                    if (this.cachedCityIndex != null) {
+                        LOGGER.info("Cities were reloaded, invalidating the suggestion cache: {}", this.cache.stats());
+                    }
+                    this.cache.invalidateAll();
+                    this.cachedCityIndex = cities;
+                }
+            }
+        }
+        return cities;
+    }
+
+    // Finds the grid cell containing the given coordinate
+    private long toCell(double coordinate) {
+        return (long) Math.floor(coordinate / this.gridCellDegrees);
+    }
+
+    // Finds the coordinate of the center of the given grid cell
+    private double toCellCenter(long cell) {
+        return (cell + 0.5) * this.gridCellDegrees;
+    }
+}
@@ -0,0 +1,962 @@
+package com.example.geosuggest.suggestion;
+
+import com.example.geosuggest.suggestion.spatial.KdTree;
+import com.example.geosuggest.suggestion.token.TokenIndex;
+import com.example.geosuggest.suggestion.trie.OffHeapTrie;
+import com.example.geosuggest.suggestion.trie.PrefixIndex;
+import com.example.geosuggest.suggestion.trie.Trie;
+import com.example.geosuggest.suggestion.util.GeoCalculator;
+import com.example.geosuggest.suggestion.util.NameNormalizer;
+import com.example.geosuggest.suggestion.util.ParallelArraySorter;
+import com.example.geosuggest.suggestion.util.ScoreCalculator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+import static java.lang.Math.cos;
+import static java.lang.Math.toRadians;
+import static java.lang.foreign.ValueLayout.JAVA_DOUBLE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+/**
+ * An immutable index of the loaded cities, which every search runs against.
+ *
+ * Each city has a dense id. Its geographical and population data are stored in primitive columns indexed by that id,
+ * its name in a pool of {@link CityNames} that only builds strings for the cities asked for, and its name is inserted
+ * into a Trie for prefix-based searches, which yield city ids. The words of its names are indexed in a
+ * {@link TokenIndex} for searches by any word, and the cities' coordinates in a {@link KdTree} for proximity searches.
+ *
+ * Names are inserted into the Trie in their {@link NameNormalizer normalized} form, as are the alternate names
+ * of the cities, all pointing at the city id, so an alternate name costs the Trie nodes of its key and nothing
+ * else. Search prefixes are normalized the same way, so searches ignore case, accents and punctuation.
+ *
+ * The columns are {@link MemorySegment}s, either over arrays on the heap or, for datasets too large to keep on the
+ * heap, allocated outside of it along with an {@link OffHeapTrie}, so the heap and the time spent collecting it
+ * do not grow with the number of cities. Both are read through the same code.
+ *
+ * An index never changes once built, so it can be read by any number of threads without locking, and a reload
+ * builds a new index instead of updating this one. City ids are only meaningful for the index that returned
+ * them: callers that search and then look cities up should hold on to the same index for both.
+ */
+public class CityIndex {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CityIndex.class);
+
+    private static final String[] NO_ALIASES = new String[0];
+
+    private final PrefixIndex trie;
+    private final TokenIndex tokens; // Indexes the cities by their population rank rather than their id
+    private final KdTree tree;
+
+    // The cities, stored as one column per attribute and indexed by city id
+    private final int cityCount;
+    private final CityNames names;
+    private final MemorySegment populations; // Longs
+    private final MemorySegment latitudes; // Doubles, as are the other coordinates
+    private final MemorySegment longitudes;
+    private final MemorySegment latitudesInRadians;
+    private final MemorySegment longitudesInRadians;
+    private final MemorySegment latitudeCosines;
+    private final MemorySegment cityIdsByRank; // Ints: the city ids sorted by population in descending order, then by id
+    private final MemorySegment cityRanks; // Ints: the population rank of each city, the inverse of cityIdsByRank
+
+    // Builds the coordinate indexes over columns whose Trie and token index are already built, copying
+    // the columns outside of the heap if an arena is given
+    private CityIndex(CityNames names, long[] populations, double[] latitudes, double[] longitudes, PrefixIndex trie,
+                      TokenIndex tokens, int[] cityIdsByRank, Arena arena) {
+        this.cityCount = populations.length;
+        this.names = names;
+        this.populations = column(arena, MemorySegment.ofArray(populations));
+        this.latitudes = column(arena, MemorySegment.ofArray(latitudes));
+        this.longitudes = column(arena, MemorySegment.ofArray(longitudes));
+        this.trie = trie;
+        this.tokens = tokens;
+        this.cityIdsByRank = column(arena, MemorySegment.ofArray(cityIdsByRank));
+        this.cityRanks = column(arena, MemorySegment.ofArray(invert(cityIdsByRank)));
+
+        // Precompute the coordinates in radians with the cosine of their latitude, so distances need no conversion per request
+        int size = this.cityCount;
+        this.tree = new KdTree(size, id -> latitudes[id], id -> longitudes[id]);
+        this.latitudesInRadians = column(arena, MemorySegment.ofArray(new double[size]));
+        this.longitudesInRadians = column(arena, MemorySegment.ofArray(new double[size]));
+        this.latitudeCosines = column(arena, MemorySegment.ofArray(new double[size]));
+        for (int id = 0; id < size; id++) {
+            double latitudeInRadians = toRadians(latitudes[id]);
+            this.latitudesInRadians.setAtIndex(JAVA_DOUBLE, id, latitudeInRadians);
+            this.longitudesInRadians.setAtIndex(JAVA_DOUBLE, id, toRadians(longitudes[id]));
+            this.latitudeCosines.setAtIndex(JAVA_DOUBLE, id, cos(latitudeInRadians));
+        }
+    }
+
+    // Keeps a column over its array on the heap, or copies it outside of the heap if an arena is given
+    private static MemorySegment column(Arena arena, MemorySegment values) {
+        if (arena == null) {
+            return values;
+        }
+        return arena.allocate(values.byteSize(), 8).copyFrom(values);
+    }
+
+    /**
+     * Restores an index from a snapshot. Only the {@link KdTree}, the coordinates in radians and the population
+     * ranks are rebuilt.
+     *
+     * @param snapshot The snapshot of the index.
+     * @return The restored index.
+     */
+    static CityIndex fromSnapshot(CitySnapshot snapshot) {
+        return fromSnapshot(snapshot, false);
+    }
+
+    /**
+     * Restores an index from a snapshot, keeping its columns and its Trie outside of the heap if asked to. A Trie
+     * read on the heap is then copied outside of it.
+     *
+     * @param snapshot The snapshot of the index.
+     * @param offHeap  Whether the columns and the Trie are stored outside of the heap.
+     * @return The restored index.
+     */
+    static CityIndex fromSnapshot(CitySnapshot snapshot, boolean offHeap) {
+        PrefixIndex trie = offHeap && snapshot.trie instanceof Trie onHeap ? OffHeapTrie.copyOf(onHeap) : snapshot.trie;
+        return new CityIndex(snapshot.names, snapshot.populations, snapshot.latitudes, snapshot.longitudes,
+                trie, snapshot.tokens, rankByPopulation(snapshot.populations), offHeap ? Arena.ofAuto() : null);
+    }
+
+    /**
+     * Retrieves a snapshot of the index, to be restored by {@link #fromSnapshot}.
+     *
+     * @param sourceDigest The digest of the content of the TSV file the cities were parsed from.
+     * @return The snapshot of the index.
+     */
+    CitySnapshot toSnapshot(long sourceDigest) {
+        return new CitySnapshot(sourceDigest, this.names, this.populations.toArray(JAVA_LONG), this.latitudes.toArray(JAVA_DOUBLE),
+                this.longitudes.toArray(JAVA_DOUBLE), this.trie, this.tokens);
+    }
+
+    /**
+     * Collects the cities of a new index, giving each city the next id, and builds the index.
+     */
+    static final class Builder {
+        private final boolean offHeap;
+        private final Trie trie = new Trie();
+        private final List<String> aliasKeys = new ArrayList<>();
+        private int[] aliasIds = new int[16];
+        private int size;
+        private final CityNames.Builder names = new CityNames.Builder();
+        private String[] keys = new String[16];
+        private long[] populations = new long[16];
+        private double[] latitudes = new double[16];
+        private double[] longitudes = new double[16];
+
+        // Constructor
+        Builder() {
+            this(false);
+        }
+
+        // Constructor of a builder whose index keeps its columns and its Trie outside of the heap if asked to
+        Builder(boolean offHeap) {
+            this.offHeap = offHeap;
+        }
+
+        /**
+         * Adds a city, giving it the next id. Cities whose normalized full name is already known are ignored.
+         *
+         * @param fullName   The full name of the city (including administrative division).
+         * @param latitude   The latitude of the city.
+         * @param longitude  The longitude of the city.
+         * @param population The population of the city.
+         * @return This builder.
+         */
+        Builder addCity(String fullName, double latitude, double longitude, long population) {
+            return addCity(fullName, NO_ALIASES, latitude, longitude, population);
+        }
+
+        /**
+         * Adds a city known by other names, giving it the next id. Cities whose normalized full name is already
+         * known are ignored, along with their alternate names.
+         *
+         * Alternate names are indexed once every city is added, and only under the keys no city's name has, so an
+         * alternate name never hides another city. Those with letters that have no ASCII equivalent, such as names
+         * in other scripts, are not indexed.
+         *
+         * @param fullName   The full name of the city (including administrative division).
+         * @param aliases    The alternate full names of the city (including administrative division).
+         * @param latitude   The latitude of the city.
+         * @param longitude  The longitude of the city.
+         * @param population The population of the city.
+         * @return This builder.
+         */
+        Builder addCity(String fullName, String[] aliases, double latitude, double longitude, long population) {
+            String key = NameNormalizer.normalize(fullName);
+            if (this.trie.getId(key) >= 0) {
+                return this;
+            }
+
+            int id = this.size++;
+            if (id == this.keys.length) {
+                int capacity = 2 * id;
+                this.keys = Arrays.copyOf(this.keys, capacity);
+                this.populations = Arrays.copyOf(this.populations, capacity);
+                this.latitudes = Arrays.copyOf(this.latitudes, capacity);
+                this.longitudes = Arrays.copyOf(this.longitudes, capacity);
+            }
+            this.names.add(fullName);
+            this.keys[id] = key;
+            this.populations[id] = population;
+            this.latitudes[id] = latitude;
+            this.longitudes[id] = longitude;
+            this.trie.insert(key, id);
+
+            for (String alias : aliases) {
+                String aliasKey = NameNormalizer.normalize(alias);
+                if (!aliasKey.equals(key) && NameNormalizer.isAscii(aliasKey)) {
+                    if (this.aliasKeys.size() == this.aliasIds.length) {
+                        this.aliasIds = Arrays.copyOf(this.aliasIds, 2 * this.aliasIds.length);
+                    }
+                    this.aliasIds[this.aliasKeys.size()] = id;
+                    this.aliasKeys.add(aliasKey);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Builds the index over the added cities: the {@link TokenIndex} of the words of their names and alternate
+         * names, the {@link KdTree}, and the coordinates in radians. The builder must not be used afterward.
+         *
+         * @return The new index.
+         */
+        CityIndex build() {
+            int aliasCount = 0;
+            for (int i = 0; i < this.aliasKeys.size(); i++) {
+                String aliasKey = this.aliasKeys.get(i);
+                if (this.trie.getId(aliasKey) < 0) {
+                    this.trie.insert(aliasKey, this.aliasIds[i]);
+                    aliasCount++;
+                }
+            }
+
+            long[] populations = Arrays.copyOf(this.populations, this.size);
+
+            // Cities are indexed by population rank, so matching ranks come out sorted by population
+            int[] cityIdsByRank = rankByPopulation(populations);
+            int[] ranks = invert(cityIdsByRank);
+            TokenIndex.Builder tokens = new TokenIndex.Builder();
+            for (int id = 0; id < this.size; id++) {
+                tokens.add(this.keys[id], ranks[id]);
+            }
+            for (int i = 0; i < this.aliasKeys.size(); i++) {
+                tokens.add(this.aliasKeys.get(i), ranks[this.aliasIds[i]]);
+            }
+            TokenIndex tokenIndex = tokens.build(this.size);
+
+            CityNames names = this.names.build();
+            long trieBytes = this.trie.getEstimatedBytes();
+            PrefixIndex trie = this.offHeap ? OffHeapTrie.copyOf(this.trie) : this.trie;
+            CityIndex index = new CityIndex(names, populations,
+                    Arrays.copyOf(this.latitudes, this.size), Arrays.copyOf(this.longitudes, this.size),
+                    trie, tokenIndex, cityIdsByRank, this.offHeap ? Arena.ofAuto() : null);
+
+            LOGGER.info("Indexed {} cities and {} alternate names in a trie of {} nodes using {} KB ({} bytes per city)",
+                    this.size, aliasCount, this.trie.getNodeCount(), trieBytes / 1024,
+                    trieBytes / Math.max(1, this.size));
+            if (this.offHeap) {
+                LOGGER.info("Stored the trie of {} nodes using {} KB and the columns using {} KB outside of the heap",
+                        trie.getNodeCount(), trie.getEstimatedBytes() / 1024, (6L * 8 + 2 * 4) * this.size / 1024);
+            }
+            LOGGER.info("Stored {} city names with {} distinct divisions using {} KB",
+                    this.size, names.getDivisionCount(), names.getEstimatedBytes() / 1024);
+            LOGGER.info("Indexed {} distinct words in posting lists using {} KB",
+                    tokenIndex.getTokenCount(), tokenIndex.getEstimatedBytes() / 1024);
+            return index;
+        }
+    }
+
+    /**
+     * Retrieves the ids of at most {@code limit} cities whose name starts within {@code maxEdits} edits of the
+     * given prefix, sorted by population in descending order, so misspelled prefixes (e.g., "Torontp" for
+     * "Toronto") still find cities.
+     *
+     * The Trie is searched with {@link Trie#getIdsStartingWithin}, which skips every subtree too far from the
+     * prefix. Exact matches are found too, so this is meant for prefixes that have none.
+     *
+     * @param prefix      The search query representing the starting characters of the city names, possibly misspelled.
+     * @param exactLength The number of characters at the start of the prefix that must not be misspelled.
+     * @param maxEdits    The maximum number of characters to insert, delete or substitute in the prefix.
+     * @param limit       The maximum number of city ids to return.
+     * @return The ids of at most {@code limit} matching cities, sorted by population in descending order.
+     */
+    public int[] getCityIdsStartingWithinEditsSortedByPopulation(String prefix, int exactLength, int maxEdits, int limit) {
+        prefix = NameNormalizer.normalize(prefix);
+        long start = System.nanoTime();
+        int[] cityIds = this.trie.getIdsStartingWithin(prefix, exactLength, maxEdits);
+        start = SuggestionMetrics.record(SuggestionMetrics.FUZZY_TRIE, start);
+        SuggestionMetrics.recordCandidates(prefix, cityIds.length);
+
+        sortByPopulation(cityIds);
+        SuggestionMetrics.record(SuggestionMetrics.RANK, start);
+        return cityIds.length > limit ? Arrays.copyOf(cityIds, limit) : cityIds;
+    }
+
+    // Sorts city ids by population in descending order, then by id, which is the order of their population ranks
+    private void sortByPopulation(int[] cityIds) {
+        for (int i = 0; i < cityIds.length; i++) {
+            cityIds[i] = this.cityRanks.getAtIndex(JAVA_INT, cityIds[i]);
+        }
+        Arrays.sort(cityIds);
+        for (int i = 0; i < cityIds.length; i++) {
+            cityIds[i] = this.cityIdsByRank.getAtIndex(JAVA_INT, cityIds[i]);
+        }
+    }
+
+    // Sorts every city id by population in descending order, then by id, as the sort is stable
+    private static int[] rankByPopulation(long[] populations) {
+        return IntStream.range(0, populations.length).boxed()
+                .sorted((id, otherId) -> Long.compare(populations[otherId], populations[id]))
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    // Maps each city id to its rank, given the city ids by rank
+    private static int[] invert(int[] cityIdsByRank) {
+        int[] ranks = new int[cityIdsByRank.length];
+        for (int rank = 0; rank < cityIdsByRank.length; rank++) {
+            ranks[cityIdsByRank[rank]] = rank;
+        }
+        return ranks;
+    }
+
+    /**
+     * Retrieves at most {@code limit} cities whose name starts within {@code maxEdits} edits of the given prefix,
+     * sorted by their proximity to the specified coordinates, along with their distance to these coordinates and
+     * the distance to the farthest matching city.
+     *
+     * @param prefix      The search query representing the starting characters of the city names, possibly misspelled.
+     * @param latitude    The latitude coordinate used to calculate the distance from each city.
+     * @param longitude   The longitude coordinate used to calculate the distance from each city.
+     * @param exactLength The number of characters at the start of the prefix that must not be misspelled.
+     * @param maxEdits    The maximum number of characters to insert, delete or substitute in the prefix.
+     * @param limit       The maximum number of cities to return.
+     * @return At most {@code limit} matching cities and their distances in kilometers, nearest first.
+     * @see #getCityIdsStartingWithinEditsSortedByPopulation(String, int, int, int)
+     */
+    public NearestCities getNearestCitiesStartingWithinEdits(String prefix, double latitude, double longitude,
+                                                             int exactLength, int maxEdits, int limit) {
+        prefix = NameNormalizer.normalize(prefix);
+        long start = System.nanoTime();
+        int[] cityIds = this.trie.getIdsStartingWithin(prefix, exactLength, maxEdits);
+        start = SuggestionMetrics.record(SuggestionMetrics.FUZZY_TRIE, start);
+        SuggestionMetrics.recordCandidates(prefix, cityIds.length);
+
+        NearestCities nearestCities = sortByDistance(cityIds, latitude, longitude, limit);
+        SuggestionMetrics.record(SuggestionMetrics.RANK, start);
+        return nearestCities;
+    }
+
+    // Sorts city ids by their distance to the given coordinates, keeping the limit nearest
+    private NearestCities sortByDistance(int[] cityIds, double latitude, double longitude, int limit) {
+        double latitudeInRadians = toRadians(latitude);
+        double longitudeInRadians = toRadians(longitude);
+        double latitudeCosine = cos(latitudeInRadians);
+        double[] haversines = new double[cityIds.length];
+        for (int i = 0; i < cityIds.length; i++) {
+            haversines[i] = haversine(cityIds[i], latitudeInRadians, latitudeCosine, longitudeInRadians);
+        }
+        ParallelArraySorter.sort(haversines, cityIds);
+
+        int count = Math.min(limit, cityIds.length);
+        double[] distances = new double[count];
+        for (int i = 0; i < count; i++) {
+            distances[i] = GeoCalculator.haversineToDistance(haversines[i]);
+        }
+        double maxDistance = cityIds.length == 0 ? 0 : GeoCalculator.haversineToDistance(haversines[cityIds.length - 1]);
+        return new NearestCities(count < cityIds.length ? Arrays.copyOf(cityIds, count) : cityIds, distances, maxDistance);
+    }
+
+    // Finds the limit nearest of the matching cities, sorted by population, and the distance to the farthest of them
+    private NearestCities nearest(int[] matchingIds, double latitude, double longitude, int limit) {
+        int[] cityIds;
+        IntPredicate matches = cityId -> isAmong(matchingIds, cityId);
+        // Searching the tree visits about limit * size / matches cities, scanning the matches visits all of them
+        if ((long) matchingIds.length * matchingIds.length > (long) limit * this.cityCount) {
+            cityIds = this.tree.nearest(latitude, longitude, limit, matches);
+        } else {
+            cityIds = this.tree.nearest(latitude, longitude, limit, matchingIds);
+        }
+
+        double latitudeInRadians = toRadians(latitude);
+        double longitudeInRadians = toRadians(longitude);
+        double latitudeCosine = cos(latitudeInRadians);
+        double[] distances = new double[cityIds.length];
+        for (int i = 0; i < cityIds.length; i++) {
+            distances[i] = GeoCalculator.haversineToDistance(haversine(cityIds[i], latitudeInRadians, latitudeCosine, longitudeInRadians));
+        }
+
+        // The farthest match is searched in the tree as the nearest are, visiting about size / matches cities
+        double maxHaversine = 0;
+        if ((long) matchingIds.length * matchingIds.length > this.cityCount) {
+            int farthest = this.tree.farthest(latitude, longitude, matches);
+            maxHaversine = haversine(farthest, latitudeInRadians, latitudeCosine, longitudeInRadians);
+        } else {
+            for (int cityId : matchingIds) {
+                maxHaversine = Math.max(maxHaversine, haversine(cityId, latitudeInRadians, latitudeCosine, longitudeInRadians));
+            }
+        }
+        return new NearestCities(cityIds, distances, GeoCalculator.haversineToDistance(maxHaversine));
+    }
+
+    // Tells whether a city is among the given ones, sorted by population, with a binary search on their population
+    // ranks, so the tree can skip the other cities without marking the given ones in a set of every city
+    private boolean isAmong(int[] cityIdsByPopulation, int cityId) {
+        int rank = this.cityRanks.getAtIndex(JAVA_INT, cityId);
+        int low = 0;
+        int high = cityIdsByPopulation.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleRank = this.cityRanks.getAtIndex(JAVA_INT, cityIdsByPopulation[middle]);
+            if (middleRank < rank) {
+                low = middle + 1;
+            } else if (middleRank > rank) {
+                high = middle - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Retrieves the ids of the cities whose names contain every word of the query, sorted by population in
+     * descending order. The words may be in any order, and the last one may be incomplete unless the query ends
+     * with a space, so "york" and "new yo" both find "New York City, NY, US", and "ontario" finds the cities of
+     * Ontario. Alternate names count as names. Every city starting with the query matches it too.
+     *
+     * The words are looked up in the {@link TokenIndex} and their posting lists are intersected. Posting lists
+     * hold the population rank of each city, so the matching cities come out sorted by population.
+     *
+     * @param query The search query, made of the words of the city names.
+     * @return The ids of the matching cities, sorted by population in descending order.
+     */
+    public int[] getCityIdsMatchingWordsSortedByPopulation(String query) {
+        query = NameNormalizer.normalize(query);
+        long start = System.nanoTime();
+        int[] cityIds = getCityIdsMatchingWords(query, Integer.MAX_VALUE);
+        SuggestionMetrics.record(SuggestionMetrics.TOKENS, start);
+        SuggestionMetrics.recordCandidates(query, cityIds.length);
+        return cityIds;
+    }
+
+    /**
+     * Retrieves the ids of at most {@code limit} cities whose names contain every word of the query, sorted by
+     * population in descending order. Only the first {@code limit} matching population ranks are mapped to their
+     * city id. The other matching cities are never counted, so their number is not recorded in
+     * {@code geosuggest.suggestion.candidates}.
+     *
+     * @param query The search query, made of the words of the city names.
+     * @param limit The maximum number of city ids to return.
+     * @return The ids of at most {@code limit} matching cities, sorted by population in descending order.
+     * @see #getCityIdsMatchingWordsSortedByPopulation(String)
+     */
+    public int[] getCityIdsMatchingWordsSortedByPopulation(String query, int limit) {
+        query = NameNormalizer.normalize(query);
+        long start = System.nanoTime();
+        int[] cityIds = getCityIdsMatchingWords(query, limit);
+        SuggestionMetrics.record(SuggestionMetrics.TOKENS, start);
+        return cityIds;
+    }
+
+    /**
+     * Retrieves the cities whose names contain every word of the query, sorted by their proximity to the
+     * specified coordinates, along with their distance to these coordinates.
+     *
+     * The distance to each matching city is computed once: the cities are ranked by the haversine of their
+     * central angle to the coordinates, which grows with the distance and needs neither a square root nor an arc
+     * sine, using the coordinates in radians precomputed at load time. The ranking keys are then converted into
+     * distances, so callers do not have to compute them again to score the cities.
+     *
+     * @param query     The search query, made of the words of the city names.
+     * @param latitude  The latitude coordinate used to calculate the distance from each city.
+     * @param longitude The longitude coordinate used to calculate the distance from each city.
+     * @return The matching cities and their distances in kilometers, nearest first.
+     * @see #getCityIdsMatchingWordsSortedByPopulation(String)
+     */
+    public NearestCities getNearestCitiesMatchingWords(String query, double latitude, double longitude) {
+        query = NameNormalizer.normalize(query);
+        long start = System.nanoTime();
+        int[] cityIds = getCityIdsMatchingWords(query, Integer.MAX_VALUE);
+        start = SuggestionMetrics.record(SuggestionMetrics.TOKENS, start);
+        SuggestionMetrics.recordCandidates(query, cityIds.length);
+
+        NearestCities nearestCities = sortByDistance(cityIds, latitude, longitude, cityIds.length);
+        SuggestionMetrics.record(SuggestionMetrics.RANK, start);
+        return nearestCities;
+    }
+
+    /**
+     * Retrieves at most {@code limit} cities whose names contain every word of the query, sorted by their
+     * proximity to the specified coordinates, along with their distance to these coordinates and the distance to
+     * the farthest matching city.
+     *
+     * The full list of matching cities is never sorted. When many cities match the query, the {@link KdTree} is
+     * searched best-first from the given coordinates, skipping the cities that do not match, and the search stops
+     * as soon as {@code limit} cities are found. When few cities match, the distance to each of them is computed
+     * once and only the {@code limit} nearest are kept. The distance to the farthest matching city, which the
+     * proximity scores are normalized against, is found the same way: when many cities match, the tree is searched
+     * from the farthest corners of its bounding boxes, which bound the distance to the cities inside, so it stops
+     * at the first matching city without computing the distance to every match; otherwise with a single pass over
+     * the haversines of the matching cities.
+     *
+     * @param query     The search query, made of the words of the city names.
+     * @param latitude  The latitude coordinate used to calculate the distance from each city.
+     * @param longitude The longitude coordinate used to calculate the distance from each city.
+     * @param limit     The maximum number of cities to return.
+     * @return At most {@code limit} matching cities and their distances in kilometers, nearest first.
+     * @see #getCityIdsMatchingWordsSortedByPopulation(String, int)
+     */
+    public NearestCities getNearestCitiesMatchingWords(String query, double latitude, double longitude, int limit) {
+        query = NameNormalizer.normalize(query);
+        long start = System.nanoTime();
+        int[] matchingIds = getCityIdsMatchingWords(query, Integer.MAX_VALUE);
+        start = SuggestionMetrics.record(SuggestionMetrics.TOKENS, start);
+        SuggestionMetrics.recordCandidates(query, matchingIds.length);
+
+        NearestCities nearestCities = nearest(matchingIds, latitude, longitude, limit);
+        SuggestionMetrics.record(SuggestionMetrics.RANK, start);
+        return nearestCities;
+    }
+
+    /**
+     * Retrieves at most {@code limit} cities whose names contain every word of the query, ranked by a blend of their
+     * population and their proximity to the specified coordinates, along with their blended scores, so a large city
+     * a little farther away can rank before a small city nearby.
+     *
+     * The population of a city is scored against the most populated matching city, which comes first in the
+     * posting lists, and its proximity with {@link ScoreCalculator#proximityScore}, which needs no other distance.
+     * The best cities are then found with the threshold algorithm: the matching cities are read both by population,
+     * from the posting lists, and by distance, from a best-first search of the {@link KdTree}, scoring each city
+     * read. No city left to read in either order can score better than the blend of the population and the
+     * distance of the last city read in each, so the ranking stops as soon as {@code limit} cities score at least
+     * that, usually after reading a few times {@code limit} cities however many match. When few cities match, they
+     * are all scored instead, as searching the tree would skip many cities that do not match.
+     *
+     * @param query            The search query, made of the words of the city names.
+     * @param latitude         The latitude coordinate used to calculate the distance from each city.
+     * @param longitude        The longitude coordinate used to calculate the distance from each city.
+     * @param populationWeight The weight of the population score between 0 and 1, the proximity score weighing the rest.
+     * @param distanceScale    The distance in kilometers at which the proximity score is halved.
+     * @param limit            The maximum number of cities to return.
+     * @return At most {@code limit} matching cities and their blended scores, best first.
+     * @see ScoreCalculator#blend
+     */
+    public BlendedCities getBlendedCitiesMatchingWords(String query, double latitude, double longitude,
+                                                       double populationWeight, double distanceScale, int limit) {
+        query = NameNormalizer.normalize(query);
+        long start = System.nanoTime();
+        int[] cityIds = getCityIdsMatchingWords(query, Integer.MAX_VALUE);
+        start = SuggestionMetrics.record(SuggestionMetrics.TOKENS, start);
+        SuggestionMetrics.recordCandidates(query, cityIds.length);
+
+        BlendedCities blendedCities = blend(cityIds, latitude, longitude, populationWeight, distanceScale, limit);
+        SuggestionMetrics.record(SuggestionMetrics.RANK, start);
+        return blendedCities;
+    }
+
+    /**
+     * Retrieves at most {@code limit} cities whose name starts within {@code maxEdits} edits of the given prefix,
+     * ranked by a blend of their population and their proximity to the specified coordinates, along with their
+     * blended scores.
+     *
+     * @param prefix           The search query representing the starting characters of the city names, possibly misspelled.
+     * @param latitude         The latitude coordinate used to calculate the distance from each city.
+     * @param longitude        The longitude coordinate used to calculate the distance from each city.
+     * @param exactLength      The number of characters at the start of the prefix that must not be misspelled.
+     * @param maxEdits         The maximum number of characters to insert, delete or substitute in the prefix.
+     * @param populationWeight The weight of the population score between 0 and 1, the proximity score weighing the rest.
+     * @param distanceScale    The distance in kilometers at which the proximity score is halved.
+     * @param limit            The maximum number of cities to return.
+     * @return At most {@code limit} matching cities and their blended scores, best first.
+     * @see #getBlendedCitiesMatchingWords(String, double, double, double, double, int)
+     */
+    public BlendedCities getBlendedCitiesStartingWithinEdits(String prefix, double latitude, double longitude,
+                                                             int exactLength, int maxEdits, double populationWeight,
+                                                             double distanceScale, int limit) {
+        prefix = NameNormalizer.normalize(prefix);
+        long start = System.nanoTime();
+        int[] cityIds = this.trie.getIdsStartingWithin(prefix, exactLength, maxEdits);
+        start = SuggestionMetrics.record(SuggestionMetrics.FUZZY_TRIE, start);
+        SuggestionMetrics.recordCandidates(prefix, cityIds.length);
+
+        sortByPopulation(cityIds);
+        BlendedCities blendedCities = blend(cityIds, latitude, longitude, populationWeight, distanceScale, limit);
+        SuggestionMetrics.record(SuggestionMetrics.RANK, start);
+        return blendedCities;
+    }
+
+    /**
+     * Retrieves at most {@code limit} of the given cities, ranked by a blend of their population and their
+     * proximity to the specified coordinates as
+     * {@link #getBlendedCitiesMatchingWords(String, double, double, double, double, int)} ranks the cities matching
+     * a query, along with their blended scores.
+     *
+     * @param cityIds          The ids of the cities to rank, sorted by population in descending order, such as those
+     *                         returned by {@link #getCityIdsByRank(int[], int)}.
+     * @param latitude         The latitude coordinate used to calculate the distance from each city.
+     * @param longitude        The longitude coordinate used to calculate the distance from each city.
+     * @param populationWeight The weight of the population score between 0 and 1, the proximity score weighing the rest.
+     * @param distanceScale    The distance in kilometers at which the proximity score is halved.
+     * @param limit            The maximum number of cities to return.
+     * @return At most {@code limit} of the cities and their blended scores, best first.
+     */
+    public BlendedCities getBlendedCities(int[] cityIds, double latitude, double longitude, double populationWeight,
+                                          double distanceScale, int limit) {
+        long start = System.nanoTime();
+        BlendedCities blendedCities = blend(cityIds, latitude, longitude, populationWeight, distanceScale, limit);
+        SuggestionMetrics.record(SuggestionMetrics.RANK, start);
+        return blendedCities;
+    }
+
+    // Keeps the limit cities with the best blended score among cities sorted by population, with the threshold
+    // algorithm, or by scoring them all when few match
+    private BlendedCities blend(int[] cityIds, double latitude, double longitude, double populationWeight,
+                                double distanceScale, int limit) {
+        BestCities best = new BestCities(Math.min(limit, cityIds.length));
+        if (best.capacity() == 0) {
+            return best.toBlendedCities();
+        }
+
+        double latitudeInRadians = toRadians(latitude);
+        double longitudeInRadians = toRadians(longitude);
+        double latitudeCosine = cos(latitudeInRadians);
+        double maxPopulation = getCityPopulation(cityIds[0]);
+
+        // Scoring every match computes a distance each, the tree visits about limit * size / matches cities
+        if ((long) cityIds.length * cityIds.length <= (long) best.capacity() * this.cityCount) {
+            for (int cityId : cityIds) {
+                double distance = GeoCalculator.haversineToDistance(
+                        haversine(cityId, latitudeInRadians, latitudeCosine, longitudeInRadians));
+                best.offer(cityId, ScoreCalculator.blend(getCityPopulation(cityId) / (maxPopulation + 1),
+                        ScoreCalculator.proximityScore(distance, distanceScale), populationWeight));
+            }
+            return best.toBlendedCities();
+        }
+
+        KdTree.Cursor nearestCities = this.tree.cursor(latitude, longitude, cityId -> isAmong(cityIds, cityId));
+        ScoredCities scored = new ScoredCities(best.capacity());
+        for (int i = 0; i < cityIds.length; i++) {
+            // Read the next most populated city, then the next nearest one, scoring each the first time it is read
+            int populous = cityIds[i];
+            double populationScore = getCityPopulation(populous) / (maxPopulation + 1);
+            if (scored.add(populous)) {
+                double distance = GeoCalculator.haversineToDistance(
+                        haversine(populous, latitudeInRadians, latitudeCosine, longitudeInRadians));
+                best.offer(populous, ScoreCalculator.blend(populationScore,
+                        ScoreCalculator.proximityScore(distance, distanceScale), populationWeight));
+            }
+
+            int nearest = nearestCities.next();
+            if (nearest < 0) {
+                // Every match has been read by distance, so scored
+                break;
+            }
+            double proximityScore = ScoreCalculator.proximityScore(GeoCalculator.haversineToDistance(
+                    haversine(nearest, latitudeInRadians, latitudeCosine, longitudeInRadians)), distanceScale);
+            if (scored.add(nearest)) {
+                best.offer(nearest, ScoreCalculator.blend(getCityPopulation(nearest) / (maxPopulation + 1),
+                        proximityScore, populationWeight));
+            }
+
+            // No city left to read is more populated or nearer than the last ones read
+            double threshold = ScoreCalculator.blend(populationScore, proximityScore, populationWeight);
+            if (best.isFull() && best.worstScore() >= threshold) {
+                break;
+            }
+        }
+        return best.toBlendedCities();
+    }
+
+    // The ids of the cities scored so far, in an open-addressing hash table doubled when half full, as the threshold
+    // algorithm only scores a few times as many cities as it keeps
+    private static final class ScoredCities {
+        private int[] slots; // The city ids plus one, 0 marking an empty slot
+        private int size;
+
+        ScoredCities(int capacity) {
+            this.slots = new int[Integer.highestOneBit(Math.max(capacity, 4) * 4)];
+        }
+
+        // Adds a city, returning false if it was already scored
+        boolean add(int cityId) {
+            int mask = this.slots.length - 1;
+            int slot = mix(cityId) & mask;
+            while (this.slots[slot] != 0) {
+                if (this.slots[slot] == cityId + 1) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            this.slots[slot] = cityId + 1;
+            if (++this.size * 2 > this.slots.length) {
+                grow();
+            }
+            return true;
+        }
+
+        private void grow() {
+            int[] previous = this.slots;
+            this.slots = new int[previous.length * 2];
+            int mask = this.slots.length - 1;
+            for (int entry : previous) {
+                if (entry != 0) {
+                    int slot = mix(entry - 1) & mask;
+                    while (this.slots[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    this.slots[slot] = entry;
+                }
+            }
+        }
+
+        // Spreads nearby ids over the table, with the multiplier of Fibonacci hashing
+        private static int mix(int cityId) {
+            int hash = cityId * 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
+    }
+
+    // The cities with the best scores offered so far, at most capacity of them, in a min-heap so the worst of them
+    // is replaced first; of two cities with the same score, the one with the lowest id is the best
+    private static final class BestCities {
+        private final int[] cityIds;
+        private final double[] scores;
+        private int size;
+
+        BestCities(int capacity) {
+            this.cityIds = new int[capacity];
+            this.scores = new double[capacity];
+        }
+
+        int capacity() {
+            return this.cityIds.length;
+        }
+
+        boolean isFull() {
+            return this.size == this.cityIds.length;
+        }
+
+        double worstScore() {
+            return this.scores[0];
+        }
+
+        void offer(int cityId, double score) {
+            if (!isFull()) {
+                // Sift the new city up
+                int i = this.size++;
+                while (i > 0) {
+                    int parent = (i - 1) >>> 1;
+                    if (!isWorse(cityId, score, this.cityIds[parent], this.scores[parent])) {
+                        break;
+                    }
+                    this.cityIds[i] = this.cityIds[parent];
+                    this.scores[i] = this.scores[parent];
+                    i = parent;
+                }
+                this.cityIds[i] = cityId;
+                this.scores[i] = score;
+            } else if (isWorse(this.cityIds[0], this.scores[0], cityId, score)) {
+                replaceWorst(cityId, score);
+            }
+        }
+
+        // Replaces the worst city and sifts the given one down from the top
+        private void replaceWorst(int cityId, double score) {
+            int i = 0;
+            int half = this.size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < this.size
+                        && isWorse(this.cityIds[child + 1], this.scores[child + 1], this.cityIds[child], this.scores[child])) {
+                    child++;
+                }
+                if (!isWorse(this.cityIds[child], this.scores[child], cityId, score)) {
+                    break;
+                }
+                this.cityIds[i] = this.cityIds[child];
+                this.scores[i] = this.scores[child];
+                i = child;
+            }
+            this.cityIds[i] = cityId;
+            this.scores[i] = score;
+        }
+
+        private static boolean isWorse(int cityId, double score, int otherCityId, double otherScore) {
+            return score < otherScore || score == otherScore && cityId > otherCityId;
+        }
+
+        // Empties the heap from the worst city, filling the ranking from its end
+        BlendedCities toBlendedCities() {
+            int[] rankedIds = new int[this.size];
+            double[] rankedScores = new double[this.size];
+            while (this.size > 0) {
+                int worst = this.cityIds[0];
+                double worstScore = this.scores[0];
+                this.size--;
+                rankedIds[this.size] = worst;
+                rankedScores[this.size] = worstScore;
+                if (this.size > 0) {
+                    replaceWorst(this.cityIds[this.size], this.scores[this.size]);
+                }
+            }
+            return new BlendedCities(rankedIds, rankedScores);
+        }
+    }
+
+    /**
+     * Retrieves the population ranks of the cities whose names contain every word of the query, as
+     * {@link #getCityIdsMatchingWordsSortedByPopulation(String)} matches them.
+     *
+     * A query extended with more characters only matches fewer cities, so the ranks matching a query narrow down
+     * the search of the next one typed ("tor", then "toro"): when few cities are left, the words of each of them
+     * are checked against the query, which is cheaper than reading the posting lists of the words of the query.
+     *
+     * @param query          The search query, made of the words of the city names.
+     * @param candidateRanks The ranks of the cities matching a query the given query extends, in ascending order,
+     *                       or null to search every city.
+     * @return The population ranks of the matching cities, in ascending order, so the most populated city first.
+     */
+    public int[] getCityRanksMatchingWords(String query, int[] candidateRanks) {
+        query = NameNormalizer.normalize(query);
+        long start = System.nanoTime();
+        int[] ranks = this.tokens.search(query, candidateRanks, Integer.MAX_VALUE);
+        SuggestionMetrics.record(SuggestionMetrics.TOKENS, start);
+        SuggestionMetrics.recordCandidates(query, ranks.length);
+        return ranks;
+    }
+
+    /**
+     * Maps population ranks, such as those returned by {@link #getCityRanksMatchingWords(String, int[])}, to the
+     * ids of the cities.
+     *
+     * @param ranks The population ranks, in ascending order.
+     * @param limit The maximum number of city ids to return.
+     * @return The ids of the cities of the first {@code limit} ranks, sorted by population in descending order.
+     */
+    public int[] getCityIdsByRank(int[] ranks, int limit) {
+        int[] cityIds = new int[Math.min(limit, ranks.length)];
+        for (int i = 0; i < cityIds.length; i++) {
+            cityIds[i] = this.cityIdsByRank.getAtIndex(JAVA_INT, ranks[i]);
+        }
+        return cityIds;
+    }
+
+    /**
+     * Retrieves at most {@code limit} of the given cities, sorted by their proximity to the specified coordinates,
+     * along with their distance to these coordinates and the distance to the farthest of the given cities. The
+     * cities are ranked as {@link #getNearestCitiesMatchingWords(String, double, double, int)} ranks the cities
+     * matching a query.
+     *
+     * @param cityIds   The ids of the cities to rank, sorted by population in descending order, such as those
+     *                  returned by {@link #getCityIdsByRank(int[], int)}, which are left unchanged.
+     * @param latitude  The latitude coordinate used to calculate the distance from each city.
+     * @param longitude The longitude coordinate used to calculate the distance from each city.
+     * @param limit     The maximum number of cities to return.
+     * @return At most {@code limit} of the cities and their distances in kilometers, nearest first.
+     */
+    public NearestCities getNearestCities(int[] cityIds, double latitude, double longitude, int limit) {
+        long start = System.nanoTime();
+        NearestCities nearestCities = limit < cityIds.length
+                ? nearest(cityIds, latitude, longitude, limit)
+                : sortByDistance(cityIds.clone(), latitude, longitude, cityIds.length);
+        SuggestionMetrics.record(SuggestionMetrics.RANK, start);
+        return nearestCities;
+    }
+
+    // Finds the ids of at most limit cities matching a normalized query, sorted by population
+    private int[] getCityIdsMatchingWords(String query, int limit) {
+        int[] cityIds = this.tokens.search(query, limit);
+        for (int i = 0; i < cityIds.length; i++) {
+            cityIds[i] = this.cityIdsByRank.getAtIndex(JAVA_INT, cityIds[i]);
+        }
+        return cityIds;
+    }
+
+    // Computes the haversine of the central angle between a city and a point given in radians
+    private double haversine(int cityId, double latitudeInRadians, double latitudeCosine, double longitudeInRadians) {
+        return GeoCalculator.haversine(latitudeInRadians, latitudeCosine, longitudeInRadians,
+                this.latitudesInRadians.getAtIndex(JAVA_DOUBLE, cityId), this.latitudeCosines.getAtIndex(JAVA_DOUBLE, cityId),
+                this.longitudesInRadians.getAtIndex(JAVA_DOUBLE, cityId));
+    }
+
+    /**
+     * Retrieves the number of loaded cities. City ids range from 0 to this number, exclusive.
+     *
+     * @return The number of loaded cities.
+     */
+    public int getCityCount() {
+        return this.cityCount;
+    }
+
+    /**
+     * Retrieves the id of the specified city.
+     *
+     * This method looks up the normalized full name of the city in the Trie, so it also finds a city by one of its
+     * alternate full names. Search operations yield city ids directly, so this is only needed for callers that
+     * know a city by its name.
+     *
+     * @param city The full name of the city (including administrative division).
+     * @return The id of the specified city.
+     * @throws IllegalArgumentException if the city is not found.
+     */
+    public int getCityId(String city) {
+        int cityId = this.trie.getId(NameNormalizer.normalize(city));
+        if (cityId < 0) {
+            throw new IllegalArgumentException("Unknown city: " + city);
+        }
+        return cityId;
+    }
+
+    /**
+     * Retrieves the full name of the specified city.
+     *
+     * @param cityId The id of the city.
+     * @return The full name of the city (including administrative division).
+     */
+    public String getCityName(int cityId) {
+        return this.names.get(cityId);
+    }
+
+    /**
+     * Retrieves the population of the specified city.
+     *
+     * @param cityId The id of the city.
+     * @return The population of the specified city.
+     */
+    public long getCityPopulation(int cityId) {
+        return this.populations.getAtIndex(JAVA_LONG, cityId);
+    }
+
+    /**
+     * Retrieves the latitude coordinate of the specified city.
+     *
+     * @param cityId The id of the city.
+     * @return The latitude of the specified city.
+     */
+    public double getCityLatitude(int cityId) {
+        return this.latitudes.getAtIndex(JAVA_DOUBLE, cityId);
+    }
+
+    /**
+     * Retrieves the longitude coordinate of the specified city.
+     *
+     * @param cityId The id of the city.
+     * @return The longitude of the specified city.
+     */
+    public double getCityLongitude(int cityId) {
+        return this.longitudes.getAtIndex(JAVA_DOUBLE, cityId);
+    }
+}
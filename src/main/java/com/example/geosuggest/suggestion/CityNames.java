@@ -0,0 +1,203 @@
+package com.example.geosuggest.suggestion;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The full names of the cities, stored without a string per city.
+ *
+ * A full name is split at its first comma into the name of the city and its administrative division, such as
+ * ", Ontario, CA". Divisions are shared by many cities, so each distinct division is kept once in a dictionary and
+ * each city only keeps its code. The names of the cities are encoded in UTF-8 one after the other in a single byte
+ * array, where each city keeps its offset. A full name is only built as a string when it is asked for, which is
+ * for the few cities a search returns.
+ */
+final class CityNames {
+
+    private static final String NO_DIVISION = "";
+
+    private final byte[] pool; // The UTF-8 bytes of the names of the cities, one city after the other
+    private final int[] offsets; // Where the bytes of the name of each city start in the pool, and end
+    private final int[] divisionCodes; // The index of the division of each city in the dictionary
+    private final String[] divisions; // The distinct divisions, each with its leading comma
+
+    private CityNames(byte[] pool, int[] offsets, int[] divisionCodes, String[] divisions) {
+        this.pool = pool;
+        this.offsets = offsets;
+        this.divisionCodes = divisionCodes;
+        this.divisions = divisions;
+    }
+
+    /**
+     * Collects the full names of the cities, in the order of their ids.
+     */
+    static final class Builder {
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final List<String> divisions = new ArrayList<>();
+        private byte[] pool = new byte[256];
+        private int[] offsets = new int[17];
+        private int[] divisionCodes = new int[16];
+        private int size;
+
+        /**
+         * Adds the full name of the next city.
+         *
+         * @param fullName The full name of the city (including administrative division).
+         * @return This builder.
+         */
+        Builder add(String fullName) {
+            int comma = fullName.indexOf(',');
+            String name = comma < 0 ? fullName : fullName.substring(0, comma);
+            String division = comma < 0 ? NO_DIVISION : fullName.substring(comma);
+
+            int id = this.size++;
+            if (id == this.divisionCodes.length) {
+                this.divisionCodes = Arrays.copyOf(this.divisionCodes, 2 * id);
+                this.offsets = Arrays.copyOf(this.offsets, 2 * id + 1);
+            }
+            Integer code = this.codes.get(division);
+            if (code == null) {
+                code = this.divisions.size();
+                this.codes.put(division, code);
+                this.divisions.add(division);
+            }
+            this.divisionCodes[id] = code;
+
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            int start = this.offsets[id];
+            if (start + bytes.length > this.pool.length) {
+                this.pool = Arrays.copyOf(this.pool, Math.max(2 * this.pool.length, start + bytes.length));
+            }
+            System.arraycopy(bytes, 0, this.pool, start, bytes.length);
+            this.offsets[id + 1] = start + bytes.length;
+            return this;
+        }
+
+        /**
+         * Builds the names of the added cities. The builder must not be used afterward.
+         *
+         * @return The names of the cities.
+         */
+        CityNames build() {
+            return new CityNames(Arrays.copyOf(this.pool, this.offsets[this.size]),
+                    Arrays.copyOf(this.offsets, this.size + 1), Arrays.copyOf(this.divisionCodes, this.size),
+                    this.divisions.toArray(new String[0]));
+        }
+    }
+
+    /**
+     * Builds the full name of a city.
+     *
+     * @param cityId The id of the city.
+     * @return The full name of the city (including administrative division).
+     */
+    String get(int cityId) {
+        int start = this.offsets[cityId];
+        String name = new String(this.pool, start, this.offsets[cityId + 1] - start, StandardCharsets.UTF_8);
+        return name.concat(this.divisions[this.divisionCodes[cityId]]);
+    }
+
+    /**
+     * Counts the cities.
+     *
+     * @return The number of cities.
+     */
+    int size() {
+        return this.divisionCodes.length;
+    }
+
+    /**
+     * Counts the distinct administrative divisions of the cities.
+     *
+     * @return The number of divisions in the dictionary.
+     */
+    int getDivisionCount() {
+        return this.divisions.length;
+    }
+
+    /**
+     * Writes the names, so they can be restored by {@link #readFrom} with bulk reads.
+     *
+     * @param out The output to write to.
+     * @throws IOException if an error occurs while writing.
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(this.divisions.length);
+        for (String division : this.divisions) {
+            byte[] bytes = division.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        out.writeInt(this.divisionCodes.length);
+        for (int code : this.divisionCodes) {
+            out.writeInt(code);
+        }
+        for (int offset : this.offsets) {
+            out.writeInt(offset);
+        }
+        out.write(this.pool);
+    }
+
+    /**
+     * Reads names written by {@link #writeTo}, starting at the current position of the buffer and leaving the
+     * buffer positioned after them.
+     *
+     * @param buffer The buffer to read from, in big-endian order.
+     * @return The restored names.
+     * @throws IllegalArgumentException if the codes or offsets are out of bounds.
+     */
+    static CityNames readFrom(ByteBuffer buffer) {
+        String[] divisions = new String[buffer.getInt()];
+        for (int i = 0; i < divisions.length; i++) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            divisions[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        int size = buffer.getInt();
+        int[] divisionCodes = new int[size];
+        buffer.asIntBuffer().get(divisionCodes);
+        buffer.position(buffer.position() + 4 * size);
+        int[] offsets = new int[size + 1];
+        buffer.asIntBuffer().get(offsets);
+        buffer.position(buffer.position() + 4 * (size + 1));
+        byte[] pool = new byte[offsets[size]];
+        buffer.get(pool);
+
+        // A corrupted snapshot would otherwise only fail when the name of a city is built
+        for (int id = 0; id < size; id++) {
+            if (divisionCodes[id] < 0 || divisionCodes[id] >= divisions.length
+                    || offsets[id] < 0 || offsets[id] > offsets[id + 1]) {
+                throw new IllegalArgumentException("Invalid name of city " + id);
+            }
+        }
+        return new CityNames(pool, offsets, divisionCodes, divisions);
+    }
+
+    /**
+     * Estimates the number of bytes retained by the names, assuming compressed object pointers.
+     *
+     * @return The estimated number of bytes retained by the pool, the offsets, the codes and the dictionary.
+     */
+    long getEstimatedBytes() {
+        long bytes = arrayBytes(this.pool.length, 1) + arrayBytes(this.offsets.length, 4)
+                + arrayBytes(this.divisionCodes.length, 4) + arrayBytes(this.divisions.length, 4);
+        for (String division : this.divisions) {
+            // The string object and its bytes, assuming compact Latin-1 strings
+            bytes += 24 + arrayBytes(division.length(), 1);
+        }
+        return bytes;
+    }
+
+    // Estimates the bytes of an array, padded to 8 bytes
+    private static long arrayBytes(int length, int elementBytes) {
+        return (16 + (long) length * elementBytes + 7) & ~7L;
+    }
+}
@@ -0,0 +1,185 @@
+package com.example.geosuggest.suggestion;
+
+import com.example.geosuggest.suggestion.token.TokenIndex;
+import com.example.geosuggest.suggestion.trie.OffHeapTrie;
+import com.example.geosuggest.suggestion.trie.PrefixIndex;
+import com.example.geosuggest.suggestion.trie.Trie;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A binary snapshot of the loaded cities: their columns, the Trie indexing their names and the token index of the
+ * words of their names.
+ *
+ * A snapshot is written after the cities are parsed from the TSV file, and read instead of the TSV file on the next
+ * start. It is memory-mapped and copied into the columns with bulk reads, so no number is parsed, no name is decoded
+ * into a string, and no name is inserted into the Trie again. The header records the size and modification time of the
+ * TSV file, and the fingerprint of the administrative codes it was built with, so a snapshot of another file or
+ * other administrative codes is ignored. It also keeps the digest of the content of the TSV file, from which
+ * the version of the dataset is derived without reading the TSV file again.
+ *
+ * All values are big-endian, as written by {@link DataOutputStream}.
+ */
+final class CitySnapshot {
+
+    private static final int MAGIC = 0x47534E50; // "GSNP"
+    private static final int VERSION = 8; // To be increased whenever the format or the way cities are parsed changes
+
+    final long sourceDigest; // The digest of the content of the TSV file the cities were parsed from
+    final CityNames names;
+    final long[] populations;
+    final double[] latitudes;
+    final double[] longitudes;
+    final PrefixIndex trie;
+    final TokenIndex tokens;
+
+    CitySnapshot(long sourceDigest, CityNames names, long[] populations, double[] latitudes, double[] longitudes,
+                 PrefixIndex trie, TokenIndex tokens) {
+        this.sourceDigest = sourceDigest;
+        this.names = names;
+        this.populations = populations;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.trie = trie;
+        this.tokens = tokens;
+    }
+
+    /**
+     * Writes the snapshot of the cities parsed from the given source. The snapshot is written to a temporary
+     * file first and then moved into place, so a concurrent start never reads a partial snapshot.
+     *
+     * @param snapshot           The path of the snapshot to write.
+     * @param sourceSize         The size in bytes of the TSV file the cities were parsed from.
+     * @param sourceLastModified The modification time in milliseconds of the TSV file the cities were parsed from.
+     * @param adminCodes         The fingerprint of the administrative codes the names of the cities were resolved with.
+     * @throws IOException if an error occurs while writing the snapshot.
+     */
+    void write(Path snapshot, long sourceSize, long sourceLastModified, long adminCodes) throws IOException {
+        Path directory = snapshot.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, snapshot.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(sourceSize);
+                out.writeLong(sourceLastModified);
+                out.writeLong(adminCodes);
+                out.writeLong(this.sourceDigest);
+                out.writeInt(this.populations.length);
+
+                this.names.writeTo(out);
+                for (long population : this.populations) {
+                    out.writeLong(population);
+                }
+                for (double latitude : this.latitudes) {
+                    out.writeDouble(latitude);
+                }
+                for (double longitude : this.longitudes) {
+                    out.writeDouble(longitude);
+                }
+                this.trie.writeTo(out);
+                this.tokens.writeTo(out);
+            }
+            try {
+                Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Reads the snapshot of the cities parsed from the given source.
+     *
+     * @param snapshot           The path of the snapshot to read.
+     * @param sourceSize         The size in bytes of the TSV file the snapshot must have been built from.
+     * @param sourceLastModified The modification time in milliseconds of the TSV file the snapshot must have been built from.
+     * @param adminCodes         The fingerprint of the administrative codes the snapshot must have been built with.
+     * @return The cities of the snapshot, or null if there is no snapshot or if it is stale.
+     * @throws IOException if an error occurs while reading the snapshot, or if it is corrupted.
+     */
+    static CitySnapshot read(Path snapshot, long sourceSize, long sourceLastModified, long adminCodes)
+            throws IOException {
+        return read(snapshot, sourceSize, sourceLastModified, adminCodes, false);
+    }
+
+    /**
+     * Reads the snapshot of the cities parsed from the given source, reading its Trie directly outside of the heap
+     * if asked to, so no node of it is built on the heap.
+     *
+     * @param snapshot           The path of the snapshot to read.
+     * @param sourceSize         The size in bytes of the TSV file the snapshot must have been built from.
+     * @param sourceLastModified The modification time in milliseconds of the TSV file the snapshot must have been built from.
+     * @param adminCodes         The fingerprint of the administrative codes the snapshot must have been built with.
+     * @param offHeap            Whether the Trie is read as an {@link OffHeapTrie}.
+     * @return The cities of the snapshot, or null if there is no snapshot or if it is stale.
+     * @throws IOException if an error occurs while reading the snapshot, or if it is corrupted.
+     */
+    static CitySnapshot read(Path snapshot, long sourceSize, long sourceLastModified, long adminCodes,
+                             boolean offHeap) throws IOException {
+        if (!Files.isRegularFile(snapshot)) {
+            return null;
+        }
+
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        // A snapshot of another version, source or administrative codes is stale
+        if (buffer.remaining() < 36
+                || buffer.getInt() != MAGIC
+                || buffer.getInt() != VERSION
+                || buffer.getLong() != sourceSize
+                || buffer.getLong() != sourceLastModified
+                || buffer.getLong() != adminCodes) {
+            return null;
+        }
+
+        // A truncated or corrupted snapshot runs past the end of the buffer or yields invalid lengths
+        try {
+            long sourceDigest = buffer.getLong();
+            int cityCount = buffer.getInt();
+            CityNames names = CityNames.readFrom(buffer);
+            if (names.size() != cityCount) {
+                throw new IllegalArgumentException("Expected " + cityCount + " city names, found " + names.size());
+            }
+
+            long[] populations = new long[cityCount];
+            buffer.asLongBuffer().get(populations);
+            skip(buffer, 8 * cityCount);
+            double[] latitudes = new double[cityCount];
+            buffer.asDoubleBuffer().get(latitudes);
+            skip(buffer, 8 * cityCount);
+            double[] longitudes = new double[cityCount];
+            buffer.asDoubleBuffer().get(longitudes);
+            skip(buffer, 8 * cityCount);
+
+            PrefixIndex trie = offHeap ? OffHeapTrie.readFrom(buffer) : Trie.readFrom(buffer);
+            TokenIndex tokens = TokenIndex.readFrom(buffer);
+            return new CitySnapshot(sourceDigest, names, populations, latitudes, longitudes, trie, tokens);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException
+                 | NegativeArraySizeException e) {
+            throw new IOException("Corrupted city snapshot: " + snapshot, e);
+        }
+    }
+
+    // Moves the buffer past the bytes read through a view
+    private static void skip(ByteBuffer buffer, int bytes) {
+        buffer.position(buffer.position() + bytes);
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.geosuggest.suggestion;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * The suggestions of a search, kept as the ids of the suggested cities and their scores rather than as one
+ * {@link SuggestionDTO} per city, so a response can be written straight from the columns of the {@link CityIndex}
+ * (see {@link CitySuggestionsJsonWriter}).
+ *
+ * The list is unmodifiable and builds a new {@link SuggestionDTO} each time one of its elements is retrieved, so
+ * callers that need the suggestions as objects, or serializers that do not know this class, still see a list of
+ * them. It holds the index the cities were found in, so its names and coordinates stay consistent even if the
+ * cities are reloaded.
+ */
+public final class CitySuggestions extends AbstractList<SuggestionDTO> implements RandomAccess {
+
+    private final CityIndex cities;
+    private final int[] cityIds;
+    private final double[] scores;
+
+    /**
+     * Creates the suggestions of the given cities.
+     *
+     * @param cities  The index the cities were found in.
+     * @param cityIds The ids of the suggested cities, best first.
+     * @param scores  The score of each city, in the same order as the ids.
+     */
+    public CitySuggestions(CityIndex cities, int[] cityIds, double[] scores) {
+        this.cities = cities;
+        this.cityIds = cityIds;
+        this.scores = scores;
+    }
+
+    @Override
+    public SuggestionDTO get(int index) {
+        int cityId = this.cityIds[index];
+        SuggestionDTO dto = new SuggestionDTO();
+        dto.setName(this.cities.getCityName(cityId));
+        dto.setLatitude(this.cities.getCityLatitude(cityId));
+        dto.setLongitude(this.cities.getCityLongitude(cityId));
+        dto.setScore(this.scores[index]);
+        return dto;
+    }
+
+    @Override
+    public int size() {
+        return this.cityIds.length;
+    }
+
+    public CityIndex getCities() {
+        return cities;
+    }
+
+    public int[] getCityIds() {
+        return cityIds;
+    }
+
+    public double[] getScores() {
+        return scores;
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.geosuggest.suggestion;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * Writes {@link CitySuggestions} responses as JSON with a {@link CitySuggestionsJsonWriter}, in the same format as
+ * the Jackson converter would, without building a {@link SuggestionDTO} per city. Spring Boot puts converter beans
+ * ahead of its own, so this one is picked for every response holding {@link CitySuggestions}, and the Jackson
+ * converter keeps serializing the others. The serialization is timed into the {@code serialize} stage of
+ * {@link SuggestionMetrics}.
+ */
+@Component
+public class CitySuggestionsHttpMessageConverter extends AbstractHttpMessageConverter<CitySuggestions> {
+
+    public CitySuggestionsHttpMessageConverter() {
+        super(MediaType.APPLICATION_JSON);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return CitySuggestions.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    public boolean canRead(Class<?> clazz, MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected CitySuggestions readInternal(Class<? extends CitySuggestions> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("Suggestions are only written", inputMessage);
+    }
+
+    @Override
+    protected void writeInternal(CitySuggestions suggestions, HttpOutputMessage outputMessage) throws IOException {
+        long start = System.nanoTime();
+        CitySuggestionsJsonWriter.write(suggestions, outputMessage.getBody());
+        SuggestionMetrics.record(SuggestionMetrics.SERIALIZE, start);
+    }
+}
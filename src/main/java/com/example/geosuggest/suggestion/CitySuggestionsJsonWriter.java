@@ -0,0 +1,187 @@
+package com.example.geosuggest.suggestion;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes {@link CitySuggestions} as a JSON array, byte for byte as Jackson writes a list of {@link SuggestionDTO}:
+ * the same properties in the same order, the numbers formatted as {@link Double#toString(double)} formats them,
+ * and the names encoded in UTF-8 with the same escapes, including the unicode escapes of surrogate pairs.
+ *
+ * The JSON is written straight from the columns of the {@link CityIndex}, without building a {@link SuggestionDTO}
+ * or a string per city: numbers are formatted into a reusable {@link StringBuilder}, which appends doubles without
+ * allocating, and the bytes go through a reusable buffer flushed to the output stream when it is full. The buffers
+ * belong to the writing thread, as servlet threads are pooled and write one response at a time.
+ */
+final class CitySuggestionsJsonWriter {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_CHAR_BYTES = 6; // The longest form of a char: a unicode escape
+
+    private static final byte[] NAME = ascii("{\"name\":\"");
+    private static final byte[] LATITUDE = ascii("\",\"latitude\":");
+    private static final byte[] LONGITUDE = ascii(",\"longitude\":");
+    private static final byte[] SCORE = ascii(",\"score\":");
+    private static final byte[] HEX = ascii("0123456789ABCDEF");
+
+    private static final ThreadLocal<CitySuggestionsJsonWriter> WRITERS =
+            ThreadLocal.withInitial(CitySuggestionsJsonWriter::new);
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final StringBuilder number = new StringBuilder(32);
+    private OutputStream out;
+    private int size;
+
+    private CitySuggestionsJsonWriter() {}
+
+    /**
+     * Writes the suggestions as a JSON array to the given stream, without closing or flushing the stream.
+     *
+     * @param suggestions The suggestions to write.
+     * @param out         The stream to write to.
+     * @throws IOException if an error occurs while writing to the stream.
+     */
+    static void write(CitySuggestions suggestions, OutputStream out) throws IOException {
+        CitySuggestionsJsonWriter writer = WRITERS.get();
+        writer.out = out;
+        writer.size = 0;
+        try {
+            writer.writeSuggestions(suggestions);
+            writer.flush();
+        } finally {
+            writer.out = null;
+        }
+    }
+
+    private void writeSuggestions(CitySuggestions suggestions) throws IOException {
+        CityIndex cities = suggestions.getCities();
+        int[] cityIds = suggestions.getCityIds();
+        double[] scores = suggestions.getScores();
+
+        writeByte('[');
+        for (int i = 0; i < cityIds.length; i++) {
+            int cityId = cityIds[i];
+            if (i > 0) {
+                writeByte(',');
+            }
+            writeBytes(NAME);
+            writeString(cities.getCityName(cityId));
+            writeBytes(LATITUDE);
+            writeNumber(cities.getCityLatitude(cityId));
+            writeBytes(LONGITUDE);
+            writeNumber(cities.getCityLongitude(cityId));
+            writeBytes(SCORE);
+            writeNumber(scores[i]);
+            writeByte('}');
+        }
+        writeByte(']');
+    }
+
+    // Writes the characters of a string, escaping quotes, backslashes and control characters as Jackson does
+    private void writeString(String string) throws IOException {
+        for (int i = 0; i < string.length(); i++) {
+            if (this.size > BUFFER_SIZE - MAX_CHAR_BYTES) {
+                flush();
+            }
+            char c = string.charAt(i);
+            if (c >= 0x80) {
+                if (Character.isSurrogate(c)) {
+                    // Jackson escapes each half of a surrogate pair rather than encoding the pair as 4 bytes
+                    writeUnicodeEscape(c);
+                } else {
+                    writeUtf8(c);
+                }
+            } else if (c == '"' || c == '\\') {
+                this.buffer[this.size++] = '\\';
+                this.buffer[this.size++] = (byte) c;
+            } else if (c < 0x20) {
+                writeControl(c);
+            } else {
+                this.buffer[this.size++] = (byte) c;
+            }
+        }
+    }
+
+    // Writes a control character with its short escape if it has one, as a unicode escape otherwise
+    private void writeControl(char c) {
+        char escape = switch (c) {
+            case '\b' -> 'b';
+            case '\t' -> 't';
+            case '\n' -> 'n';
+            case '\f' -> 'f';
+            case '\r' -> 'r';
+            default -> 0;
+        };
+        if (escape != 0) {
+            this.buffer[this.size++] = '\\';
+            this.buffer[this.size++] = (byte) escape;
+        } else {
+            writeUnicodeEscape(c);
+        }
+    }
+
+    // Writes a character as a unicode escape, with uppercase hexadecimal digits
+    private void writeUnicodeEscape(char c) {
+        this.buffer[this.size++] = '\\';
+        this.buffer[this.size++] = 'u';
+        this.buffer[this.size++] = HEX[c >> 12];
+        this.buffer[this.size++] = HEX[c >> 8 & 0xF];
+        this.buffer[this.size++] = HEX[c >> 4 & 0xF];
+        this.buffer[this.size++] = HEX[c & 0xF];
+    }
+
+    // Writes the 2 or 3 UTF-8 bytes of a character outside of ASCII, other than a surrogate
+    private void writeUtf8(char c) {
+        if (c < 0x800) {
+            this.buffer[this.size++] = (byte) (0xC0 | c >> 6);
+        } else {
+            this.buffer[this.size++] = (byte) (0xE0 | c >> 12);
+            this.buffer[this.size++] = (byte) (0x80 | (c >> 6 & 0x3F));
+        }
+        this.buffer[this.size++] = (byte) (0x80 | (c & 0x3F));
+    }
+
+    // Writes a number as Jackson does, quoting the values that are not finite
+    private void writeNumber(double value) throws IOException {
+        this.number.setLength(0);
+        this.number.append(value);
+        boolean quoted = !Double.isFinite(value);
+        if (this.size > BUFFER_SIZE - this.number.length() - 2) {
+            flush();
+        }
+        if (quoted) {
+            this.buffer[this.size++] = '"';
+        }
+        for (int i = 0; i < this.number.length(); i++) {
+            this.buffer[this.size++] = (byte) this.number.charAt(i);
+        }
+        if (quoted) {
+            this.buffer[this.size++] = '"';
+        }
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        if (this.size > BUFFER_SIZE - bytes.length) {
+            flush();
+        }
+        System.arraycopy(bytes, 0, this.buffer, this.size, bytes.length);
+        this.size += bytes.length;
+    }
+
+    private void writeByte(char c) throws IOException {
+        if (this.size == BUFFER_SIZE) {
+            flush();
+        }
+        this.buffer[this.size++] = (byte) c;
+    }
+
+    private void flush() throws IOException {
+        this.out.write(this.buffer, 0, this.size);
+        this.size = 0;
+    }
+
+    private static byte[] ascii(String string) {
+        return string.getBytes(StandardCharsets.US_ASCII);
+    }
+}
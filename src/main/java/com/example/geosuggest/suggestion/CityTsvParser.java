@@ -0,0 +1,414 @@
+package com.example.geosuggest.suggestion;
+
+import com.example.geosuggest.suggestion.util.AdminCodes;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Parses the cities of a GeoNames TSV file straight from its bytes.
+ *
+ * Lines are scanned for the tabs delimiting the eight columns that are used, and numbers are parsed from the bytes
+ * between them, so no line and no unused column is turned into a string: the full names of each city, under its name
+ * and its alternate names, are the only strings created. The file is split at line boundaries into chunks that are
+ * parsed in parallel on the common fork-join pool; chunks are returned in file order so cities keep the ids a
+ * sequential parse gives them.
+ *
+ * The expected columns are as follows (0-indexed):
+ * - Column 1: City name
+ * - Column 2: City name in ASCII characters
+ * - Column 3: Alternate names of the city, separated by commas
+ * - Column 4: Latitude
+ * - Column 5: Longitude
+ * - Column 8: Country
+ * - Column 10: Administrative division (e.g., province, state)
+ * - Column 14: Population
+ */
+final class CityTsvParser {
+
+    private static final int MIN_CHUNK_BYTES = 64 * 1024; // Smaller files are not worth splitting further
+
+    private static final int NAME = 1;
+    private static final int ASCII_NAME = 2;
+    private static final int ALTERNATE_NAMES = 3;
+    private static final int LATITUDE = 4;
+    private static final int LONGITUDE = 5;
+    private static final int COUNTRY = 8;
+    private static final int ADMIN = 10;
+    private static final int POPULATION = 14;
+    private static final int LAST_COLUMN = POPULATION;
+
+    // Powers of ten that are exact in a double, to scale parsed decimals
+    private static final double[] POWERS_OF_TEN = new double[19];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private static final String[] NO_ALIASES = new String[0];
+
+    private CityTsvParser() {}
+
+    /**
+     * The cities parsed from one chunk of the file, in file order.
+     */
+    static final class Chunk {
+        int size;
+        String[] names = new String[64];
+        String[][] aliases = new String[64][]; // The alternate full names of each city, other than its name
+        double[] latitudes = new double[64];
+        double[] longitudes = new double[64];
+        long[] populations = new long[64];
+
+        private void add(String name, String[] aliases, double latitude, double longitude, long population) {
+            if (this.size == this.names.length) {
+                int capacity = 2 * this.size;
+                this.names = Arrays.copyOf(this.names, capacity);
+                this.aliases = Arrays.copyOf(this.aliases, capacity);
+                this.latitudes = Arrays.copyOf(this.latitudes, capacity);
+                this.longitudes = Arrays.copyOf(this.longitudes, capacity);
+                this.populations = Arrays.copyOf(this.populations, capacity);
+            }
+            this.names[this.size] = name;
+            this.aliases[this.size] = aliases;
+            this.latitudes[this.size] = latitude;
+            this.longitudes[this.size] = longitude;
+            this.populations[this.size] = population;
+            this.size++;
+        }
+    }
+
+    /**
+     * Parses the cities of a TSV file, skipping its header line, and resolving their administrative codes with
+     * {@link AdminCodes#fips()}.
+     *
+     * @param data The content of the file, from its position to its limit; it is not modified.
+     * @return The parsed chunks, in file order.
+     * @throws IllegalArgumentException if a line has too few columns or an invalid number.
+     */
+    static Chunk[] parse(ByteBuffer data) {
+        return parse(data, AdminCodes.fips());
+    }
+
+    /**
+     * Parses the cities of a TSV file, skipping its header line.
+     *
+     * @param data       The content of the file, from its position to its limit; it is not modified.
+     * @param adminCodes The codes resolving the region and country of each city, shared by every chunk.
+     * @return The parsed chunks, in file order.
+     * @throws IllegalArgumentException if a line has too few columns or an invalid number.
+     */
+    static Chunk[] parse(ByteBuffer data, AdminCodes adminCodes) {
+        int bytes = data.remaining();
+        return parse(data, Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), bytes / MIN_CHUNK_BYTES)),
+                adminCodes);
+    }
+
+    /**
+     * Parses the cities of a TSV file in the given number of chunks, skipping its header line, and resolving their
+     * administrative codes with {@link AdminCodes#fips()}.
+     *
+     * @param data       The content of the file, from its position to its limit; it is not modified.
+     * @param chunkCount The number of chunks to split the file into, at line boundaries.
+     * @return The parsed chunks, in file order.
+     * @throws IllegalArgumentException if a line has too few columns or an invalid number.
+     */
+    static Chunk[] parse(ByteBuffer data, int chunkCount) {
+        return parse(data, chunkCount, AdminCodes.fips());
+    }
+
+    /**
+     * Parses the cities of a TSV file in the given number of chunks, skipping its header line.
+     *
+     * @param data       The content of the file, from its position to its limit; it is not modified.
+     * @param chunkCount The number of chunks to split the file into, at line boundaries.
+     * @param adminCodes The codes resolving the region and country of each city, shared by every chunk.
+     * @return The parsed chunks, in file order.
+     * @throws IllegalArgumentException if a line has too few columns or an invalid number.
+     */
+    static Chunk[] parse(ByteBuffer data, int chunkCount, AdminCodes adminCodes) {
+        int start = data.position();
+        int end = data.limit();
+        start = nextLine(data, start, end); // Skip the header
+
+        int[] bounds = new int[chunkCount + 1];
+        bounds[0] = start;
+        for (int i = 1; i < chunkCount; i++) {
+            // Move each boundary to the start of the next line, so no line is split between two chunks
+            int boundary = start + (int) ((long) (end - start) * i / chunkCount);
+            bounds[i] = Math.max(bounds[i - 1], nextLine(data, boundary - 1, end));
+        }
+        bounds[chunkCount] = end;
+
+        return IntStream.range(0, chunkCount)
+                .parallel()
+                .mapToObj(i -> parseChunk(data, bounds[i], bounds[i + 1], adminCodes))
+                .toArray(Chunk[]::new);
+    }
+
+    // Parses the lines from start, the start of a line, to end
+    private static Chunk parseChunk(ByteBuffer data, int start, int end, AdminCodes adminCodes) {
+        Chunk chunk = new Chunk();
+        DivisionCache divisions = new DivisionCache(adminCodes);
+        int[] columnStarts = new int[LAST_COLUMN + 2];
+        byte[] nameBytes = new byte[256];
+
+        int position = start;
+        while (position < end) {
+            // Find where each column starts, up to the last column used
+            int column = 0;
+            columnStarts[0] = position;
+            int lineEnd = end;
+            while (position < end) {
+                byte b = data.get(position++);
+                if (b == '\n') {
+                    lineEnd = position - 1;
+                    break;
+                }
+                if (b == '\t' && column <= LAST_COLUMN) {
+                    columnStarts[++column] = position;
+                }
+            }
+            if (column == LAST_COLUMN) {
+                // The last column used is the last column of the line, and ends with it
+                if (lineEnd > columnStarts[0] && data.get(lineEnd - 1) == '\r') {
+                    lineEnd--;
+                }
+                columnStarts[LAST_COLUMN + 1] = lineEnd + 1;
+            } else if (column < LAST_COLUMN) {
+                if (isBlank(data, columnStarts[0], lineEnd)) {
+                    continue;
+                }
+                throw new IllegalArgumentException("Expected at least " + (LAST_COLUMN + 1) + " columns at byte " + columnStarts[0]);
+            }
+
+            // Columns end one byte before the next one starts, at its tab
+            byte[] division = divisions.get(data, columnStarts[ADMIN], columnStarts[ADMIN + 1] - 1,
+                    columnStarts[COUNTRY], columnStarts[COUNTRY + 1] - 1);
+            int nameLength = columnStarts[NAME + 1] - 1 - columnStarts[NAME];
+            if (nameLength + division.length > nameBytes.length) {
+                nameBytes = new byte[2 * (nameLength + division.length)];
+            }
+            data.get(columnStarts[NAME], nameBytes, 0, nameLength);
+            System.arraycopy(division, 0, nameBytes, nameLength, division.length);
+
+            chunk.add(new String(nameBytes, 0, nameLength + division.length, StandardCharsets.UTF_8),
+                    parseAliases(data, columnStarts, division),
+                    parseDouble(data, columnStarts[LATITUDE], columnStarts[LATITUDE + 1] - 1),
+                    parseDouble(data, columnStarts[LONGITUDE], columnStarts[LONGITUDE + 1] - 1),
+                    parseLong(data, columnStarts[POPULATION], columnStarts[POPULATION + 1] - 1));
+        }
+        return chunk;
+    }
+
+    // Builds the full names of a city under its ASCII name and its alternate names, skipping empty names and
+    // names equal to the city name
+    private static String[] parseAliases(ByteBuffer data, int[] columnStarts, byte[] division) {
+        int nameStart = columnStarts[NAME];
+        int nameEnd = columnStarts[NAME + 1] - 1;
+        int namesEnd = columnStarts[ALTERNATE_NAMES + 1] - 1;
+
+        String[] aliases = NO_ALIASES;
+        int count = 0;
+        // The ASCII name and the alternate names are adjacent, so they are split at the tab between them too
+        int start = columnStarts[ASCII_NAME];
+        for (int i = start; i <= namesEnd; i++) {
+            if (i < namesEnd && data.get(i) != ',' && data.get(i) != '\t') {
+                continue;
+            }
+            if (i > start && !equals(data, start, i, nameStart, nameEnd)) {
+                byte[] bytes = new byte[i - start + division.length];
+                data.get(start, bytes, 0, i - start);
+                System.arraycopy(division, 0, bytes, i - start, division.length);
+                if (count == aliases.length) {
+                    aliases = Arrays.copyOf(aliases, Math.max(4, 2 * count));
+                }
+                aliases[count++] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            start = i + 1;
+        }
+        return count == aliases.length ? aliases : Arrays.copyOf(aliases, count);
+    }
+
+    // Tells if the bytes from start to end are the same as the bytes from otherStart to otherEnd
+    private static boolean equals(ByteBuffer data, int start, int end, int otherStart, int otherEnd) {
+        if (end - start != otherEnd - otherStart) {
+            return false;
+        }
+        for (int i = 0; i < end - start; i++) {
+            if (data.get(start + i) != data.get(otherStart + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Finds the start of the line after the given position
+    private static int nextLine(ByteBuffer data, int position, int end) {
+        while (position < end && data.get(position++) != '\n') {
+            // Skip to the end of the line
+        }
+        return position;
+    }
+
+    // Tells if the bytes from start to end are all whitespace, as on a trailing empty line
+    private static boolean isBlank(ByteBuffer data, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!Character.isWhitespace(data.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses a decimal number such as {@code -79.4163} from the bytes from start to end.
+     *
+     * The digits are accumulated in a long and divided by an exact power of ten, which is a single correctly
+     * rounded operation and gives the same double as {@link Double#parseDouble}. Numbers with an exponent or too
+     * many digits for this are handed to {@link Double#parseDouble}.
+     */
+    static double parseDouble(ByteBuffer data, int start, int end) {
+        int i = start;
+        boolean negative = i < end && data.get(i) == '-';
+        if (negative || (i < end && data.get(i) == '+')) {
+            i++;
+        }
+
+        long digits = 0;
+        int digitCount = 0;
+        int fractionDigits = -1;
+        for (; i < end; i++) {
+            byte b = data.get(i);
+            if (b >= '0' && b <= '9') {
+                digits = 10 * digits + (b - '0');
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+                digitCount++;
+            } else if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                break;
+            }
+        }
+
+        // Up to 15 digits fit in the 53 bits of a double's mantissa
+        if (i < end || digitCount == 0 || digitCount > 15) {
+            return Double.parseDouble(ascii(data, start, end));
+        }
+        double value = fractionDigits > 0 ? digits / POWERS_OF_TEN[fractionDigits] : digits;
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses an integer from the bytes from start to end. An empty column is parsed as 0.
+     */
+    static long parseLong(ByteBuffer data, int start, int end) {
+        int i = start;
+        boolean negative = i < end && data.get(i) == '-';
+        if (negative) {
+            i++;
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            byte b = data.get(i);
+            if (b < '0' || b > '9' || value > (Long.MAX_VALUE - 9) / 10) {
+                // Let the standard parser report the invalid number
+                return Long.parseLong(ascii(data, start, end));
+            }
+            value = 10 * value + (b - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    // Decodes the bytes from start to end, only for error paths and unusual numbers
+    private static String ascii(ByteBuffer data, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        data.get(start, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Caches the UTF-8 bytes of the administrative division suffix (", Ontario, CA") by administrative code and
+     * country, since only a few hundred combinations exist. Codes of up to four bytes and countries of up to three
+     * bytes are packed into a long used as the key of an open-addressing table; other codes are not cached. Each
+     * chunk has its own cache, so the shared {@link AdminCodes} are only looked up once per combination and chunk,
+     * and the chunks never contend for them.
+     */
+    private static final class DivisionCache {
+        private final AdminCodes adminCodes;
+        private long[] keys = new long[256];
+        private byte[][] values = new byte[256][];
+        private int size;
+
+        DivisionCache(AdminCodes adminCodes) {
+            this.adminCodes = adminCodes;
+        }
+
+        byte[] get(ByteBuffer data, int adminStart, int adminEnd, int countryStart, int countryEnd) {
+            int adminLength = adminEnd - adminStart;
+            int countryLength = countryEnd - countryStart;
+            if (adminLength > 4 || countryLength > 3) {
+                return suffix(data, adminStart, adminEnd, countryStart, countryEnd);
+            }
+
+            // The lengths are part of the key so codes with trailing zero bytes stay distinct
+            long key = ((long) adminLength << 60) | ((long) countryLength << 56);
+            for (int i = 0; i < adminLength; i++) {
+                key |= (data.get(adminStart + i) & 0xFFL) << (8 * (i + 3));
+            }
+            for (int i = 0; i < countryLength; i++) {
+                key |= (data.get(countryStart + i) & 0xFFL) << (8 * i);
+            }
+
+            int mask = this.keys.length - 1;
+            int slot = Long.hashCode(key * 0x9E3779B97F4A7C15L) & mask;
+            while (this.values[slot] != null) {
+                if (this.keys[slot] == key) {
+                    return this.values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            byte[] value = suffix(data, adminStart, adminEnd, countryStart, countryEnd);
+            this.keys[slot] = key;
+            this.values[slot] = value;
+            if (++this.size * 2 > this.keys.length) {
+                grow();
+            }
+            return value;
+        }
+
+        private void grow() {
+            long[] oldKeys = this.keys;
+            byte[][] oldValues = this.values;
+            this.keys = new long[2 * oldKeys.length];
+            this.values = new byte[2 * oldKeys.length][];
+            int mask = this.keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null) {
+                    int slot = Long.hashCode(oldKeys[i] * 0x9E3779B97F4A7C15L) & mask;
+                    while (this.values[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    this.keys[slot] = oldKeys[i];
+                    this.values[slot] = oldValues[i];
+                }
+            }
+        }
+
+        // Builds the suffix appended to the city name to make its full name
+        private byte[] suffix(ByteBuffer data, int adminStart, int adminEnd, int countryStart, int countryEnd) {
+            String countryCode = ascii(data, countryStart, countryEnd);
+            String province = this.adminCodes.getRegionName(countryCode, ascii(data, adminStart, adminEnd));
+            String country = this.adminCodes.getCountryName(countryCode);
+            return (", " + province + ", " + country).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
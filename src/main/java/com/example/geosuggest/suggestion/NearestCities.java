@@ -0,0 +1,33 @@
+package com.example.geosuggest.suggestion;
+
+public class NearestCities {
+    private final int[] cityIds;
+    private final double[] distances;
+    private final double maxDistance;
+
+    /**
+     * Creates a proximity ranking of cities.
+     *
+     * @param cityIds     The ids of the cities, nearest first.
+     * @param distances   The distance in kilometers to each city, in the same order as the ids.
+     * @param maxDistance The distance in kilometers to the farthest city that matched the search, which may not be
+     *                    part of the ids when the ranking is limited.
+     */
+    public NearestCities(int[] cityIds, double[] distances, double maxDistance) {
+        this.cityIds = cityIds;
+        this.distances = distances;
+        this.maxDistance = maxDistance;
+    }
+
+    public int[] getCityIds() {
+        return cityIds;
+    }
+
+    public double[] getDistances() {
+        return distances;
+    }
+
+    public double getMaxDistance() {
+        return maxDistance;
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.geosuggest.suggestion;
+
+import com.example.geosuggest.suggestion.util.NameNormalizer;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * Answers the successive queries of a typing session ("t", "to", "tor", "toro") by narrowing down the cities
+ * matching the previous query of the session, instead of searching every city again for each keystroke.
+ *
+ * A session keeps its last query and the population ranks of every city matching it, in a Caffeine cache whose
+ * sessions expire once idle for {@code geosuggest.session.ttl-seconds}, and which holds at most
+ * {@code geosuggest.session.max-candidates} ranks in total, evicting the least used sessions first. A query
+ * extending the last query of its session only matches cities among those, so only those are searched when they
+ * are fewer than the cities the posting lists of the query would read (see
+ * {@link CityIndex#getCityRanksMatchingWords(String, int[])}). Any other query, such as one with a deleted
+ * character, or any query once the cities are reloaded, is searched among every city and starts the session over.
+ * Requests of a session that overlap each narrow down the query stored when they start, and the last one to
+ * finish replaces it, which at worst makes the next request narrow down a shorter query.
+ *
+ * The suggestions of a session are ranked and scored exactly as {@link SuggestionServiceImpl} ranks and scores
+ * them, and queries matching no city fall back to its search of misspelled queries. They are not cached by
+ * {@link CachingSuggestionService}, as the session already holds what makes them cheap.
+ */
+@Service
+public class SessionSuggestionService {
+
+    @Autowired
+    private SuggestionServiceImpl suggestionService;
+
+    @Autowired
+    private SuggestionDAO suggestionDAO;
+
+    @Value("${geosuggest.session.ttl-seconds:60}")
+    private long ttlSeconds = 60;
+
+    @Value("${geosuggest.session.max-candidates:1000000}")
+    private long maxCandidates = 1000000;
+
+    private Cache<String, Session> sessions;
+
+    // The last query of a session and the population ranks of the cities matching it, in the index searched
+    private record Session(CityIndex cities, String query, int[] ranks) {}
+
+    /**
+     * Creates the store of the sessions, bounded by the total number of ranks they hold.
+     */
+    @PostConstruct
+    public void createSessions() {
+        this.sessions = Caffeine.newBuilder()
+                .expireAfterAccess(Duration.ofSeconds(this.ttlSeconds))
+                .maximumWeight(this.maxCandidates)
+                .weigher((String id, Session session) -> session.ranks().length + 1)
+                .build();
+    }
+
+    /**
+     * Resumes a session, or starts a new one if the given session is unknown, such as when it expired.
+     *
+     * @param sessionId The id of the session to resume, or any other value to start a new session.
+     * @return The id of the resumed or new session, to be sent back with the next query of the session.
+     */
+    public String openSession(String sessionId) {
+        if (sessionId != null && this.sessions.getIfPresent(sessionId) != null) {
+            return sessionId;
+        }
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Retrieves at most {@code limit} city suggestions for the next query of a session, sorted by population in
+     * descending order, as {@link SuggestionServiceImpl#getCitiesSuggestions(String, int)} does.
+     *
+     * @param sessionId The id of the session, from {@link #openSession(String)}.
+     * @param query     The search query representing the words of the city names to search for.
+     * @param limit     The maximum number of suggestions to return, {@link Integer#MAX_VALUE} for all of them.
+     * @return An iterable list of at most {@code limit} {@link SuggestionDTO} objects, sorted by population.
+     */
+    public Iterable<SuggestionDTO> getCitiesSuggestions(String sessionId, String query, int limit) {
+        CityIndex cities = suggestionDAO.getCityIndex();
+        int[] ranks = getCityRanksMatchingWords(sessionId, cities, query);
+        if (ranks.length == 0) {
+            return suggestionService.getCitiesSuggestions(query, limit);
+        }
+        return SuggestionServiceImpl.toPopulationSuggestions(cities, cities.getCityIdsByRank(ranks, limit));
+    }
+
+    /**
+     * Retrieves at most {@code limit} city suggestions for the next query of a session, sorted by proximity to
+     * the given coordinates, or by a blend of population and proximity if configured, as {@link SuggestionServiceImpl#getCitiesSuggestions(String, double, double, int)}
+     * does.
+     *
+     * @param sessionId The id of the session, from {@link #openSession(String)}.
+     * @param query     The search query representing the words of the city names to search for.
+     * @param latitude  The latitude coordinate used to calculate the proximity of the cities.
+     * @param longitude The longitude coordinate used to calculate the proximity of the cities.
+     * @param limit     The maximum number of suggestions to return, {@link Integer#MAX_VALUE} for all of them.
+     * @return An iterable list of at most {@code limit} {@link SuggestionDTO} objects, sorted by proximity.
+     */
+    public Iterable<SuggestionDTO> getCitiesSuggestions(String sessionId, String query, double latitude,
+                                                        double longitude, int limit) {
+        CityIndex cities = suggestionDAO.getCityIndex();
+        int[] ranks = getCityRanksMatchingWords(sessionId, cities, query);
+        if (ranks.length == 0) {
+            return suggestionService.getCitiesSuggestions(query, latitude, longitude, limit);
+        }
+        return suggestionService.rankByProximity(cities, cities.getCityIdsByRank(ranks, ranks.length),
+                latitude, longitude, limit);
+    }
+
+    // Finds the ranks of the cities matching the query, among those matching the last query of the session if the
+    // query extends it, and makes the query the last one of the session
+    private int[] getCityRanksMatchingWords(String sessionId, CityIndex cities, String query) {
+        String normalizedQuery = NameNormalizer.normalize(query);
+        Session session = this.sessions.getIfPresent(sessionId);
+        int[] candidateRanks = session != null && session.cities() == cities
+                && normalizedQuery.startsWith(session.query()) ? session.ranks() : null;
+
+        int[] ranks = cities.getCityRanksMatchingWords(normalizedQuery, candidateRanks);
+        this.sessions.put(sessionId, new Session(cities, normalizedQuery, ranks));
+        return ranks;
+    }
+}
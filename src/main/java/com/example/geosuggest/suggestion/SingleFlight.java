@@ -0,0 +1,88 @@
+package com.example.geosuggest.suggestion;
+
+import io.micrometer.core.instrument.Counter;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Collapses concurrent computations of the same key into one: the first caller computes the value, and callers
+ * asking for the same key while it is computed wait for it and share it, instead of computing it again.
+ *
+ * The computations in flight are kept in a {@link ConcurrentHashMap} of futures, which callers join with a single
+ * {@link ConcurrentMap#putIfAbsent}: the value is computed by its caller's thread, outside of any lock of the map,
+ * and its future is removed as soon as it completes, so later callers compute the value again. Keeping values
+ * after they are computed is left to a cache in front of it. If the computation fails, its callers all get its
+ * exception.
+ *
+ * @param <K> The type of the keys, whose equality decides which computations are the same
+ * @param <V> The type of the computed values
+ */
+final class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final Counter collapsed;
+
+    /**
+     * Creates a group of computations.
+     *
+     * @param collapsed The counter incremented for each caller that waits for a computation in flight.
+     */
+    SingleFlight(Counter collapsed) {
+        this.collapsed = collapsed;
+    }
+
+    /**
+     * Computes the value of a key, or waits for the computation of the same key in flight.
+     *
+     * @param key         The key of the value.
+     * @param computation Computes the value, only called if no computation of the key is in flight.
+     * @return The computed value, shared with every caller of the same computation.
+     */
+    V execute(K key, Supplier<V> computation) {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> leader = this.inFlight.putIfAbsent(key, flight);
+        if (leader != null) {
+            this.collapsed.increment();
+            return join(leader);
+        }
+
+        try {
+            V value = computation.get();
+            flight.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * Counts the computations in flight.
+     *
+     * @return The number of keys being computed.
+     */
+    int size() {
+        return this.inFlight.size();
+    }
+
+    // Waits for a computation, rethrowing its exception as it was thrown
+    private static <V> V join(CompletableFuture<V> flight) {
+        try {
+            return flight.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+}
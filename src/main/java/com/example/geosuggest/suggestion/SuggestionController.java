@@ -1,57 +1,225 @@
 package com.example.geosuggest.suggestion;
 
+import com.example.geosuggest.suggestion.util.NameNormalizer;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.ArraySchema;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
-import org.thymeleaf.util.StringUtils;
+import org.springframework.web.context.request.WebRequest;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 @Controller
 public class SuggestionController {
 
+    /**
+     * The header carrying the id of a typing session, in requests that resume it and in their responses.
+     */
+    public static final String SESSION_HEADER = "X-Suggestion-Session";
+
     private final SuggestionService suggestionService;
+    private final BatchSuggestionService batchSuggestionService;
+    private final SessionSuggestionService sessionSuggestionService;
+    private final SuggestionDAO suggestionDAO;
+
+    @Value("${geosuggest.http.max-age-seconds:60}")
+    private long maxAgeSeconds = 60;
 
-    public SuggestionController(SuggestionService suggestionService) {
+    public SuggestionController(SuggestionService suggestionService, BatchSuggestionService batchSuggestionService,
+                                SessionSuggestionService sessionSuggestionService, SuggestionDAO suggestionDAO) {
         this.suggestionService =  suggestionService;
+        this.batchSuggestionService = batchSuggestionService;
+        this.sessionSuggestionService = sessionSuggestionService;
+        this.suggestionDAO = suggestionDAO;
     }
 
     /**
      * Handles GET requests for city suggestions based on the input query and optional location (latitude and longitude).
      *
-     * @param query     The search query for city names (required). The query is case-insensitive and partial matches are allowed.
+     * Suggestions outside of a session only depend on the query, on the dataset of the cities and on the settings, so
+     * they carry a strong ETag derived from the {@link SuggestionDAO#getDatasetVersion() dataset version}, the
+     * {@link SuggestionService#getSettingsFingerprint() settings} of the suggestions and the normalized query, and a
+     * {@code Cache-Control} header letting any cache keep them for {@code geosuggest.http.max-age-seconds} seconds. A
+     * request whose {@code If-None-Match} header holds the current ETag is answered with HTTP 304 Not Modified before
+     * any city is searched, so caches in front of the application revalidate for the cost of a hash.
+     *
+     * @param query     The search query for city names (required). The query ignores case, accents and punctuation, and partial matches are allowed.
      * @param latitude  The latitude coordinate for location-based filtering (optional).
      * @param longitude The longitude coordinate for location-based filtering (optional).
+     * @param limit     The maximum number of suggestions to return (optional). All matching cities are returned if omitted.
+     * @param session   The id of the typing session the query belongs to (optional), from the {@value #SESSION_HEADER}
+     *                  header of the response to its previous query, or any value to start a session. The response
+     *                  then carries the id of the session in the same header, and the next query of the session
+     *                  only searches the cities matching this one if it extends it (see {@link SessionSuggestionService}).
+     * @param request   The request, whose {@code If-None-Match} header is checked against the ETag of the suggestions.
      * @return A ResponseEntity containing a list of city suggestions as {@link SuggestionDTO} objects in JSON format.
-     *         Returns HTTP 400 Bad Request if either latitude or longitude is missing when provided.
+     *         Returns HTTP 400 Bad Request if the limit is not positive.
      */
     @Operation(summary = "Get city suggestions based on input query",
             description = "Returns a list of city suggestions that match the given query, sorted by the population. " +
                     "If latitude and longitude are provided, suggestions may be sorted " +
-                    "based on proximity.")
+                    "based on proximity. If a limit is provided, only the best suggestions are returned. " +
+                    "Successive queries sent with the X-Suggestion-Session header of the previous response narrow " +
+                    "down its results instead of searching every city again. Responses outside of a session carry " +
+                    "an ETag and can be revalidated with If-None-Match.")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Successful retrieval of city suggestions", content = { @Content(mediaType = "application/json",
                     array = @ArraySchema(schema = @Schema(implementation = SuggestionDTO.class)))}),
+            @ApiResponse(responseCode = "304", description = "The suggestions of the If-None-Match ETag are still current"),
+            @ApiResponse(responseCode = "400", description = "Invalid limit"),
             @ApiResponse(responseCode = "500", description = "Internal server error")
     })
     @GetMapping(path = {"/suggestions"}, produces = {"application/json"})
     public ResponseEntity<Iterable<SuggestionDTO>> getSuggestions(
             @RequestParam(name = "q") String query,
             @RequestParam(name = "latitude", required = false) Double latitude,
-            @RequestParam(name = "longitude", required = false) Double longitude) {
-        // Capitalize words in the query for consistency (e.g., "new york" -> "New York")
-        query =  StringUtils.capitalizeWords(query);
+            @RequestParam(name = "longitude", required = false) Double longitude,
+            @RequestParam(name = "limit", required = false) Integer limit,
+            @RequestHeader(name = SESSION_HEADER, required = false) String session,
+            WebRequest request) {
+        // Reject limits that cannot return any suggestion
+        if (limit != null && limit < 1) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        // Time the request up to its serialization, which is timed by the message converter
+        long start = System.nanoTime();
+
+        if (session != null) {
+            return getSessionSuggestions(session, query, latitude, longitude, limit, start);
+        }
+
+        // The version is read before searching, so the suggestions are never older than their ETag. Checking the
+        // ETag also sets it on the response, so the responses below only add the Cache-Control header
+        String eTag = eTag(query, latitude, longitude, limit);
+        if (request.checkNotModified(eTag)) {
+            SuggestionMetrics.NOT_MODIFIED_REQUESTS.increment();
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).cacheControl(cacheControl()).varyBy(SESSION_HEADER)
+                    .build();
+        }
+        ResponseEntity.BodyBuilder ok = ResponseEntity.ok().cacheControl(cacheControl()).varyBy(SESSION_HEADER);
 
         // Check if latitude or longitude are not passed (null)
         if (latitude == null || longitude == null) {
-            return ResponseEntity.ok(suggestionService.getCitiesSuggestions(query));
+            if (limit == null) {
+                Iterable<SuggestionDTO> suggestions = suggestionService.getCitiesSuggestions(query);
+                SuggestionMetrics.record(SuggestionMetrics.POPULATION_REQUESTS, start);
+                return ok.body(suggestions);
+            }
+            Iterable<SuggestionDTO> suggestions = suggestionService.getCitiesSuggestions(query, limit);
+            SuggestionMetrics.record(SuggestionMetrics.LIMITED_POPULATION_REQUESTS, start);
+            return ok.body(suggestions);
         }
 
         // Proceed with service call if latitude and longitude are present
-        return ResponseEntity.ok(suggestionService.getCitiesSuggestions(query, latitude, longitude));
+        if (limit == null) {
+            Iterable<SuggestionDTO> suggestions = suggestionService.getCitiesSuggestions(query, latitude, longitude);
+            SuggestionMetrics.record(SuggestionMetrics.PROXIMITY_REQUESTS, start);
+            return ok.body(suggestions);
+        }
+        Iterable<SuggestionDTO> suggestions = suggestionService.getCitiesSuggestions(query, latitude, longitude, limit);
+        SuggestionMetrics.record(SuggestionMetrics.LIMITED_PROXIMITY_REQUESTS, start);
+        return ok.body(suggestions);
+    }
+
+    // Answers the next query of a typing session, returning the id of the session with the suggestions
+    private ResponseEntity<Iterable<SuggestionDTO>> getSessionSuggestions(String session, String query, Double latitude,
+                                                                          Double longitude, Integer limit, long start) {
+        String sessionId = sessionSuggestionService.openSession(session);
+        int maxSuggestions = limit == null ? Integer.MAX_VALUE : limit;
+        Iterable<SuggestionDTO> suggestions;
+        if (latitude == null || longitude == null) {
+            suggestions = sessionSuggestionService.getCitiesSuggestions(sessionId, query, maxSuggestions);
+            SuggestionMetrics.record(limit == null ? SuggestionMetrics.POPULATION_REQUESTS
+                    : SuggestionMetrics.LIMITED_POPULATION_REQUESTS, start);
+        } else {
+            suggestions = sessionSuggestionService.getCitiesSuggestions(sessionId, query, latitude, longitude, maxSuggestions);
+            SuggestionMetrics.record(limit == null ? SuggestionMetrics.PROXIMITY_REQUESTS
+                    : SuggestionMetrics.LIMITED_PROXIMITY_REQUESTS, start);
+        }
+        // The suggestions depend on the previous queries of the session, so no cache may keep them
+        return ResponseEntity.ok().cacheControl(CacheControl.noStore()).header(SESSION_HEADER, sessionId)
+                .body(suggestions);
+    }
+
+    // Derives the strong ETag of the suggestions of a query from the dataset version and a SHA-256 digest of the
+    // settings of the suggestions and of the normalized query, truncated to 128 bits, so that distinct queries do
+    // not share an ETag in practice
+    private String eTag(String query, Double latitude, Double longitude, Integer limit) {
+        byte[] normalized = NameNormalizer.normalize(query).getBytes(StandardCharsets.UTF_8);
+        boolean proximity = latitude != null && longitude != null;
+        ByteBuffer request = ByteBuffer.allocate(Long.BYTES + Integer.BYTES + normalized.length + 1 + 2 * Double.BYTES
+                + 1 + Integer.BYTES);
+        request.putLong(suggestionService.getSettingsFingerprint());
+        request.putInt(normalized.length).put(normalized); // The length first, so no query is a prefix of another
+        request.put((byte) (proximity ? 1 : 0))
+                .putDouble(proximity ? latitude : 0).putDouble(proximity ? longitude : 0);
+        request.put((byte) (limit == null ? 0 : 1)).putInt(limit == null ? 0 : limit);
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(request.array());
+            return "\"" + Long.toHexString(suggestionDAO.getDatasetVersion()) + "-"
+                    + HexFormat.of().formatHex(digest, 0, 16) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e); // Every Java platform supports it
+        }
+    }
+
+    // Lets any cache keep the suggestions for the configured time, or only revalidate them if it is 0
+    private CacheControl cacheControl() {
+        if (this.maxAgeSeconds <= 0) {
+            return CacheControl.noCache().cachePublic();
+        }
+        return CacheControl.maxAge(this.maxAgeSeconds, TimeUnit.SECONDS).cachePublic();
+    }
+
+    /**
+     * Handles POST requests for the city suggestions of a batch of queries, each with the parameters of a GET
+     * request, so many queries pay the overhead of a single HTTP request. The queries are answered in parallel.
+     *
+     * @param queries The queries, each with a query string {@code q}, and optionally a {@code latitude}, a
+     *                {@code longitude} and a {@code limit}.
+     * @return A ResponseEntity containing the list of city suggestions of each query, in the order of the queries.
+     *         Returns HTTP 400 Bad Request if a query has no query string or a limit that is not positive, or if
+     *         there are more queries than allowed (see {@code geosuggest.batch.max-queries}).
+     */
+    @Operation(summary = "Get city suggestions for a batch of queries",
+            description = "Returns the list of city suggestions of each query, in the order of the queries. " +
+                    "Each query takes the parameters of GET /suggestions and is answered the same way.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Successful retrieval of city suggestions", content = { @Content(mediaType = "application/json",
+                    array = @ArraySchema(schema = @Schema(implementation = SuggestionDTO.class)))}),
+            @ApiResponse(responseCode = "400", description = "Invalid query or limit, or too many queries"),
+            @ApiResponse(responseCode = "500", description = "Internal server error")
+    })
+    @PostMapping(path = {"/suggestions/batch"}, consumes = {"application/json"}, produces = {"application/json"})
+    public ResponseEntity<List<Iterable<SuggestionDTO>>> getBatchSuggestions(@RequestBody List<SuggestionQueryDTO> queries) {
+        // Reject the whole batch if one of its queries would be rejected on its own
+        if (queries.size() > batchSuggestionService.getMaxQueries()) {
+            return ResponseEntity.badRequest().build();
+        }
+        for (SuggestionQueryDTO query : queries) {
+            if (query == null || query.getQ() == null || (query.getLimit() != null && query.getLimit() < 1)) {
+                return ResponseEntity.badRequest().build();
+            }
+        }
+
+        long start = System.nanoTime();
+        List<Iterable<SuggestionDTO>> suggestions = batchSuggestionService.getCitiesSuggestions(queries);
+        SuggestionMetrics.record(SuggestionMetrics.BATCH_REQUESTS, start);
+        return ResponseEntity.ok(suggestions);
     }
-}
\ No newline at end of file
+}
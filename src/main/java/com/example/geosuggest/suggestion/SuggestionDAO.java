@@ -1,184 +1,337 @@
 package com.example.geosuggest.suggestion;
 
-import com.example.geosuggest.suggestion.trie.Trie;
-import com.example.geosuggest.suggestion.util.FIPSMapper;
-import com.example.geosuggest.suggestion.util.GeoCalculator;
+import com.example.geosuggest.suggestion.spatial.KdTree;
+import com.example.geosuggest.suggestion.util.AdminCodes;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Component;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ThreadLocalRandom;
 
 @Component
 public class SuggestionDAO {
-    private final String DATA_SOURCE = "src/main/resources/geonames/cities_canada-usa.tsv";
-    private Trie citiesTrie = new Trie();
-    private Map<String, GeoName> cities = new HashMap<String, GeoName>();
+    private static final Logger LOGGER = LoggerFactory.getLogger(SuggestionDAO.class);
+
+    private static final long RELOAD_DELAY_MS = 1000; // How long changes to the TSV file must settle before a reload
+
+    // The current index; a reload replaces it as a whole, so searches never lock and never see a partial index
+    private volatile CityIndex cityIndex;
+    // The version of the dataset of the current index, published after the index, so whoever reads the version
+    // first then searches the index never gets cities older than the version
+    private volatile long datasetVersion;
+    private WatchService watchService;
+
+    @Value("${geosuggest.data-source:classpath:geonames/cities_canada-usa.tsv}")
+    private Resource dataSource = new ClassPathResource("geonames/cities_canada-usa.tsv");
+
+    @Value("${geosuggest.data-source.watch:false}")
+    private boolean watchDataSource = false;
+
+    @Value("${geosuggest.snapshot.path:build/geosuggest/cities.snapshot}")
+    private String snapshotPath = "";
+
+    @Value("${geosuggest.index.off-heap:false}")
+    private boolean offHeap = false;
+
+    @Value("${geosuggest.admin-codes.regions:#{null}}")
+    private Resource adminRegions = null;
+
+    @Value("${geosuggest.admin-codes.countries:#{null}}")
+    private Resource adminCountries = null;
 
     /**
-     * Loads city data from a TSV file into the in-memory Trie structure and a map for efficient search operations.
+     * Loads city data from a TSV file into a {@link CityIndex} for efficient search operations.
+     *
+     * This method reads a TSV (Tab Separated Values) file containing city data (see {@code geosuggest.data-source},
+     * either a classpath or a file system location), where each line represents a city's information (e.g., name,
+     * latitude, longitude, population, country, and administrative region). The first line (header) is skipped. The
+     * file is memory-mapped when it is on the file system, and parsed from its bytes in parallel chunks by a
+     * {@link CityTsvParser}. Each city is given a dense id, and its name is inserted into a Trie for efficient
+     * prefix-based searches, which yield city ids, along with its ASCII name and its alternate names, all normalized to
+     * ignore case, accents and punctuation. Additionally, the city's name, geographical and population data are stored
+     * in primitive columns indexed by the city id, so looking them up during search operations needs no hashing and no
+     * object per city. Once every city is loaded, the words of their names are indexed in posting lists sorted by
+     * population, and the cities' coordinates are indexed in a {@link KdTree} for proximity searches.
+     *
+     * The columns and the Trie are then saved as a binary {@link CitySnapshot} (see {@code geosuggest.snapshot.path}),
+     * which later starts read instead of the TSV file as long as the TSV file and the administrative codes are
+     * unchanged. Only the {@link KdTree} and the coordinates in radians are rebuilt from a snapshot. A missing, stale
+     * or unreadable snapshot falls back to parsing the TSV file.
      *
-     * This method reads a TSV (Tab Separated Values) file containing city data, where each line represents a city's
-     * information (e.g., name, latitude, longitude, population, country, and administrative region). The first line
-     * (header) is skipped. Each city's name is inserted into a Trie for efficient prefix-based searches. Additionally,
-     * the city's geographical and population data is stored in a {@link GeoName} object and placed into a map for
-     * quick lookup during search operations.
+     * The administrative codes of the cities are resolved into the names of their region and country by
+     * {@link AdminCodes} read once per load from the GeoNames {@code admin1CodesASCII.txt} and {@code countryInfo.txt}
+     * files (see {@code geosuggest.admin-codes.regions} and {@code geosuggest.admin-codes.countries}), and shared by
+     * every chunk. Without them, only the Canadian provinces of the bundled dataset are resolved.
      *
-     * The expected TSV file format is as follows (0-indexed):
-     * - Column 1: City name
-     * - Column 4: Latitude
-     * - Column 5: Longitude
-     * - Column 14: Population
-     * - Column 8: Country
-     * - Column 10: Administrative division (e.g., province, state)
+     * If {@code geosuggest.index.off-heap} is enabled, the columns and the Trie are stored outside of the heap, for
+     * datasets such as the whole GeoNames dump, whose Trie would otherwise fill the heap with millions of nodes.
+     *
+     * If {@code geosuggest.data-source.watch} is enabled, the TSV file is then watched and the cities are
+     * {@link #reload() reloaded} whenever it changes.
      *
      * @throws IOException if an error occurs while reading the TSV file.
      */
     @PostConstruct
     public void loadCities() throws IOException {
-        try (BufferedReader br = new BufferedReader(new FileReader(DATA_SOURCE))) {
-            String line;
-
-            // Skip the first line
-            br.readLine();
-
-            while ((line = br.readLine()) != null) {
-                String[] fields = line.split("\t");
-                String name = fields[1];
-                double latitude = Double.parseDouble(fields[4]);
-                double longitude = Double.parseDouble(fields[5]);
-                long population = Long.parseLong(fields[14]);
-                String country = fields[8];
-                String province = FIPSMapper.getRegionByFIPS(fields[10]);
-                String administrativeDivision = province + ", " + country;
-                String fullName = name + ", " + administrativeDivision;
-                this.citiesTrie.insert(fullName);
-
-                GeoName geoName = new GeoName();
-                geoName.setName(fullName);
-                geoName.setLatitude(latitude);
-                geoName.setLongitude(longitude);
-                geoName.setPopulation(population);
-                this.cities.putIfAbsent(fullName, geoName);
-            }
+        publish(loadCityIndex());
+        if (this.watchDataSource) {
+            watchDataSource();
         }
     }
 
     /**
-     * Retrieves a list of city names that start with the given prefix, sorted by population in descending order.
+     * Reloads the cities from the TSV file, or from its snapshot if it is up to date.
      *
-     * This method searches the Trie for all city names that start with the specified prefix (case-insensitive),
-     * then retrieves the corresponding cities from the in-memory map and sorts them by their population size
-     * (from largest to smallest). The sorted list of city names is returned.
+     * The new index is built completely while searches keep running against the current one, then replaces it
+     * at once. Searches that already hold the current index finish with it. If the new index cannot be built,
+     * the current one is kept. Concurrent reloads run one after the other.
      *
-     * @param prefix The search query representing the starting characters of the city names.
-     *               This query is case-insensitive and may be a partial match (e.g., "Tor" for "Toronto").
-     * @return A list of city names that start with the given prefix, sorted by population in descending order.
-     *         If no cities are found matching the prefix, the method returns an empty list.
+     * @throws IOException if an error occurs while reading the TSV file.
      */
-    public List<String> getCitiesStartingWithPrefixSortedByPopulation(String prefix) {
-        List<String> cityNames = this.citiesTrie.getLettersStartingWith(prefix);
-
-        cityNames.sort((city1, city2) -> {
-            GeoName geo1 = cities.get(city1);
-            GeoName geo2 = cities.get(city2);
-            return Long.compare(geo2.getPopulation(), geo1.getPopulation()); // Descending order
-        });
-
-        return cityNames;
+    public synchronized void reload() throws IOException {
+        CityIndex previous = this.cityIndex;
+        publish(loadCityIndex());
+        LOGGER.info("Reloaded the cities: {} cities replace {}",
+                this.cityIndex.getCityCount(), previous == null ? 0 : previous.getCityCount());
     }
 
     /**
-     * Retrieves a list of city names that start with the given prefix, sorted by their proximity to the specified coordinates.
+     * Retrieves the current index of the cities.
      *
-     * This method searches the Trie for all city names that start with the specified prefix (case-insensitive).
-     * For each matching city, it calculates the geographical distance to the provided latitude and longitude using the Haversine formula.
-     * The list of city names is then sorted by their proximity to the given coordinates, with the nearest cities appearing first.
+     * City ids are only meaningful for the index that returned them, so a search and the lookups of the cities
+     * it found should go through the same index, even if the cities are reloaded in between.
      *
-     * @param prefix    The search query representing the starting characters of the city names.
-     *                  This query is case-insensitive and may be a partial match (e.g., "Van" for "Vancouver").
-     * @param latitude  The latitude coordinate used to calculate the distance from each city.
-     * @param longitude The longitude coordinate used to calculate the distance from each city.
-     * @return A list of city names that start with the given prefix, sorted by their proximity to the provided coordinates.
-     *         If no cities are found matching the prefix, the method returns an empty list.
+     * @return The current index of the cities.
      */
-    public List<String> getCitiesStartingWithPrefixNearest(String prefix, double latitude, double longitude) {
-        List<String> cityNames = this.citiesTrie.getLettersStartingWith(prefix);
-
-        cityNames.sort((city1, city2) -> {
-            GeoName geo1 = cities.get(city1);
-            GeoName geo2 = cities.get(city2);
-            double distance1 = GeoCalculator.haversineDistance(latitude, longitude, geo1.getLatitude(), geo1.getLongitude());
-            double distance2 = GeoCalculator.haversineDistance(latitude, longitude, geo2.getLatitude(), geo2.getLongitude());
-            return Double.compare(distance1, distance2); // Ascending order
-        });
-
-        return cityNames;
+    public CityIndex getCityIndex() {
+        return this.cityIndex;
     }
 
     /**
-     * Retrieves the population of the specified city.
+     * Retrieves the version of the dataset of the current index, which suggestions are a function of along with their
+     * query. It is derived from a SHA-256 digest of the content of the TSV file, not from its modification time, so
+     * every instance loading a copy of the same file with the same administrative codes agrees on it. The settings
+     * of the services that change the suggestions are not part of it (see
+     * {@link SuggestionService#getSettingsFingerprint()}).
      *
-     * This method looks up the city in the in-memory map and returns the population of the city,
-     * if it exists in the dataset.
+     * The version is published after the index it belongs to, so a search run after reading the version uses
+     * that index or a newer one.
      *
-     * @param city The full name of the city (including administrative division) for which the population is requested.
-     * @return The population of the specified city.
-     *         If the city is not found, this method may throw a {@link NullPointerException}.
+     * @return The version of the dataset of the current index, or 0 before any load.
      */
-    public long getCityPopulation(String city) {
-        return cities.get(city).getPopulation();
+    public long getDatasetVersion() {
+        return this.datasetVersion;
     }
 
-    /**
-     * Retrieves the latitude coordinate of the specified city.
-     *
-     * This method looks up the city in the in-memory map and returns the latitude of the city,
-     * if it exists in the dataset.
-     *
-     * @param city The full name of the city (including administrative division) for which the latitude is requested.
-     * @return The latitude of the specified city.
-     *         If the city is not found, this method may throw a {@link NullPointerException}.
-     */
-    public double getCityLatitude(String city)  {
-        return cities.get(city).getLatitude();
+    // Replaces the current index, such as with one built from mock data, with a version no ETag was derived from
+    synchronized void setCityIndex(CityIndex cityIndex) {
+        publish(new LoadedIndex(cityIndex, mix(this.datasetVersion + ThreadLocalRandom.current().nextLong())));
     }
 
-    /**
-     * Retrieves the longitude coordinate of the specified city.
-     *
-     * This method looks up the city in the in-memory map and returns the longitude of the city,
-     * if it exists in the dataset.
-     *
-     * @param city The full name of the city (including administrative division) for which the longitude is requested.
-     * @return The longitude of the specified city.
-     *         If the city is not found, this method may throw a {@link NullPointerException}.
-     */
-    public double getCityLongitude(String city) {
-        return cities.get(city).getLongitude();
+    // An index with the version of the dataset it was loaded from
+    private record LoadedIndex(CityIndex index, long datasetVersion) {}
+
+    // Replaces the current index and its dataset version, in this order
+    private void publish(LoadedIndex loaded) {
+        this.cityIndex = loaded.index();
+        this.datasetVersion = loaded.datasetVersion();
     }
 
-    /**
-     * Calculates the relative distance between the specified city and a given geographical point
-     * defined by latitude and longitude.
-     *
-     * This method retrieves the latitude and longitude of the specified city from the in-memory dataset
-     * and uses the Haversine formula to compute the great-circle distance to the provided coordinates.
-     * The result represents the distance in kilometers.
-     *
-     * @param city     The full name of the city (including administrative division) for which the distance is calculated.
-     * @param latitude The latitude of the reference point to which the distance is calculated.
-     * @param longitude The longitude of the reference point to which the distance is calculated.
-     * @return The distance in kilometers between the specified city and the given latitude/longitude.
-     *         If the city is not found, this method may throw a {@link NullPointerException}.
-     */
-    public double getCityRelativeDistance(String city, double latitude, double longitude) {
-        double cityLatitude = getCityLatitude(city);
-        double cityLongitude = getCityLongitude(city);
-        return GeoCalculator.haversineDistance(latitude, longitude, cityLatitude, cityLongitude);
+    // Loads the cities from the snapshot if it is up to date, from the TSV file otherwise
+    private LoadedIndex loadCityIndex() throws IOException {
+        long sourceSize = this.dataSource.contentLength();
+        long sourceLastModified = this.dataSource.lastModified();
+        AdminCodes adminCodes = readAdminCodes();
+        Path snapshot = this.snapshotPath.isEmpty() ? null : Path.of(this.snapshotPath);
+        if (snapshot != null) {
+            LoadedIndex loaded = loadSnapshot(snapshot, sourceSize, sourceLastModified, adminCodes);
+            if (loaded != null) {
+                return loaded;
+            }
+        }
+
+        long start = System.nanoTime();
+        ByteBuffer data = readDataSource();
+        long sourceDigest = digest(data);
+        CityIndex.Builder builder = new CityIndex.Builder(this.offHeap);
+        int count = 0;
+        for (CityTsvParser.Chunk chunk : CityTsvParser.parse(data, adminCodes)) {
+            for (int i = 0; i < chunk.size; i++) {
+                builder.addCity(chunk.names[i], chunk.aliases[i], chunk.latitudes[i], chunk.longitudes[i], chunk.populations[i]);
+            }
+            count += chunk.size;
+        }
+        LOGGER.info("Parsed {} cities from {} in {} ms",
+                count, this.dataSource.getDescription(), (System.nanoTime() - start) / 1_000_000);
+
+        CityIndex index = builder.build();
+        SuggestionMetrics.record(SuggestionMetrics.TSV_LOAD, start);
+        if (snapshot != null) {
+            saveSnapshot(index, snapshot, sourceSize, sourceLastModified, adminCodes, sourceDigest);
+        }
+        return new LoadedIndex(index, datasetVersion(sourceDigest, adminCodes));
+    }
+
+    // Derives the dataset version from the content of the TSV file and the administrative codes
+    private static long datasetVersion(long sourceDigest, AdminCodes adminCodes) {
+        return mix(sourceDigest + adminCodes.getFingerprint());
+    }
+
+    // Digests the content of the TSV file with SHA-256, keeping the first 64 bits; the buffer is not modified
+    private static long digest(ByteBuffer data) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(data.duplicate());
+            return ByteBuffer.wrap(digest.digest()).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e); // Every Java platform supports it
+        }
+    }
+
+    // Mixes the bits of a value (the finalizer of SplitMix64)
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+
+    // Reads the administrative codes from the configured GeoNames files, or the Canadian provinces without them
+    private AdminCodes readAdminCodes() throws IOException {
+        if (this.adminRegions == null && this.adminCountries == null) {
+            return AdminCodes.fips();
+        }
+        try (InputStream regions = this.adminRegions == null ? null : this.adminRegions.getInputStream();
+             InputStream countries = this.adminCountries == null ? null : this.adminCountries.getInputStream()) {
+            AdminCodes adminCodes = AdminCodes.read(regions, countries);
+            LOGGER.info("Read {} administrative regions", adminCodes.getRegionCount());
+            return adminCodes;
+        }
+    }
+
+    // Reads the TSV file, memory-mapping it if it is on the file system, such as when it is not packaged in the jar
+    private ByteBuffer readDataSource() throws IOException {
+        if (this.dataSource.isFile()) {
+            try (FileChannel channel = FileChannel.open(this.dataSource.getFile().toPath(), StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+        try (InputStream in = this.dataSource.getInputStream()) {
+            return ByteBuffer.wrap(in.readAllBytes());
+        }
+    }
+
+    // Loads the cities from the snapshot, returning null if it is missing, stale or unreadable
+    private LoadedIndex loadSnapshot(Path snapshot, long sourceSize, long sourceLastModified, AdminCodes adminCodes) {
+        long start = System.nanoTime();
+        CitySnapshot cities;
+        try {
+            cities = CitySnapshot.read(snapshot, sourceSize, sourceLastModified, adminCodes.getFingerprint(),
+                    this.offHeap);
+        } catch (IOException e) {
+            LOGGER.warn("Could not read the city snapshot {}, parsing {} instead", snapshot, this.dataSource.getDescription(), e);
+            return null;
+        }
+        if (cities == null) {
+            LOGGER.info("No up-to-date city snapshot at {}, parsing {}", snapshot, this.dataSource.getDescription());
+            return null;
+        }
+
+        CityIndex index = CityIndex.fromSnapshot(cities, this.offHeap);
+        SuggestionMetrics.record(SuggestionMetrics.SNAPSHOT_LOAD, start);
+        LOGGER.info("Loaded {} cities from the snapshot {} in {} ms",
+                index.getCityCount(), snapshot, (System.nanoTime() - start) / 1_000_000);
+        return new LoadedIndex(index, datasetVersion(cities.sourceDigest, adminCodes));
+    }
+
+    // Saves the cities to the snapshot; the snapshot is only an optimization, so failing to save it is not fatal
+    private void saveSnapshot(CityIndex index, Path snapshot, long sourceSize, long sourceLastModified,
+                              AdminCodes adminCodes, long sourceDigest) {
+        try {
+            index.toSnapshot(sourceDigest).write(snapshot, sourceSize, sourceLastModified,
+                    adminCodes.getFingerprint());
+            LOGGER.info("Saved the city snapshot {}", snapshot);
+        } catch (IOException e) {
+            LOGGER.warn("Could not save the city snapshot {}", snapshot, e);
+        }
+    }
+
+    // Starts a daemon thread reloading the cities whenever the TSV file changes
+    private void watchDataSource() throws IOException {
+        if (!this.dataSource.isFile()) {
+            LOGGER.warn("Cannot watch {} for changes, as it is not on the file system", this.dataSource.getDescription());
+            return;
+        }
+        Path file = this.dataSource.getFile().toPath().toAbsolutePath();
+        this.watchService = file.getFileSystem().newWatchService();
+        // Watch the directory rather than the file, so replacing the file by moving another one over it is seen
+        file.getParent().register(this.watchService,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+        WatchService watchService = this.watchService;
+        Thread watcher = new Thread(() -> watch(watchService, file), "city-data-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        LOGGER.info("Watching {} for changes", file);
+    }
+
+    // Reloads the cities whenever the file changes, until the watch service is closed
+    private void watch(WatchService watchService, Path file) {
+        try {
+            while (true) {
+                if (!isChanged(watchService.take(), file)) {
+                    continue;
+                }
+                // Wait for the writes to settle, so a file being copied is reloaded once, when it is complete
+                Thread.sleep(RELOAD_DELAY_MS);
+                WatchKey key;
+                while ((key = watchService.poll()) != null) {
+                    isChanged(key, file);
+                }
+
+                try {
+                    reload();
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.error("Could not reload the cities from {}, keeping the current ones", file, e);
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            LOGGER.info("Stopped watching {} for changes", file);
+        }
+    }
+
+    // Consumes the events of a watch key, telling if any of them may be a change to the file
+    private static boolean isChanged(WatchKey key, Path file) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            changed |= event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context());
+        }
+        key.reset();
+        return changed;
+    }
+
+    // Stops watching the TSV file when the application shuts down
+    @PreDestroy
+    public void stopWatching() throws IOException {
+        if (this.watchService != null) {
+            this.watchService.close();
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,139 @@
+package com.example.geosuggest.suggestion;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The meters of the suggestion pipeline, exposed through the actuator's Prometheus endpoint.
+ *
+ * - {@code geosuggest.suggestion.stage}: the time spent in each stage of a suggestion, tagged by {@code stage}:
+ *   {@code tokens} (finding the cities whose names contain the words of the query, already sorted by population),
+ *   {@code fuzzy} (finding the cities matching a misspelled prefix), {@code rank} (sorting them, or searching the
+ *   nearest of them), {@code score} (normalizing their scores), {@code build} (building the suggestions) and
+ *   {@code serialize} (writing the JSON response).
+ * - {@code geosuggest.suggestion.requests}: the time spent answering each request, tagged by {@code ranking}
+ *   ({@code population} or {@code proximity}) and by whether it is {@code limited}.
+ * - {@code geosuggest.suggestion.batches}: the time spent answering each batch of queries, whose queries are not
+ *   counted as requests.
+ * - {@code geosuggest.suggestion.collapsed}: the number of requests that waited for an identical request in flight
+ *   and shared its suggestions, instead of computing them again.
+ * - {@code geosuggest.suggestion.not-modified}: the number of requests answered with 304 Not Modified, because the
+ *   suggestions the client or a cache in between already had are still current, without searching the cities.
+ * - {@code geosuggest.suggestion.candidates}: the number of cities matching the prefix of each search that lists
+ *   them, tagged by {@code prefix.length} (up to 6, for 6 or more). Searches ranked by proximity, by a blend or
+ *   within edits list every match, limited or not. Limited searches ranked by population alone stop at the first
+ *   {@code limit} matches and never count the others, so they are not recorded: for them, the histogram only
+ *   covers the unlimited requests.
+ * - {@code geosuggest.cities.load}: the time spent loading the cities, tagged by {@code source} ({@code tsv} or
+ *   {@code snapshot}).
+ *
+ * The meters are registered once in the global registry, which Spring Boot binds to its own registry, so the
+ * {@link CityIndex}, which is not a bean, can record into them too. Recording is a couple of atomic increments
+ * on meters resolved up front, cheap enough to leave on under full load. Timers publish histogram buckets so
+ * percentiles can be aggregated across instances.
+ */
+final class SuggestionMetrics {
+
+    static final Timer FUZZY_TRIE = stage("fuzzy");
+    static final Timer TOKENS = stage("tokens");
+    static final Timer RANK = stage("rank");
+    static final Timer SCORE = stage("score");
+    static final Timer BUILD = stage("build");
+    static final Timer SERIALIZE = stage("serialize");
+
+    static final Timer POPULATION_REQUESTS = requests("population", false);
+    static final Timer LIMITED_POPULATION_REQUESTS = requests("population", true);
+    static final Timer PROXIMITY_REQUESTS = requests("proximity", false);
+    static final Timer LIMITED_PROXIMITY_REQUESTS = requests("proximity", true);
+
+    static final Timer BATCH_REQUESTS = Timer.builder("geosuggest.suggestion.batches")
+            .description("Time spent answering a batch of suggestion queries")
+            .publishPercentileHistogram()
+            .register(Metrics.globalRegistry);
+
+    static final Counter COLLAPSED_REQUESTS = Counter.builder("geosuggest.suggestion.collapsed")
+            .description("Number of requests that shared the suggestions of an identical request in flight")
+            .register(Metrics.globalRegistry);
+
+    static final Counter NOT_MODIFIED_REQUESTS = Counter.builder("geosuggest.suggestion.not-modified")
+            .description("Number of requests answered with 304 Not Modified without searching the cities")
+            .register(Metrics.globalRegistry);
+
+    static final Timer TSV_LOAD = load("tsv");
+    static final Timer SNAPSHOT_LOAD = load("snapshot");
+
+    private static final int MAX_PREFIX_LENGTH = 6;
+    private static final DistributionSummary[] CANDIDATES = new DistributionSummary[MAX_PREFIX_LENGTH + 1];
+
+    static {
+        for (int length = 0; length <= MAX_PREFIX_LENGTH; length++) {
+            CANDIDATES[length] = DistributionSummary.builder("geosuggest.suggestion.candidates")
+                    .description("Number of cities matching the prefix of a search")
+                    .tag("prefix.length", length == MAX_PREFIX_LENGTH ? MAX_PREFIX_LENGTH + "+" : Integer.toString(length))
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(1.0)
+                    .maximumExpectedValue(1_000_000.0)
+                    .register(Metrics.globalRegistry);
+        }
+    }
+
+    private SuggestionMetrics() {}
+
+    /**
+     * Records the time elapsed since the given start, and returns the current time, so consecutive stages can be
+     * timed with a single call to {@link System#nanoTime()} each.
+     *
+     * @param timer The timer of the stage.
+     * @param start The time the stage started, from {@link System#nanoTime()}.
+     * @return The time the stage ended, from {@link System#nanoTime()}.
+     */
+    static long record(Timer timer, long start) {
+        long end = System.nanoTime();
+        timer.record(end - start, TimeUnit.NANOSECONDS);
+        return end;
+    }
+
+    /**
+     * Records the number of cities matching a prefix.
+     *
+     * @param prefix     The prefix searched for.
+     * @param candidates The number of cities matching the prefix.
+     */
+    static void recordCandidates(String prefix, int candidates) {
+        CANDIDATES[Math.min(prefix.length(), MAX_PREFIX_LENGTH)].record(candidates);
+    }
+
+    // Builds the timer of a stage; stages take from a microsecond to a few hundred milliseconds
+    private static Timer stage(String stage) {
+        return Timer.builder("geosuggest.suggestion.stage")
+                .description("Time spent in a stage of the suggestion pipeline")
+                .tag("stage", stage)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(500))
+                .maximumExpectedValue(Duration.ofSeconds(1))
+                .register(Metrics.globalRegistry);
+    }
+
+    private static Timer requests(String ranking, boolean limited) {
+        return Timer.builder("geosuggest.suggestion.requests")
+                .description("Time spent answering a suggestion request")
+                .tag("ranking", ranking)
+                .tag("limited", Boolean.toString(limited))
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(500))
+                .maximumExpectedValue(Duration.ofSeconds(1))
+                .register(Metrics.globalRegistry);
+    }
+
+    private static Timer load(String source) {
+        return Timer.builder("geosuggest.cities.load")
+                .description("Time spent loading the cities")
+                .tag("source", source)
+                .register(Metrics.globalRegistry);
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.geosuggest.suggestion;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+@Configuration
+public class SuggestionMetricsConfiguration {
+
+    /**
+     * Replaces the JSON message converter of Spring Boot with one timing the serialization of each response into
+     * the {@code serialize} stage of {@link SuggestionMetrics}. The serialization includes writing to the response
+     * buffer, and to the connection for responses larger than the buffer.
+     *
+     * @param objectMapper The object mapper configured by Spring Boot.
+     * @return The timed JSON message converter.
+     */
+    @Bean
+    public MappingJackson2HttpMessageConverter mappingJackson2HttpMessageConverter(ObjectMapper objectMapper) {
+        return new MappingJackson2HttpMessageConverter(objectMapper) {
+            @Override
+            protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage)
+                    throws IOException, HttpMessageNotWritableException {
+                long start = System.nanoTime();
+                super.writeInternal(object, type, outputMessage);
+                SuggestionMetrics.record(SuggestionMetrics.SERIALIZE, start);
+            }
+        };
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.geosuggest.suggestion;
+
+import java.io.Serializable;
+
+/**
+ * A query of a batch of suggestion requests, with the same parameters as a single request: the coordinates and
+ * the limit are optional.
+ */
+public class SuggestionQueryDTO implements Serializable {
+    private String q;
+    private Double latitude;
+    private Double longitude;
+    private Integer limit;
+
+    public SuggestionQueryDTO() {
+    }
+
+    public SuggestionQueryDTO(String q, Double latitude, Double longitude, Integer limit) {
+        this.q = q;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.limit = limit;
+    }
+
+    public String getQ() {
+        return q;
+    }
+
+    public void setQ(String q) {
+        this.q = q;
+    }
+
+    public Double getLatitude() {
+        return latitude;
+    }
+
+    public void setLatitude(Double latitude) {
+        this.latitude = latitude;
+    }
+
+    public Double getLongitude() {
+        return longitude;
+    }
+
+    public void setLongitude(Double longitude) {
+        this.longitude = longitude;
+    }
+
+    public Integer getLimit() {
+        return limit;
+    }
+
+    public void setLimit(Integer limit) {
+        this.limit = limit;
+    }
+}
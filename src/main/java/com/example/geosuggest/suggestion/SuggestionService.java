@@ -4,4 +4,16 @@ package com.example.geosuggest.suggestion;
 public interface SuggestionService {
     Iterable<SuggestionDTO> getCitiesSuggestions(String query);
     Iterable<SuggestionDTO> getCitiesSuggestions(String query, double latitude, double longitude);
+    Iterable<SuggestionDTO> getCitiesSuggestions(String query, int limit);
+    Iterable<SuggestionDTO> getCitiesSuggestions(String query, double latitude, double longitude, int limit);
+
+    /**
+     * Fingerprints the settings that change the suggestions of a query, so suggestions computed with other settings,
+     * such as by an instance configured differently, are not mistaken for these ones.
+     *
+     * @return A value that only changes when these settings change, or 0 if the suggestions depend on no setting.
+     */
+    default long getSettingsFingerprint() {
+        return 0;
+    }
 }
\ No newline at end of file
@@ -1,11 +1,12 @@
 package com.example.geosuggest.suggestion;
 
+import com.example.geosuggest.suggestion.util.NameNormalizer;
 import com.example.geosuggest.suggestion.util.ScoreCalculator;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Objects;
 
 @Service
 public class SuggestionServiceImpl implements SuggestionService {
@@ -13,52 +14,95 @@ public class SuggestionServiceImpl implements SuggestionService {
     @Autowired
     private SuggestionDAO suggestionDAO;
 
+    @Value("${geosuggest.fuzzy.max-edits:2}")
+    private int maxEdits = 2;
+
+    @Value("${geosuggest.fuzzy.exact-length:1}")
+    private int exactLength = 1;
+
+    @Value("${geosuggest.blend.population-weight:0}")
+    private double populationWeight = 0;
+
+    @Value("${geosuggest.blend.distance-km:100}")
+    private double distanceScale = 100;
+
+    /**
+     * Fingerprints the settings of the fuzzy matching ({@code geosuggest.fuzzy.*}) and of the blended ranking
+     * ({@code geosuggest.blend.*}).
+     *
+     * @return A value that only changes when these settings change.
+     */
+    @Override
+    public long getSettingsFingerprint() {
+        return Objects.hash(this.maxEdits, this.exactLength, this.populationWeight, this.distanceScale);
+    }
+
     /**
      * Retrieves a list of city suggestions based on the search query, sorted by population in descending order.
      *
-     * This method finds all city names starting with the given query prefix and sorts them by population
-     * (from largest to smallest). It then calculates a normalized score for each city based on its population,
+     * This method finds the ids of all cities whose names contain every word of the query, the last one possibly
+     * incomplete, already sorted by population (from largest to smallest), so "York" finds New York City as well
+     * as York. It then calculates a normalized score for each city based on its population,
      * and returns a list of {@link SuggestionDTO} objects containing the city name, latitude, longitude, and score.
      *
-     * @param query The search query representing the prefix of the city names to search for.
+     * If no city matches the query, it may be misspelled: the cities starting within a few edits of it are suggested
+     * instead (see {@code geosuggest.fuzzy.max-edits}), none for queries of up to 2 characters once normalized, 1 for
+     * queries of up to 5 characters and 2 for longer queries. The first characters of the query are trusted (see
+     * {@code geosuggest.fuzzy.exact-length}). The other methods fall back the same way.
+     *
+     * @param query The search query representing the words of the city names to search for.
      *              The query is case-insensitive and can be partial (e.g., "Tor" can match "Toronto").
      * @return An iterable list of {@link SuggestionDTO} objects containing the city name, latitude, longitude,
      *         and a population-based score. If no cities are found matching the query, the method returns an empty list.
      */
     @Override
     public Iterable<SuggestionDTO> getCitiesSuggestions(String query) {
-        List<String> cityNames = suggestionDAO.getCitiesStartingWithPrefixSortedByPopulation(query);
-
-        List<Long> cityPopulations = new ArrayList<>();
-        for (String city : cityNames) {
-            cityPopulations.add(suggestionDAO.getCityPopulation(city));
+        CityIndex cities = suggestionDAO.getCityIndex();
+        int[] cityIds = cities.getCityIdsMatchingWordsSortedByPopulation(query);
+        int maxEdits = cityIds.length == 0 ? getMaxEdits(query) : 0;
+        if (maxEdits > 0) {
+            cityIds = cities.getCityIdsStartingWithinEditsSortedByPopulation(query, this.exactLength, maxEdits, Integer.MAX_VALUE);
         }
+        return toPopulationSuggestions(cities, cityIds);
+    }
 
-        List<Double> scores = ScoreCalculator.maxNormalized(cityPopulations);
-
-        List<SuggestionDTO> suggestions = new ArrayList<>();
-        for (int i = 0; i < cityNames.size(); ++i) {
-            String city = cityNames.get(i);
-            SuggestionDTO dto = new SuggestionDTO();
-            dto.setName(city);
-            dto.setLatitude(suggestionDAO.getCityLatitude(city));
-            dto.setLongitude(suggestionDAO.getCityLongitude(city));
-            dto.setScore(scores.get(i));
-            suggestions.add(dto);
+    /**
+     * Retrieves at most {@code limit} city suggestions based on the search query, sorted by population in descending order.
+     *
+     * The scores are the same as the ones returned by {@link #getCitiesSuggestions(String)}: since the most populated
+     * city is always part of the returned cities, normalizing the returned populations gives the same result as
+     * normalizing the populations of every matching city.
+     *
+     * @param query The search query representing the words of the city names to search for.
+     * @param limit The maximum number of suggestions to return.
+     * @return An iterable list of at most {@code limit} {@link SuggestionDTO} objects containing the city name, latitude,
+     *         longitude, and a population-based score. If no cities are found matching the query, the method returns an empty list.
+     */
+    @Override
+    public Iterable<SuggestionDTO> getCitiesSuggestions(String query, int limit) {
+        CityIndex cities = suggestionDAO.getCityIndex();
+        int[] cityIds = cities.getCityIdsMatchingWordsSortedByPopulation(query, limit);
+        int maxEdits = cityIds.length == 0 ? getMaxEdits(query) : 0;
+        if (maxEdits > 0) {
+            cityIds = cities.getCityIdsStartingWithinEditsSortedByPopulation(query, this.exactLength, maxEdits, limit);
         }
-
-        return suggestions;
+        return toPopulationSuggestions(cities, cityIds);
     }
 
     /**
      * Retrieves a list of city suggestions based on the search query and geographical proximity.
      *
-     * This method finds all city names starting with the given query prefix and sorts them by their distance
-     * to the provided latitude and longitude coordinates. It calculates a normalized proximity score for each city
-     * (where closer cities have higher scores) and returns a list of {@link SuggestionDTO} objects containing the
-     * city name, latitude, longitude, and score.
+     * This method finds all cities whose names contain every word of the query and sorts them by their distance
+     * to the provided latitude and longitude coordinates. It reuses these distances to calculate a normalized
+     * proximity score for each city (where closer cities have higher scores) and returns a list of
+     * {@link SuggestionDTO} objects containing the city name, latitude, longitude, and score.
+     *
+     * If {@code geosuggest.blend.population-weight} is positive, the cities are ranked by a blend of their
+     * population and their proximity instead, weighted by this setting, so a large city a little farther away can
+     * rank before a small city nearby. Their proximity is then scored against {@code geosuggest.blend.distance-km}
+     * rather than against the farthest matching city (see {@link CityIndex#getBlendedCitiesMatchingWords}).
      *
-     * @param query     The search query representing the prefix of the city names to search for.
+     * @param query     The search query representing the words of the city names to search for.
      *                  The query is case-insensitive and can be partial (e.g., "Van" can match "Vancouver").
      * @param latitude  The latitude coordinate used to calculate the proximity of the cities.
      * @param longitude The longitude coordinate used to calculate the proximity of the cities.
@@ -68,26 +112,117 @@ public class SuggestionServiceImpl implements SuggestionService {
      */
     @Override
     public Iterable<SuggestionDTO> getCitiesSuggestions(String query, double latitude, double longitude) {
-        List<String> cityNames = suggestionDAO.getCitiesStartingWithPrefixNearest(query, latitude, longitude);
+        if (this.populationWeight > 0) {
+            return getBlendedSuggestions(query, latitude, longitude, Integer.MAX_VALUE);
+        }
+        CityIndex cities = suggestionDAO.getCityIndex();
+        NearestCities nearestCities = cities.getNearestCitiesMatchingWords(query, latitude, longitude);
+        int maxEdits = nearestCities.getCityIds().length == 0 ? getMaxEdits(query) : 0;
+        if (maxEdits > 0) {
+            nearestCities = cities.getNearestCitiesStartingWithinEdits(query, latitude, longitude,
+                    this.exactLength, maxEdits, Integer.MAX_VALUE);
+        }
+        return toProximitySuggestions(cities, nearestCities);
+    }
+
+    /**
+     * Retrieves at most {@code limit} city suggestions based on the search query and geographical proximity.
+     *
+     * The scores are the same as the ones returned by {@link #getCitiesSuggestions(String, double, double)}: the
+     * distances are normalized against the farthest matching city, even when it is not part of the returned cities.
+     * Blended rankings stop early, reading only as many of the matching cities as needed to find the best ones.
+     *
+     * @param query     The search query representing the words of the city names to search for.
+     * @param latitude  The latitude coordinate used to calculate the proximity of the cities.
+     * @param longitude The longitude coordinate used to calculate the proximity of the cities.
+     * @param limit     The maximum number of suggestions to return.
+     * @return An iterable list of at most {@code limit} {@link SuggestionDTO} objects containing the city name, latitude,
+     *         longitude, and a proximity-based score. The cities are sorted by proximity to the given coordinates.
+     *         If no cities are found matching the query, the method returns an empty list.
+     */
+    @Override
+    public Iterable<SuggestionDTO> getCitiesSuggestions(String query, double latitude, double longitude, int limit) {
+        if (this.populationWeight > 0) {
+            return getBlendedSuggestions(query, latitude, longitude, limit);
+        }
+        CityIndex cities = suggestionDAO.getCityIndex();
+        NearestCities nearestCities = cities.getNearestCitiesMatchingWords(query, latitude, longitude, limit);
+        int maxEdits = nearestCities.getCityIds().length == 0 ? getMaxEdits(query) : 0;
+        if (maxEdits > 0) {
+            nearestCities = cities.getNearestCitiesStartingWithinEdits(query, latitude, longitude,
+                    this.exactLength, maxEdits, limit);
+        }
+        return toProximitySuggestions(cities, nearestCities);
+    }
 
-        List<Double> cityDistances = new ArrayList<>();
-        for (String city : cityNames) {
-            cityDistances.add(suggestionDAO.getCityRelativeDistance(city, latitude, longitude));
+    // Ranks the cities matching the query by a blend of population and proximity, falling back the same way
+    private CitySuggestions getBlendedSuggestions(String query, double latitude, double longitude, int limit) {
+        CityIndex cities = suggestionDAO.getCityIndex();
+        BlendedCities blendedCities = cities.getBlendedCitiesMatchingWords(query, latitude, longitude,
+                this.populationWeight, this.distanceScale, limit);
+        int maxEdits = blendedCities.getCityIds().length == 0 ? getMaxEdits(query) : 0;
+        if (maxEdits > 0) {
+            blendedCities = cities.getBlendedCitiesStartingWithinEdits(query, latitude, longitude, this.exactLength,
+                    maxEdits, this.populationWeight, this.distanceScale, limit);
         }
+        return toSuggestions(cities, blendedCities.getCityIds(), blendedCities.getScores(), false);
+    }
+
+    // Ranks the given cities, sorted by population, by proximity or by the configured blend of population and
+    // proximity, as the cities matching a query are ranked
+    CitySuggestions rankByProximity(CityIndex cities, int[] cityIds, double latitude, double longitude, int limit) {
+        if (this.populationWeight > 0) {
+            BlendedCities blendedCities = cities.getBlendedCities(cityIds, latitude, longitude,
+                    this.populationWeight, this.distanceScale, limit);
+            return toSuggestions(cities, blendedCities.getCityIds(), blendedCities.getScores(), false);
+        }
+        return toProximitySuggestions(cities, cities.getNearestCities(cityIds, latitude, longitude, limit));
+    }
+
+    // Allows fewer edits to shorter queries, which would otherwise match almost every city: none up to 2
+    // characters, 1 up to 5 characters and 2 beyond, at most the configured number of edits; the characters are
+    // counted once normalized, as they are matched, so spaces and punctuation around the query do not count
+    private int getMaxEdits(String query) {
+        int length = NameNormalizer.normalize(query).length();
+        int edits = length < 3 ? 0 : length < 6 ? 1 : 2;
+        return Math.min(edits, this.maxEdits);
+    }
+
+    // Scores the given cities, already sorted by population, by their normalized population
+    static CitySuggestions toPopulationSuggestions(CityIndex cities, int[] cityIds) {
+        long start = System.nanoTime();
+        double[] cityPopulations = new double[cityIds.length];
+        for (int i = 0; i < cityIds.length; i++) {
+            cityPopulations[i] = cities.getCityPopulation(cityIds[i]);
+        }
+
+        double[] scores = ScoreCalculator.maxNormalized(cityPopulations);
+        SuggestionMetrics.record(SuggestionMetrics.SCORE, start);
+
+        return toSuggestions(cities, cityIds, scores, false);
+    }
+
+    // Scores the given cities, already sorted by proximity, by their normalized distance, reusing the ranking's distances
+    private static CitySuggestions toProximitySuggestions(CityIndex cities, NearestCities nearestCities) {
+        long start = System.nanoTime();
+        double[] scores = ScoreCalculator.maxNormalized(nearestCities.getDistances(), nearestCities.getMaxDistance());
+        SuggestionMetrics.record(SuggestionMetrics.SCORE, start);
+
+        return toSuggestions(cities, nearestCities.getCityIds(), scores, true);
+    }
 
-        List<Double> scores = ScoreCalculator.maxNormalized(cityDistances);
-
-        List<SuggestionDTO> suggestions = new ArrayList<>();
-        for (int i = 0; i < cityNames.size(); ++i) {
-            String city = cityNames.get(i);
-            SuggestionDTO dto = new SuggestionDTO();
-            dto.setName(city);
-            dto.setLatitude(suggestionDAO.getCityLatitude(city));
-            dto.setLongitude(suggestionDAO.getCityLongitude(city));
-            dto.setScore(1 - scores.get(i));
-            suggestions.add(dto);
+    // Builds the suggestions from the given cities and their normalized scores, inverting the scores if lower is better;
+    // the suggestions are backed by the columns of the index, so no object is built per city
+    private static CitySuggestions toSuggestions(CityIndex cities, int[] cityIds, double[] scores, boolean inverted) {
+        long start = System.nanoTime();
+        if (inverted) {
+            for (int i = 0; i < scores.length; i++) {
+                scores[i] = 1 - scores[i];
+            }
         }
+        CitySuggestions suggestions = new CitySuggestions(cities, cityIds, scores);
 
+        SuggestionMetrics.record(SuggestionMetrics.BUILD, start);
         return suggestions;
     }
 }
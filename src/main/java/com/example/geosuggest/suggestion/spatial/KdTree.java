@@ -0,0 +1,406 @@
+package com.example.geosuggest.suggestion.spatial;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+import java.util.function.IntToDoubleFunction;
+
+import static java.lang.Math.*;
+
+/**
+ * A k-d tree over points on the Earth's surface, used to find the points nearest to a location in best-first order.
+ *
+ * Points are stored as unit vectors, so distances are compared as straight-line (chord) distances through the
+ * sphere. The chord distance grows with the great-circle distance, which makes it a cheap stand-in for ranking
+ * that needs no trigonometry per comparison and does not wrap around at the antimeridian.
+ */
+public class KdTree {
+
+    private static final int LEAF_SIZE = 8; // The maximum number of points in a leaf
+
+    private final int[] pointIds; // The id of each point, in tree order
+    private final int[] positions; // The position of each point id in tree order
+    private final double[] coordinates; // The x, y and z coordinates of each point, in tree order
+
+    // The nodes of the tree; leaves have no children and cover the points from their start to their end
+    private int nodeCount;
+    private int[] starts;
+    private int[] ends;
+    private int[] lefts;
+    private int[] rights;
+    private double[] bounds; // The minimum and maximum x, y and z coordinates of each node
+
+    /**
+     * Builds a k-d tree over points identified by the ids from 0 to {@code size - 1}.
+     *
+     * @param size      The number of points
+     * @param latitude  The latitude of each point id, in decimal degrees
+     * @param longitude The longitude of each point id, in decimal degrees
+     */
+    public KdTree(int size, IntToDoubleFunction latitude, IntToDoubleFunction longitude) {
+        this.pointIds = new int[size];
+        this.positions = new int[size];
+        this.coordinates = new double[3 * size];
+
+        double[] unordered = new double[3 * size];
+        for (int id = 0; id < size; id++) {
+            this.pointIds[id] = id;
+            toUnitVector(latitude.applyAsDouble(id), longitude.applyAsDouble(id), unordered, 3 * id);
+        }
+
+        int capacity = Math.max(1, 2 * size / LEAF_SIZE + 1);
+        this.starts = new int[capacity];
+        this.ends = new int[capacity];
+        this.lefts = new int[capacity];
+        this.rights = new int[capacity];
+        this.bounds = new double[6 * capacity];
+        build(0, size, unordered);
+
+        for (int position = 0; position < size; position++) {
+            int id = this.pointIds[position];
+            this.positions[id] = position;
+            System.arraycopy(unordered, 3 * id, this.coordinates, 3 * position, 3);
+        }
+    }
+
+    /**
+     * Finds the points nearest to the given location among the points accepted by the filter.
+     *
+     * The tree is searched best-first: nodes are visited by increasing distance to their bounding box, so the
+     * search stops as soon as {@code limit} accepted points are found, without computing the distance to the
+     * remaining points.
+     *
+     * @param latitude  The latitude of the location, in decimal degrees
+     * @param longitude The longitude of the location, in decimal degrees
+     * @param limit     The maximum number of point ids to return
+     * @param filter    Accepts the ids of the points that may be returned
+     * @return At most {@code limit} accepted point ids, nearest first
+     */
+    public int[] nearest(double latitude, double longitude, int limit, IntPredicate filter) {
+        int[] result = new int[Math.min(limit, this.pointIds.length)];
+        int count = 0;
+        if (result.length == 0) {
+            return result;
+        }
+
+        Cursor cursor = cursor(latitude, longitude, filter);
+        int id;
+        while (count < result.length && (id = cursor.next()) >= 0) {
+            result[count++] = id;
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Starts a search of the points nearest to the given location among the points accepted by the filter, whose
+     * points are then taken one at a time, nearest first, for as long as the caller needs them.
+     *
+     * @param latitude  The latitude of the location, in decimal degrees
+     * @param longitude The longitude of the location, in decimal degrees
+     * @param filter    Accepts the ids of the points that may be returned
+     * @return The search, which visits no node before its first point is taken
+     * @see #nearest(double, double, int, IntPredicate)
+     */
+    public Cursor cursor(double latitude, double longitude, IntPredicate filter) {
+        return new Cursor(latitude, longitude, filter, false);
+    }
+
+    /**
+     * Finds the point farthest from the given location among the points accepted by the filter.
+     *
+     * The tree is searched best-first from the other side: nodes are visited by decreasing distance to the
+     * farthest corner of their bounding box, which bounds the distance to any of their points, so the first
+     * accepted point found is the farthest, without computing the distance to every accepted point.
+     *
+     * @param latitude  The latitude of the location, in decimal degrees
+     * @param longitude The longitude of the location, in decimal degrees
+     * @param filter    Accepts the ids of the points that may be returned
+     * @return The id of the farthest accepted point, or -1 if no point is accepted
+     */
+    public int farthest(double latitude, double longitude, IntPredicate filter) {
+        return new Cursor(latitude, longitude, filter, true).next();
+    }
+
+    /**
+     * A best-first search of the tree, returning the accepted points nearest first, or farthest first.
+     */
+    public final class Cursor {
+        private final double[] target = new double[3];
+        private final IntPredicate filter;
+        private final boolean farthestFirst;
+        // Nodes are queued by their index, points by their position encoded as a negative value; farthest first,
+        // they are queued by their negated distance
+        private final MinQueue queue = new MinQueue();
+
+        private Cursor(double latitude, double longitude, IntPredicate filter, boolean farthestFirst) {
+            toUnitVector(latitude, longitude, this.target, 0);
+            this.filter = filter;
+            this.farthestFirst = farthestFirst;
+            if (pointIds.length > 0) {
+                addNode(0);
+            }
+        }
+
+        /**
+         * Takes the next nearest accepted point.
+         *
+         * @return The id of the point, or -1 if every accepted point was taken
+         */
+        public int next() {
+            while (!this.queue.isEmpty()) {
+                int entry = this.queue.peekValue();
+                this.queue.poll();
+                if (entry < 0) {
+                    // A point comes out of the queue only once every closer point or node has been visited
+                    return pointIds[-entry - 1];
+                } else if (lefts[entry] < 0) {
+                    for (int position = starts[entry]; position < ends[entry]; position++) {
+                        if (this.filter.test(pointIds[position])) {
+                            double distance = pointDistance(position, this.target);
+                            this.queue.add(this.farthestFirst ? -distance : distance, -position - 1);
+                        }
+                    }
+                } else {
+                    addNode(lefts[entry]);
+                    addNode(rights[entry]);
+                }
+            }
+            return -1;
+        }
+
+        // Queues a node by the distance to its bounding box, nearest or farthest
+        private void addNode(int node) {
+            this.queue.add(this.farthestFirst ? -farthestBoxDistance(node, this.target)
+                    : boxDistance(node, this.target), node);
+        }
+    }
+
+    /**
+     * Finds the points nearest to the given location among the given point ids.
+     *
+     * This computes the distance to every candidate once and keeps the nearest ones in a bounded heap, which is
+     * faster than searching the tree when there are few candidates.
+     *
+     * @param latitude  The latitude of the location, in decimal degrees
+     * @param longitude The longitude of the location, in decimal degrees
+     * @param limit     The maximum number of point ids to return
+     * @param candidates The ids of the points that may be returned
+     * @return At most {@code limit} of the candidate ids, nearest first
+     */
+    public int[] nearest(double latitude, double longitude, int limit, int[] candidates) {
+        double[] target = new double[3];
+        toUnitVector(latitude, longitude, target, 0);
+
+        // Keep the nearest candidates in a queue ordered by decreasing distance, so the farthest is replaced first
+        MinQueue queue = new MinQueue();
+        for (int id : candidates) {
+            double distance = pointDistance(this.positions[id], target);
+            if (queue.size() < limit) {
+                queue.add(-distance, id);
+            } else if (limit > 0 && distance < -queue.peekKey()) {
+                queue.poll();
+                queue.add(-distance, id);
+            }
+        }
+
+        int[] result = new int[queue.size()];
+        for (int i = result.length - 1; i >= 0; i--) {
+            result[i] = queue.peekValue();
+            queue.poll();
+        }
+        return result;
+    }
+
+    // Helper method to build the subtree over the points from start to end, returning the index of its root node
+    private int build(int start, int end, double[] unordered) {
+        int node = this.nodeCount++;
+        if (node == this.starts.length) {
+            grow();
+        }
+        this.starts[node] = start;
+        this.ends[node] = end;
+
+        // Compute the bounding box of the points
+        double[] box = this.bounds;
+        int offset = 6 * node;
+        for (int axis = 0; axis < 3; axis++) {
+            box[offset + 2 * axis] = Double.POSITIVE_INFINITY;
+            box[offset + 2 * axis + 1] = Double.NEGATIVE_INFINITY;
+        }
+        for (int position = start; position < end; position++) {
+            int id = this.pointIds[position];
+            for (int axis = 0; axis < 3; axis++) {
+                double value = unordered[3 * id + axis];
+                box[offset + 2 * axis] = Math.min(box[offset + 2 * axis], value);
+                box[offset + 2 * axis + 1] = Math.max(box[offset + 2 * axis + 1], value);
+            }
+        }
+
+        if (end - start <= LEAF_SIZE) {
+            this.lefts[node] = -1;
+            this.rights[node] = -1;
+            return node;
+        }
+
+        // Split at the median of the axis along which the points are the most spread out
+        int splitAxis = 0;
+        for (int axis = 1; axis < 3; axis++) {
+            double spread = box[offset + 2 * axis + 1] - box[offset + 2 * axis];
+            if (spread > box[offset + 2 * splitAxis + 1] - box[offset + 2 * splitAxis]) {
+                splitAxis = axis;
+            }
+        }
+        int middle = (start + end) >>> 1;
+        select(start, end - 1, middle, splitAxis, unordered);
+
+        int left = build(start, middle, unordered);
+        int right = build(middle, end, unordered);
+        this.lefts[node] = left;
+        this.rights[node] = right;
+        return node;
+    }
+
+    // Helper method to partially sort the points so the k-th point is in place along the given axis (quickselect)
+    private void select(int low, int high, int k, int axis, double[] unordered) {
+        int[] ids = this.pointIds;
+        while (low < high) {
+            double pivot = unordered[3 * ids[(low + high) >>> 1] + axis];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (unordered[3 * ids[i] + axis] < pivot) {
+                    i++;
+                }
+                while (unordered[3 * ids[j] + axis] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int swap = ids[i];
+                    ids[i++] = ids[j];
+                    ids[j--] = swap;
+                }
+            }
+            if (k <= j) {
+                high = j;
+            } else if (k >= i) {
+                low = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    // Helper method to grow the node arrays
+    private void grow() {
+        int capacity = 2 * this.starts.length;
+        this.starts = Arrays.copyOf(this.starts, capacity);
+        this.ends = Arrays.copyOf(this.ends, capacity);
+        this.lefts = Arrays.copyOf(this.lefts, capacity);
+        this.rights = Arrays.copyOf(this.rights, capacity);
+        this.bounds = Arrays.copyOf(this.bounds, 6 * capacity);
+    }
+
+    // Computes the squared chord distance between the point at the given position and the target
+    private double pointDistance(int position, double[] target) {
+        double dx = this.coordinates[3 * position] - target[0];
+        double dy = this.coordinates[3 * position + 1] - target[1];
+        double dz = this.coordinates[3 * position + 2] - target[2];
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    // Computes the squared distance between the target and the nearest point of the node's bounding box
+    private double boxDistance(int node, double[] target) {
+        double distance = 0;
+        for (int axis = 0; axis < 3; axis++) {
+            double min = this.bounds[6 * node + 2 * axis];
+            double max = this.bounds[6 * node + 2 * axis + 1];
+            double delta = target[axis] < min ? min - target[axis] : target[axis] > max ? target[axis] - max : 0;
+            distance += delta * delta;
+        }
+        return distance;
+    }
+
+    // Computes the squared distance between the target and the farthest corner of the node's bounding box
+    private double farthestBoxDistance(int node, double[] target) {
+        double distance = 0;
+        for (int axis = 0; axis < 3; axis++) {
+            double delta = Math.max(target[axis] - this.bounds[6 * node + 2 * axis],
+                    this.bounds[6 * node + 2 * axis + 1] - target[axis]);
+            distance += delta * delta;
+        }
+        return distance;
+    }
+
+    // Converts decimal degrees into a unit vector, written at the given offset
+    private static void toUnitVector(double latitude, double longitude, double[] vector, int offset) {
+        double phi = toRadians(latitude);
+        double lambda = toRadians(longitude);
+        vector[offset] = cos(phi) * cos(lambda);
+        vector[offset + 1] = cos(phi) * sin(lambda);
+        vector[offset + 2] = sin(phi);
+    }
+
+    // A binary min-heap of int values ordered by double keys, without boxing
+    private static final class MinQueue {
+        private double[] keys = new double[16];
+        private int[] values = new int[16];
+        private int size;
+
+        int size() {
+            return this.size;
+        }
+
+        boolean isEmpty() {
+            return this.size == 0;
+        }
+
+        double peekKey() {
+            return this.keys[0];
+        }
+
+        int peekValue() {
+            return this.values[0];
+        }
+
+        void add(double key, int value) {
+            if (this.size == this.keys.length) {
+                this.keys = Arrays.copyOf(this.keys, 2 * this.size);
+                this.values = Arrays.copyOf(this.values, 2 * this.size);
+            }
+            // Sift the new entry up
+            int i = this.size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (this.keys[parent] <= key) {
+                    break;
+                }
+                this.keys[i] = this.keys[parent];
+                this.values[i] = this.values[parent];
+                i = parent;
+            }
+            this.keys[i] = key;
+            this.values[i] = value;
+        }
+
+        void poll() {
+            double key = this.keys[--this.size];
+            int value = this.values[this.size];
+            // Sift the last entry down from the top
+            int i = 0;
+            int half = this.size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < this.size && this.keys[child + 1] < this.keys[child]) {
+                    child++;
+                }
+                if (key <= this.keys[child]) {
+                    break;
+                }
+                this.keys[i] = this.keys[child];
+                this.values[i] = this.values[child];
+                i = child;
+            }
+            this.keys[i] = key;
+            this.values[i] = value;
+        }
+    }
+}
@@ -0,0 +1,443 @@
+package com.example.geosuggest.suggestion.token;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * An inverted index from the words (tokens) of names to the ids of the names containing them, so names can be
+ * found by any of their words and not only by their first characters.
+ *
+ * Names are split into tokens at spaces, so they are expected to be normalized first. The tokens are kept in a
+ * sorted array, each with its posting list: the ids of the names containing it, as a sorted array of distinct ints.
+ * A query is answered by intersecting the posting lists of its complete tokens, starting from the shortest, and
+ * keeping the ids that also contain a token starting with its last, possibly incomplete, token. Since the tokens
+ * are sorted, the tokens starting with it are a range of them, so when few ids are left, the tokens of each id,
+ * kept sorted by their index, are checked against this range instead of merging the posting lists of the range.
+ * Results are in ascending id order, so callers that number names by rank get them ranked without sorting.
+ */
+public class TokenIndex {
+
+    private static final int[] NO_IDS = new int[0];
+
+    private final String[] tokens; // The distinct tokens, sorted
+    private final int[][] postings; // The ids of the names containing each token, sorted, in the same order as the tokens
+    private final int idCount; // The number of ids, which range from 0 to this number, exclusive
+    private final int[] tokenOffsets; // Where the indexes of the tokens of each id start in tokensById, and end
+    private final int[] tokensById; // The indexes of the tokens of each id, sorted, one id after the other
+
+    // Constructor over tokens and posting lists that are already sorted, inverting the posting lists to find the
+    // tokens of each id
+    private TokenIndex(String[] tokens, int[][] postings, int idCount) {
+        this.tokens = tokens;
+        this.postings = postings;
+        this.idCount = idCount;
+
+        this.tokenOffsets = new int[idCount + 1];
+        for (int[] list : postings) {
+            for (int id : list) {
+                this.tokenOffsets[id + 1]++;
+            }
+        }
+        for (int id = 0; id < idCount; id++) {
+            this.tokenOffsets[id + 1] += this.tokenOffsets[id];
+        }
+        this.tokensById = new int[this.tokenOffsets[idCount]];
+        int[] next = Arrays.copyOf(this.tokenOffsets, idCount);
+        for (int token = 0; token < postings.length; token++) {
+            for (int id : postings[token]) {
+                this.tokensById[next[id]++] = token;
+            }
+        }
+    }
+
+    /**
+     * Collects the tokens of names and builds the index.
+     */
+    public static final class Builder {
+        private final Map<String, Postings> postings = new HashMap<>();
+
+        // The ids of the names containing a token, in the order they were added
+        private static final class Postings {
+            private int[] ids = new int[4];
+            private int size;
+        }
+
+        /**
+         * Adds the tokens of a name. A name may be added several times with the same id, such as the names a
+         * city is known by; its id is kept once per token.
+         *
+         * @param name The normalized name, whose tokens are separated by single spaces
+         * @param id   The non-negative id of the name
+         * @return This builder
+         */
+        public Builder add(String name, int id) {
+            int start = 0;
+            while (start < name.length()) {
+                int end = name.indexOf(' ', start);
+                if (end < 0) {
+                    end = name.length();
+                }
+                if (end > start) {
+                    Postings list = this.postings.computeIfAbsent(name.substring(start, end), token -> new Postings());
+                    if (list.size == list.ids.length) {
+                        list.ids = Arrays.copyOf(list.ids, 2 * list.size);
+                    }
+                    list.ids[list.size++] = id;
+                }
+                start = end + 1;
+            }
+            return this;
+        }
+
+        /**
+         * Builds the index, sorting the tokens and their posting lists.
+         *
+         * @param idCount The number of ids, which range from 0 to this number, exclusive
+         * @return The new index
+         */
+        public TokenIndex build(int idCount) {
+            String[] tokens = this.postings.keySet().toArray(new String[0]);
+            Arrays.sort(tokens);
+            int[][] postings = new int[tokens.length][];
+            for (int i = 0; i < tokens.length; i++) {
+                Postings list = this.postings.get(tokens[i]);
+                Arrays.sort(list.ids, 0, list.size);
+                // Drop the ids added more than once, which are next to each other once sorted
+                int size = 0;
+                for (int j = 0; j < list.size; j++) {
+                    if (size == 0 || list.ids[size - 1] != list.ids[j]) {
+                        list.ids[size++] = list.ids[j];
+                    }
+                }
+                postings[i] = Arrays.copyOf(list.ids, size);
+            }
+            return new TokenIndex(tokens, postings, idCount);
+        }
+    }
+
+    /**
+     * Retrieves the ids of the names containing every token of the query, the last one being a prefix of a token
+     * of the name (e.g., "york" and "new yo" both find "new york city"). The tokens may be in any order. A query
+     * ending with a space has no prefix: its last token must be complete too.
+     *
+     * @param query The normalized query, whose tokens are separated by single spaces
+     * @param limit The maximum number of ids to return
+     * @return At most {@code limit} ids of matching names, the lowest first
+     */
+    public int[] search(String query, int limit) {
+        return search(query, null, limit);
+    }
+
+    /**
+     * Retrieves the ids of the names containing every token of the query, reading them from the given candidates
+     * rather than from the posting lists when that is cheaper, such as when few names matched a query this one
+     * extends. The tokens of each candidate are then checked against the query, so the long posting lists of the
+     * query are not read at all.
+     *
+     * @param query      The normalized query, whose tokens are separated by single spaces
+     * @param candidates The sorted ids including every name matching the query, or null to read the posting lists
+     * @param limit      The maximum number of ids to return
+     * @return At most {@code limit} ids of matching names, the lowest first
+     * @see #search(String, int)
+     */
+    public int[] search(String query, int[] candidates, int limit) {
+        if (limit <= 0) {
+            return NO_IDS;
+        }
+
+        // Split the query into complete tokens and a prefix, looking up the index of each complete token
+        int[] complete = new int[query.length() / 2 + 1];
+        int completeCount = 0;
+        String prefix = null;
+        int start = 0;
+        while (start < query.length()) {
+            int end = query.indexOf(' ', start);
+            if (end < 0) {
+                prefix = query.substring(start);
+                break;
+            }
+            if (end > start) {
+                int index = Arrays.binarySearch(this.tokens, query.substring(start, end));
+                if (index < 0) {
+                    return NO_IDS;
+                }
+                complete[completeCount++] = index;
+            }
+            start = end + 1;
+        }
+
+        int low = 0;
+        int high = 0;
+        if (prefix != null) {
+            low = firstStartingWith(prefix);
+            high = firstAfter(prefix, low);
+            if (low == high) {
+                return NO_IDS;
+            }
+        }
+
+        // Each candidate is checked once per token of the query
+        int queryTokens = completeCount + (prefix != null ? 1 : 0);
+        if (candidates != null && queryTokens * scanCost(candidates.length) < readCost(complete, completeCount, low, high)) {
+            return scan(candidates, complete, completeCount, low, high, limit);
+        }
+
+        List<int[]> lists = new ArrayList<>(completeCount);
+        for (int i = 0; i < completeCount; i++) {
+            lists.add(this.postings[complete[i]]);
+        }
+        int[] ids = intersect(lists);
+        if (prefix == null) {
+            if (ids == null) {
+                // An empty query matches every name
+                int[] all = new int[Math.min(limit, this.idCount)];
+                Arrays.setAll(all, id -> id);
+                return all;
+            }
+            return ids.length > limit ? Arrays.copyOf(ids, limit) : ids;
+        }
+        if (ids == null) {
+            return union(low, high, limit);
+        }
+        return filter(ids, low, high, limit);
+    }
+
+    // Estimates the cost of reading the tokens of the given number of ids, each entry being cheap but read at
+    // random, unlike the entries of a posting list
+    private long scanCost(int ids) {
+        return 4L * ids * this.tokensById.length / Math.max(1, this.idCount);
+    }
+
+    // Estimates the cost of answering a query from the posting lists: copying the shortest posting list of its
+    // complete tokens, then filtering it by the tokens its prefix starts, or merging their posting lists if there
+    // is no complete token
+    private long readCost(int[] complete, int completeCount, int low, int high) {
+        long rangeCost = 0;
+        for (int i = low; i < high && rangeCost < this.tokensById.length; i++) {
+            rangeCost += this.postings[i].length;
+        }
+        if (completeCount == 0) {
+            return rangeCost;
+        }
+        int shortest = Integer.MAX_VALUE;
+        for (int i = 0; i < completeCount; i++) {
+            shortest = Math.min(shortest, this.postings[complete[i]].length);
+        }
+        return low == high ? shortest : shortest + Math.min(rangeCost, scanCost(shortest));
+    }
+
+    // Keeps the candidates having every complete token and a token from low to high, at most limit of them
+    private int[] scan(int[] candidates, int[] complete, int completeCount, int low, int high, int limit) {
+        int[] ids = new int[Math.min(limit, candidates.length)];
+        int size = 0;
+        for (int i = 0; i < candidates.length && size < ids.length; i++) {
+            int id = candidates[i];
+            boolean matches = low == high || hasTokenBetween(id, low, high);
+            for (int j = 0; j < completeCount && matches; j++) {
+                matches = hasTokenBetween(id, complete[j], complete[j] + 1);
+            }
+            if (matches) {
+                ids[size++] = id;
+            }
+        }
+        return size < ids.length ? Arrays.copyOf(ids, size) : ids;
+    }
+
+    // Intersects posting lists, starting from the shortest, returning null if there is none to intersect
+    private static int[] intersect(List<int[]> lists) {
+        if (lists.isEmpty()) {
+            return null;
+        }
+        lists.sort(Comparator.comparingInt(list -> list.length));
+        int[] result = lists.get(0).clone();
+        int size = result.length;
+        for (int i = 1; i < lists.size() && size > 0; i++) {
+            size = intersect(result, size, lists.get(i));
+        }
+        return size < result.length ? Arrays.copyOf(result, size) : result;
+    }
+
+    // Keeps the first size ids that are also in the given list, returning how many are kept; the ids are searched
+    // by galloping through the list, so a short list is intersected with a long one without reading all of it
+    private static int intersect(int[] ids, int size, int[] list) {
+        int kept = 0;
+        int position = 0;
+        for (int i = 0; i < size && position < list.length; i++) {
+            int id = ids[i];
+            // Double the step until the list goes past the id, then search the last step
+            int step = 1;
+            int bound = position;
+            while (bound < list.length && list[bound] < id) {
+                position = bound + 1;
+                bound += step;
+                step <<= 1;
+            }
+            int index = Arrays.binarySearch(list, position, Math.min(bound + 1, list.length), id);
+            if (index >= 0) {
+                ids[kept++] = id;
+                position = index + 1;
+            } else {
+                position = -index - 1;
+            }
+        }
+        return kept;
+    }
+
+    // Merges the posting lists of the tokens from low to high, keeping the lowest limit distinct ids
+    private int[] union(int low, int high, int limit) {
+        if (high - low == 1) {
+            int[] list = this.postings[low];
+            return Arrays.copyOf(list, Math.min(limit, list.length));
+        }
+        BitSet ids = new BitSet(this.idCount);
+        for (int i = low; i < high; i++) {
+            for (int id : this.postings[i]) {
+                ids.set(id);
+            }
+        }
+        int[] result = new int[Math.min(limit, ids.cardinality())];
+        int id = -1;
+        for (int i = 0; i < result.length; i++) {
+            id = ids.nextSetBit(id + 1);
+            result[i] = id;
+        }
+        return result;
+    }
+
+    // Keeps the candidates found in the posting list of a token from low to high, at most limit of them
+    private int[] filter(int[] candidates, int low, int high, int limit) {
+        // Reading the few tokens of each candidate is cheaper than merging long posting lists for few candidates
+        long mergeCost = 0;
+        for (int i = low; i < high && mergeCost < this.tokensById.length; i++) {
+            mergeCost += this.postings[i].length;
+        }
+        int size = 0;
+        if (scanCost(candidates.length) < mergeCost) {
+            for (int i = 0; i < candidates.length && size < limit; i++) {
+                if (hasTokenBetween(candidates[i], low, high)) {
+                    candidates[size++] = candidates[i];
+                }
+            }
+        } else {
+            BitSet ids = new BitSet(this.idCount);
+            for (int i = low; i < high; i++) {
+                for (int id : this.postings[i]) {
+                    ids.set(id);
+                }
+            }
+            for (int i = 0; i < candidates.length && size < limit; i++) {
+                if (ids.get(candidates[i])) {
+                    candidates[size++] = candidates[i];
+                }
+            }
+        }
+        return Arrays.copyOf(candidates, size);
+    }
+
+    // Tells if one of the tokens of an id has an index from low to high, exclusive
+    private boolean hasTokenBetween(int id, int low, int high) {
+        for (int i = this.tokenOffsets[id]; i < this.tokenOffsets[id + 1]; i++) {
+            int token = this.tokensById[i];
+            if (token >= low) {
+                return token < high;
+            }
+        }
+        return false;
+    }
+
+    // Finds the index of the first token starting with the prefix, or of the first token after it if none does
+    private int firstStartingWith(String prefix) {
+        int index = Arrays.binarySearch(this.tokens, prefix);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    // Finds the index of the first token from the given index that does not start with the prefix
+    private int firstAfter(String prefix, int from) {
+        int low = from;
+        int high = this.tokens.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.tokens[middle].startsWith(prefix)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Writes the index, so it can be restored by {@link #readFrom} without tokenizing the names again.
+     *
+     * @param out The output to write to
+     * @throws IOException if an error occurs while writing
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(this.idCount);
+        out.writeInt(this.tokens.length);
+        for (int i = 0; i < this.tokens.length; i++) {
+            out.writeInt(this.tokens[i].length());
+            out.writeChars(this.tokens[i]);
+            out.writeInt(this.postings[i].length);
+            for (int id : this.postings[i]) {
+                out.writeInt(id);
+            }
+        }
+    }
+
+    /**
+     * Reads an index written by {@link #writeTo}, starting at the current position of the buffer and leaving the
+     * buffer positioned after it.
+     *
+     * @param buffer The buffer to read from, in big-endian order
+     * @return The restored index
+     */
+    public static TokenIndex readFrom(ByteBuffer buffer) {
+        int idCount = buffer.getInt();
+        int tokenCount = buffer.getInt();
+        String[] tokens = new String[tokenCount];
+        int[][] postings = new int[tokenCount][];
+        for (int i = 0; i < tokenCount; i++) {
+            char[] token = new char[buffer.getInt()];
+            buffer.asCharBuffer().get(token);
+            buffer.position(buffer.position() + 2 * token.length);
+            tokens[i] = new String(token);
+
+            postings[i] = new int[buffer.getInt()];
+            buffer.asIntBuffer().get(postings[i]);
+            buffer.position(buffer.position() + 4 * postings[i].length);
+        }
+        return new TokenIndex(tokens, postings, idCount);
+    }
+
+    /**
+     * Counts the distinct tokens of the index.
+     *
+     * @return The number of tokens
+     */
+    public int getTokenCount() {
+        return this.tokens.length;
+    }
+
+    /**
+     * Estimates the number of bytes retained by the index, assuming compressed object pointers.
+     *
+     * @return The estimated number of bytes retained by the tokens and their posting lists
+     */
+    public long getEstimatedBytes() {
+        long bytes = arrayBytes(this.tokens.length, 4) + arrayBytes(this.postings.length, 4);
+        for (int i = 0; i < this.tokens.length; i++) {
+            // The string object and its bytes, assuming compact Latin-1 strings
+            bytes += 24 + arrayBytes(this.tokens[i].length(), 1);
+            bytes += arrayBytes(this.postings[i].length, 4);
+        }
+        return bytes + arrayBytes(this.tokenOffsets.length, 4) + arrayBytes(this.tokensById.length, 4);
+    }
+
+    // Estimates the bytes of an array, padded to 8 bytes
+    private static long arrayBytes(int length, int elementBytes) {
+        return (16 + (long) length * elementBytes + 7) & ~7L;
+    }
+}
@@ -0,0 +1,415 @@
+package com.example.geosuggest.suggestion.trie;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import static java.lang.foreign.ValueLayout.JAVA_CHAR;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+
+/**
+ * A read-only {@link Trie} whose nodes and edge labels are stored outside of the heap, so however many words it
+ * holds, it keeps a handful of objects on the heap and nothing for the garbage collector to trace.
+ *
+ * Each node is a record of ints in a single {@link MemorySegment}: where its label starts in the segment of the
+ * labels and its length, where its children start and their number, its id, and whether a word ends at it. The
+ * children of a node are consecutive records sorted by the first character of their label, so they are searched
+ * by binary search as the keys of a {@link Trie} are.
+ *
+ * The memory is allocated from an automatic {@link Arena}, so it is freed once the trie is no longer reachable,
+ * as the arrays of a {@link Trie} would be, and searches still running against a replaced trie never see it
+ * freed.
+ */
+public final class OffHeapTrie implements PrefixIndex {
+
+    // The ints of a node record
+    private static final int LABEL_START = 0;
+    private static final int LABEL_LENGTH = 1;
+    private static final int FIRST_CHILD = 2;
+    private static final int CHILD_COUNT = 3;
+    private static final int ID = 4;
+    private static final int WORD = 5;
+    private static final int NODE_INTS = 6;
+
+    private static final int ROOT = 0;
+
+    private final MemorySegment nodes; // The records of the nodes, the root first
+    private final MemorySegment labels; // The characters of the edges leading to the nodes
+    private final long nodeCount;
+
+    private OffHeapTrie(MemorySegment nodes, MemorySegment labels, long nodeCount) {
+        this.nodes = nodes;
+        this.labels = labels;
+        this.nodeCount = nodeCount;
+    }
+
+    /**
+     * Copies a trie outside of the heap. The trie is copied through the format of {@link Trie#writeTo}, so the
+     * copy is built without walking the nodes of the trie twice.
+     *
+     * @param trie The trie to copy
+     * @return The copy of the trie
+     */
+    public static OffHeapTrie copyOf(Trie trie) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            trie.writeTo(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return readFrom(ByteBuffer.wrap(bytes.toByteArray()));
+    }
+
+    /**
+     * Reads a trie written by {@link PrefixIndex#writeTo} directly outside of the heap, starting at the current
+     * position of the buffer and leaving the buffer positioned after it. The buffer is read twice: once to size
+     * the segments, and once to fill them, so no node is ever built on the heap.
+     *
+     * @param buffer The buffer to read from, in big-endian order
+     * @return The restored trie
+     * @throws IllegalArgumentException if the buffer holds negative lengths or counts
+     */
+    public static OffHeapTrie readFrom(ByteBuffer buffer) {
+        int start = buffer.position();
+
+        long[] counts = new long[2]; // The number of nodes and of label characters
+        countNode(buffer, counts);
+        buffer.position(start);
+
+        Arena arena = Arena.ofAuto();
+        Reader reader = new Reader(buffer,
+                arena.allocate(4L * NODE_INTS * counts[0], 4),
+                arena.allocate(2L * counts[1], 2));
+        reader.nextNode = 1;
+        reader.readNode(ROOT);
+        return new OffHeapTrie(reader.nodes, reader.labels, counts[0]);
+    }
+
+    // Helper method to count the nodes and label characters of a node and its subtree, moving the buffer past them
+    private static void countNode(ByteBuffer buffer, long[] counts) {
+        int labelLength = checkCount(buffer.getInt());
+        buffer.position(buffer.position() + 2 * labelLength + 1 + 4);
+        counts[0]++;
+        counts[1] += labelLength;
+
+        int childCount = checkCount(buffer.getInt());
+        for (int i = 0; i < childCount; i++) {
+            countNode(buffer, counts);
+        }
+    }
+
+    private static int checkCount(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Negative length: " + count);
+        }
+        return count;
+    }
+
+    /**
+     * Fills the segments of a trie from its written nodes, giving each node the index of the next record and
+     * reserving the records of its children together.
+     */
+    private static final class Reader {
+        private final ByteBuffer buffer;
+        private final MemorySegment nodes;
+        private final MemorySegment labels;
+        private int nextNode;
+        private long nextLabel;
+
+        Reader(ByteBuffer buffer, MemorySegment nodes, MemorySegment labels) {
+            this.buffer = buffer;
+            this.nodes = nodes;
+            this.labels = labels;
+        }
+
+        // Reads a node and its subtree into the record of the given index
+        void readNode(int node) {
+            int labelLength = this.buffer.getInt();
+            set(node, LABEL_START, (int) this.nextLabel);
+            set(node, LABEL_LENGTH, labelLength);
+            for (int i = 0; i < labelLength; i++) {
+                this.labels.setAtIndex(JAVA_CHAR, this.nextLabel++, this.buffer.getChar());
+            }
+            set(node, WORD, this.buffer.get() != 0 ? 1 : 0);
+            set(node, ID, this.buffer.getInt());
+
+            int childCount = this.buffer.getInt();
+            int firstChild = this.nextNode;
+            this.nextNode += childCount;
+            set(node, FIRST_CHILD, firstChild);
+            set(node, CHILD_COUNT, childCount);
+            for (int i = 0; i < childCount; i++) {
+                readNode(firstChild + i);
+            }
+        }
+
+        private void set(int node, int field, int value) {
+            this.nodes.setAtIndex(JAVA_INT, (long) node * NODE_INTS + field, value);
+        }
+    }
+
+    @Override
+    public int getId(String word) {
+        int current = ROOT;
+        int i = 0;
+        // Unlike a prefix, the word must not end inside a label
+        while (i < word.length()) {
+            current = findChild(current, word.charAt(i));
+            if (current < 0) {
+                return -1;
+            }
+            int labelLength = get(current, LABEL_LENGTH);
+            if (commonPrefixLength(current, word, i) < labelLength) {
+                return -1;
+            }
+            i += labelLength;
+        }
+        return get(current, WORD) != 0 ? get(current, ID) : -1;
+    }
+
+    @Override
+    public int[] getIdsStartingWith(String prefix) {
+        int current = findNode(prefix);
+        if (current < 0) {
+            return new int[0];
+        }
+        int[] ids = new int[countIds(current)];
+        int size = collectIds(current, ids, 0);
+        return removeDuplicates(ids, size);
+    }
+
+    @Override
+    public int[] getIdsStartingWithin(String prefix, int exactLength, int maxDistance) {
+        FuzzySearch search = new FuzzySearch(prefix, Math.min(exactLength, prefix.length()), maxDistance);
+        // The empty path is as far from the prefix as the prefix is long
+        if (exactLength == 0 && search.rows[0][prefix.length()] <= maxDistance) {
+            return getIdsStartingWith("");
+        }
+        search.searchChildren(ROOT, 0);
+        return removeDuplicates(search.ids, search.size);
+    }
+
+    @Override
+    public void writeTo(DataOutput out) throws IOException {
+        writeNode(ROOT, out);
+    }
+
+    // Helper method to write a node and its subtree as Trie#writeTo does
+    private void writeNode(int node, DataOutput out) throws IOException {
+        int labelStart = get(node, LABEL_START);
+        int labelLength = get(node, LABEL_LENGTH);
+        out.writeInt(labelLength);
+        for (int i = 0; i < labelLength; i++) {
+            out.writeChar(this.labels.getAtIndex(JAVA_CHAR, labelStart + i));
+        }
+        out.writeBoolean(get(node, WORD) != 0);
+        out.writeInt(get(node, ID));
+        int firstChild = get(node, FIRST_CHILD);
+        int childCount = get(node, CHILD_COUNT);
+        out.writeInt(childCount);
+        for (int i = 0; i < childCount; i++) {
+            writeNode(firstChild + i, out);
+        }
+    }
+
+    @Override
+    public long getNodeCount() {
+        return this.nodeCount;
+    }
+
+    /**
+     * Counts the bytes of the segments of the trie, all outside of the heap.
+     *
+     * @return The number of bytes allocated for the nodes and their edges
+     */
+    @Override
+    public long getEstimatedBytes() {
+        return this.nodes.byteSize() + this.labels.byteSize();
+    }
+
+    private int get(int node, int field) {
+        return this.nodes.getAtIndex(JAVA_INT, (long) node * NODE_INTS + field);
+    }
+
+    // Helper method to find the child of a node whose label starts with the given character, or -1 if there is none
+    private int findChild(int node, char c) {
+        int low = get(node, FIRST_CHILD);
+        int high = low + get(node, CHILD_COUNT) - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            char key = this.labels.getAtIndex(JAVA_CHAR, get(middle, LABEL_START));
+            if (key < c) {
+                low = middle + 1;
+            } else if (key > c) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    // Helper method to count the characters the label of a node shares with the word, starting at the given offset
+    private int commonPrefixLength(int node, String word, int offset) {
+        int labelStart = get(node, LABEL_START);
+        int length = Math.min(get(node, LABEL_LENGTH), word.length() - offset);
+        int i = 0;
+        while (i < length && this.labels.getAtIndex(JAVA_CHAR, labelStart + i) == word.charAt(offset + i)) {
+            i++;
+        }
+        return i;
+    }
+
+    // Helper method to walk down the trie along the prefix, returning -1 if no word starts with it
+    private int findNode(String prefix) {
+        int current = ROOT;
+        int i = 0;
+        while (i < prefix.length()) {
+            current = findChild(current, prefix.charAt(i));
+            if (current < 0) {
+                return -1;
+            }
+            // The prefix may end inside the label, in which case every word below the node still matches
+            int common = commonPrefixLength(current, prefix, i);
+            if (common < get(current, LABEL_LENGTH) && i + common < prefix.length()) {
+                return -1;
+            }
+            i += common;
+        }
+        return current;
+    }
+
+    // Helper method to count the ids starting from a given node
+    private int countIds(int node) {
+        int count = get(node, ID) >= 0 ? 1 : 0;
+        int firstChild = get(node, FIRST_CHILD);
+        int childCount = get(node, CHILD_COUNT);
+        for (int i = 0; i < childCount; i++) {
+            count += countIds(firstChild + i);
+        }
+        return count;
+    }
+
+    // Helper method to collect the ids starting from a given node, returning the number of ids collected so far
+    private int collectIds(int node, int[] ids, int count) {
+        int id = get(node, ID);
+        if (id >= 0) {
+            ids[count++] = id;
+        }
+        int firstChild = get(node, FIRST_CHILD);
+        int childCount = get(node, CHILD_COUNT);
+        for (int i = 0; i < childCount; i++) {
+            count = collectIds(firstChild + i, ids, count);
+        }
+        return count;
+    }
+
+    // Helper method to drop the repeated ids among the first size ids, returning the distinct ids in a new array
+    private static int[] removeDuplicates(int[] ids, int size) {
+        BitSet seen = new BitSet();
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (!seen.get(ids[i])) {
+                seen.set(ids[i]);
+                ids[count++] = ids[i];
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * The state of a search for the words starting within an edit distance of a prefix, as in {@link Trie}: one
+     * row of the edit distance table per character of the current path, and the ids collected so far.
+     */
+    private final class FuzzySearch {
+        private final char[] prefix;
+        private final int exactLength;
+        private final int maxDistance;
+        private int[][] rows; // rows[d][j] is the edit distance between the first d characters of the path and of the prefix
+        private int[] ids = new int[16];
+        private int size;
+
+        FuzzySearch(String prefix, int exactLength, int maxDistance) {
+            this.prefix = prefix.toCharArray();
+            this.exactLength = exactLength;
+            this.maxDistance = maxDistance;
+            this.rows = new int[16][prefix.length() + 1];
+            for (int j = 0; j <= prefix.length(); j++) {
+                this.rows[0][j] = j;
+            }
+        }
+
+        // Searches the children of a node reached through a path of the given length
+        void searchChildren(int node, int depth) {
+            int firstChild = get(node, FIRST_CHILD);
+            int childCount = get(node, CHILD_COUNT);
+            for (int i = 0; i < childCount; i++) {
+                search(firstChild + i, depth);
+            }
+        }
+
+        // Extends the path with the label of the child, one character at a time
+        private void search(int child, int depth) {
+            int n = this.prefix.length;
+            int k = this.maxDistance;
+            int labelStart = get(child, LABEL_START);
+            int labelLength = get(child, LABEL_LENGTH);
+            for (int l = 0; l < labelLength; l++) {
+                char c = labels.getAtIndex(JAVA_CHAR, labelStart + l);
+                if (depth < this.exactLength && c != this.prefix[depth]) {
+                    return;
+                }
+                if (depth + 1 == this.rows.length) {
+                    this.rows = Arrays.copyOf(this.rows, 2 * this.rows.length);
+                }
+                if (this.rows[depth + 1] == null) {
+                    this.rows[depth + 1] = new int[n + 1];
+                }
+                int[] previous = this.rows[depth];
+                int[] row = this.rows[++depth];
+
+                // Only the entries within k of the diagonal can be within the distance
+                int low = Math.max(1, depth - k);
+                int high = Math.min(n, depth + k);
+                row[0] = depth;
+                row[low - 1] = low == 1 ? depth : k + 1;
+                int min = row[low - 1];
+                for (int j = low; j <= high; j++) {
+                    int substitution = previous[j - 1] + (this.prefix[j - 1] == c ? 0 : 1);
+                    row[j] = Math.min(substitution, Math.min(previous[j], row[j - 1]) + 1);
+                    min = Math.min(min, row[j]);
+                }
+                if (high < n) {
+                    row[high + 1] = k + 1;
+                }
+
+                // The whole prefix is matched: every word below starts within the distance
+                if (high == n && row[n] <= k && depth >= this.exactLength) {
+                    addIds(child);
+                    return;
+                }
+                // No extension of the path can get back within the distance
+                if (min > k) {
+                    return;
+                }
+            }
+            searchChildren(child, depth);
+        }
+
+        // Adds the ids of every word in the subtree of a node
+        private void addIds(int node) {
+            int count = countIds(node);
+            if (this.size + count > this.ids.length) {
+                this.ids = Arrays.copyOf(this.ids, Math.max(2 * this.ids.length, this.size + count));
+            }
+            this.size = collectIds(node, this.ids, this.size);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.geosuggest.suggestion.trie;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The searches of a built trie, whether its nodes are objects on the heap ({@link Trie}) or records in memory
+ * outside of the heap ({@link OffHeapTrie}). Both answer every search the same way and write the same format, so
+ * either can be restored from what the other wrote.
+ */
+public interface PrefixIndex {
+
+    /**
+     * Retrieves the id of a word inserted in the trie.
+     *
+     * @param word The word to look up
+     * @return The id of the word, or -1 if the word was not inserted or has no id
+     */
+    int getId(String word);
+
+    /**
+     * Retrieves the ids of all words in the trie that start with the given prefix, skipping words without an id.
+     *
+     * @param prefix The prefix to search for
+     * @return The distinct ids of the words that start with the prefix, in no particular order
+     */
+    int[] getIdsStartingWith(String prefix);
+
+    /**
+     * Retrieves the ids of all words in the trie that start with a prefix within the given edit distance of the
+     * given prefix, skipping words without an id.
+     *
+     * @param prefix      The prefix to search for, possibly misspelled
+     * @param exactLength The number of characters at the start of the prefix that must match exactly
+     * @param maxDistance The maximum number of edits between the prefix and the start of a matching word
+     * @return The distinct ids of the matching words, in no particular order
+     */
+    int[] getIdsStartingWithin(String prefix, int exactLength, int maxDistance);
+
+    /**
+     * Writes the trie so it can be restored by {@link Trie#readFrom} or {@link OffHeapTrie#readFrom}.
+     *
+     * @param out The output to write to
+     * @throws IOException if an error occurs while writing
+     */
+    void writeTo(DataOutput out) throws IOException;
+
+    /**
+     * Counts the nodes of the trie.
+     *
+     * @return The number of nodes, including the root
+     */
+    long getNodeCount();
+
+    /**
+     * Estimates the number of bytes retained by the trie.
+     *
+     * @return The estimated number of bytes retained by the nodes and their edges
+     */
+    long getEstimatedBytes();
+}
@@ -1,16 +1,43 @@
 package com.example.geosuggest.suggestion.trie;
 
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
-public class Trie {
+/**
+ * A path-compressed radix tree. Each node is reached through an edge labelled with one or more characters,
+ * and keeps its children in arrays sorted by the first character of their label, so chains of nodes with a
+ * single child are merged into one node and no character is boxed.
+ *
+ * Several words may be inserted with the same id, such as the names a city is known by, so a word is found
+ * through any of them; searches by id return each id once.
+ *
+ * Once built, a trie can be copied outside of the heap as an {@link OffHeapTrie}, which answers the same searches.
+ */
+public class Trie implements PrefixIndex {
 
-    private Map<Character, Trie> children; // To store child nodes
-    private boolean isWord; // Flag to mark if the node corresponds to the end of a word
+    private static final char[] NO_CHARS = new char[0];
+    private static final Trie[] NO_CHILDREN = new Trie[0];
+
+    private char[] label; // The characters of the edge leading to this node
+    private char[] keys; // The first character of each child's label, sorted
+    private Trie[] children; // To store child nodes, in the same order as their keys
+    private boolean word; // Whether a word ends at this node; words are not stored, as they are the path to their node
+    private int id; // The id of the word ending at this node, or -1 if the word has no id
 
     // Constructor
     public Trie() {
-        this.children = new HashMap<>();
-        this.isWord = false;
+        this(NO_CHARS);
+    }
+
+    // Constructor for a node reached through the given edge label
+    private Trie(char[] label) {
+        this.label = label;
+        this.keys = NO_CHARS;
+        this.children = NO_CHILDREN;
+        this.word = false;
+        this.id = -1;
     }
 
     /**
@@ -19,15 +46,72 @@ public class Trie {
      * @param word     The word to insert
      */
     public void insert(String word) {
+        insert(word, -1);
+    }
+
+    /**
+     * Inserts a word into the trie along with the id it is known by, so it can be found by {@link #getId} and
+     * {@link #getIdsStartingWith}. Other words may be inserted with the same id.
+     *
+     * @param word     The word to insert
+     * @param id       The non-negative id of the word, or -1 if the word has no id
+     */
+    public void insert(String word, int id) {
         Trie current = this; // Start from the root of the trie
-        for (char c : word.toCharArray()) { // Iterate over each character in the word
-            // If the character is not in the current node's children, create a new node
-            current.children.putIfAbsent(c, new Trie());
+        int i = 0;
+        while (i < word.length()) {
+            int index = Arrays.binarySearch(current.keys, word.charAt(i));
+            // If no child starts with the character, the rest of the word becomes a new leaf
+            if (index < 0) {
+                Trie leaf = new Trie(word.substring(i).toCharArray());
+                current.addChild(-index - 1, leaf);
+                current = leaf;
+                break;
+            }
+
+            Trie child = current.children[index];
+            int common = commonPrefixLength(child.label, word, i);
+            // If the word diverges inside the child's label, split the label
+            if (common < child.label.length) {
+                Trie split = new Trie(Arrays.copyOf(child.label, common));
+                child.label = Arrays.copyOfRange(child.label, common, child.label.length);
+                split.keys = new char[] { child.label[0] };
+                split.children = new Trie[] { child };
+                current.children[index] = split;
+                child = split;
+            }
             // Move to the next node
-            current = current.children.get(c);
+            current = child;
+            i += common;
         }
         // Mark the end of the word
-        current.isWord = true;
+        current.word = true;
+        current.id = id;
+    }
+
+    /**
+     * Retrieves the id of a word inserted in the trie.
+     *
+     * @param word The word to look up
+     * @return The id of the word, or -1 if the word was not inserted or has no id
+     */
+    @Override
+    public int getId(String word) {
+        Trie current = this;
+        int i = 0;
+        // Unlike a prefix, the word must not end inside a label
+        while (i < word.length()) {
+            int index = Arrays.binarySearch(current.keys, word.charAt(i));
+            if (index < 0) {
+                return -1;
+            }
+            current = current.children[index];
+            if (commonPrefixLength(current.label, word, i) < current.label.length) {
+                return -1;
+            }
+            i += current.label.length;
+        }
+        return current.word ? current.id : -1;
     }
 
     /**
@@ -37,31 +121,396 @@ public class Trie {
      * @return A list of words that start with the prefix
      */
     public List<String> getLettersStartingWith(String prefix) {
-        Trie current = this;
-        // Traverse down the trie based on the prefix
-        for (char c : prefix.toCharArray()) {
-            // If the character is not in the current node, return an empty list (no match)
-            if (!current.children.containsKey(c)) {
-                return Collections.emptyList();
-            }
-            current = current.children.get(c);
+        StringBuilder path = new StringBuilder();
+        Trie current = findNode(prefix, path);
+        if (current == null) {
+            return Collections.emptyList();
         }
         // Collect all words starting from this node
         List<String> result = new ArrayList<>();
-        collectAllWords(current, new StringBuilder(prefix), result);
+        collectAllWords(current, path, result);
         return result;
     }
 
-    // Helper method to collect all words starting from a given node
-    private void collectAllWords(Trie node, StringBuilder prefix, List<String> result) {
-        if (node.isWord) {
-            result.add(prefix.toString());
+    /**
+     * Retrieves the ids of all words in the trie that start with the given prefix, skipping words without an id.
+     *
+     * @param prefix The prefix to search for
+     * @return The distinct ids of the words that start with the prefix, in no particular order
+     */
+    @Override
+    public int[] getIdsStartingWith(String prefix) {
+        Trie current = findNode(prefix);
+        if (current == null) {
+            return new int[0];
+        }
+        int[] ids = new int[countIds(current)];
+        int size = collectIds(current, ids, 0);
+        return removeDuplicates(ids, size);
+    }
+
+    /**
+     * Retrieves the ids of all words in the trie that start with a prefix within the given edit distance of the
+     * given prefix, skipping words without an id. The edit distance is the Levenshtein distance: the number of
+     * characters to insert, delete or substitute to turn one string into the other.
+     *
+     * The trie is walked depth-first, one character at a time, keeping the row of the edit distance table between
+     * the prefix and the characters along the path, as a Levenshtein automaton does. A subtree is skipped as soon
+     * as every entry of the row exceeds the maximum distance, since longer paths can only be farther, and its ids
+     * are collected without further computation as soon as the path is within the maximum distance of the whole
+     * prefix. Only the paths close to the prefix are walked, not every word of the trie.
+     *
+     * Near the root, every path is within the distance of the prefix, so most of the walk is spent there.
+     * Requiring the first characters of the prefix to match exactly, as misspellings rarely start at the first
+     * character, skips all other subtrees of the root.
+     *
+     * @param prefix      The prefix to search for, possibly misspelled
+     * @param exactLength The number of characters at the start of the prefix that must match exactly
+     * @param maxDistance The maximum number of edits between the prefix and the start of a matching word
+     * @return The distinct ids of the matching words, in no particular order
+     */
+    @Override
+    public int[] getIdsStartingWithin(String prefix, int exactLength, int maxDistance) {
+        FuzzySearch search = new FuzzySearch(prefix, Math.min(exactLength, prefix.length()), maxDistance);
+        // The empty path is as far from the prefix as the prefix is long
+        if (exactLength == 0 && search.rows[0][prefix.length()] <= maxDistance) {
+            return getIdsStartingWith("");
+        }
+        search.searchChildren(this, 0);
+        return removeDuplicates(search.ids, search.size);
+    }
+
+    /**
+     * Retrieves the best words in the trie that start with the given prefix, according to the given order.
+     *
+     * Only a bounded heap of at most {@code limit} candidates is kept while the subtree is walked, so the
+     * full list of completions is never built and never sorted.
+     *
+     * @param prefix The prefix to search for
+     * @param limit  The maximum number of words to return
+     * @param order  The order in which words are ranked; the first words in this order are returned
+     * @return At most {@code limit} words that start with the prefix, sorted by the given order
+     */
+    public List<String> getTopLettersStartingWith(String prefix, int limit, Comparator<String> order) {
+        StringBuilder path = new StringBuilder();
+        Trie current = findNode(prefix, path);
+        if (current == null || limit <= 0) {
+            return Collections.emptyList();
+        }
+        // The head of the heap is the worst word kept so far
+        PriorityQueue<String> heap = new PriorityQueue<>(limit, order.reversed());
+        collectTopWords(current, path, limit, order, heap);
+
+        List<String> result = new ArrayList<>(heap);
+        result.sort(order);
+        return result;
+    }
+
+    /**
+     * Writes the trie so it can be restored by {@link #readFrom} without inserting the words again. Nodes are
+     * written depth-first, each with its label, its id and then its children; words are not written since they
+     * are the path to their node.
+     *
+     * @param out The output to write to
+     * @throws IOException if an error occurs while writing
+     */
+    @Override
+    public void writeTo(DataOutput out) throws IOException {
+        writeNode(this, out);
+    }
+
+    /**
+     * Reads a trie written by {@link #writeTo}, starting at the current position of the buffer and leaving the
+     * buffer positioned after it.
+     *
+     * @param buffer The buffer to read from, in big-endian order
+     * @return The restored trie
+     */
+    public static Trie readFrom(ByteBuffer buffer) {
+        return readNode(buffer);
+    }
+
+    // Helper method to write a node and its subtree
+    private static void writeNode(Trie node, DataOutput out) throws IOException {
+        out.writeInt(node.label.length);
+        out.writeChars(new String(node.label));
+        out.writeBoolean(node.word);
+        out.writeInt(node.id);
+        out.writeInt(node.children.length);
+        for (Trie child : node.children) {
+            writeNode(child, out);
+        }
+    }
+
+    // Helper method to read a node and its subtree
+    private static Trie readNode(ByteBuffer buffer) {
+        char[] label = new char[buffer.getInt()];
+        buffer.asCharBuffer().get(label);
+        buffer.position(buffer.position() + 2 * label.length);
+
+        Trie node = new Trie(label);
+        node.word = buffer.get() != 0;
+        node.id = buffer.getInt();
+
+        int childCount = buffer.getInt();
+        if (childCount > 0) {
+            node.keys = new char[childCount];
+            node.children = new Trie[childCount];
+            for (int i = 0; i < childCount; i++) {
+                node.children[i] = readNode(buffer);
+                node.keys[i] = node.children[i].label[0];
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Counts the nodes of the trie.
+     *
+     * @return The number of nodes, including the root
+     */
+    @Override
+    public long getNodeCount() {
+        long count = 1;
+        for (Trie child : this.children) {
+            count += child.getNodeCount();
+        }
+        return count;
+    }
+
+    /**
+     * Estimates the number of bytes retained by the trie, assuming compressed object pointers.
+     *
+     * @return The estimated number of bytes retained by the nodes and their edges
+     */
+    @Override
+    public long getEstimatedBytes() {
+        return estimateBytes(this);
+    }
+
+    // Helper method to estimate the bytes retained by a node and its subtree
+    private static long estimateBytes(Trie node) {
+        // Object header, three references, an int and a boolean, padded to 8 bytes
+        long bytes = 12 + 3 * 4 + 4 + 4;
+        bytes += arrayBytes(node.label.length, 2);
+        bytes += arrayBytes(node.keys.length, 2);
+        bytes += arrayBytes(node.children.length, 4);
+        for (Trie child : node.children) {
+            bytes += estimateBytes(child);
+        }
+        return bytes;
+    }
+
+    // Estimates the bytes of an array, padded to 8 bytes
+    private static long arrayBytes(int length, int elementBytes) {
+        return (16 + (long) length * elementBytes + 7) & ~7L;
+    }
+
+    // Helper method to insert a child at the given position, keeping the keys sorted
+    private void addChild(int position, Trie child) {
+        char[] newKeys = new char[this.keys.length + 1];
+        Trie[] newChildren = new Trie[this.children.length + 1];
+        System.arraycopy(this.keys, 0, newKeys, 0, position);
+        System.arraycopy(this.children, 0, newChildren, 0, position);
+        newKeys[position] = child.label[0];
+        newChildren[position] = child;
+        System.arraycopy(this.keys, position, newKeys, position + 1, this.keys.length - position);
+        System.arraycopy(this.children, position, newChildren, position + 1, this.children.length - position);
+        this.keys = newKeys;
+        this.children = newChildren;
+    }
+
+    // Helper method to count the characters a label shares with the word, starting at the given offset
+    private static int commonPrefixLength(char[] label, String word, int offset) {
+        int length = Math.min(label.length, word.length() - offset);
+        int i = 0;
+        while (i < length && label[i] == word.charAt(offset + i)) {
+            i++;
+        }
+        return i;
+    }
+
+    // Helper method to walk down the trie along the prefix, returning null if no word starts with it
+    private Trie findNode(String prefix) {
+        return findNode(prefix, null);
+    }
+
+    // Helper method to walk down the trie along the prefix, appending the labels walked through to the path if any
+    private Trie findNode(String prefix, StringBuilder path) {
+        Trie current = this;
+        int i = 0;
+        // Traverse down the trie based on the prefix
+        while (i < prefix.length()) {
+            int index = Arrays.binarySearch(current.keys, prefix.charAt(i));
+            // If the character is not in the current node, there is no match
+            if (index < 0) {
+                return null;
+            }
+            current = current.children[index];
+            // The prefix may end inside the label, in which case every word below the node still matches
+            int common = commonPrefixLength(current.label, prefix, i);
+            if (common < current.label.length && i + common < prefix.length()) {
+                return null;
+            }
+            if (path != null) {
+                path.append(current.label);
+            }
+            i += common;
+        }
+        return current;
+    }
+
+    // Helper method to collect all words starting from a given node, the path holding the characters up to it
+    private void collectAllWords(Trie node, StringBuilder path, List<String> result) {
+        if (node.word) {
+            result.add(path.toString());
+        }
+        // Recur for all children
+        for (Trie child : node.children) {
+            path.append(child.label);
+            collectAllWords(child, path, result);
+            path.setLength(path.length() - child.label.length);
+        }
+    }
+
+    // Helper method to count the ids starting from a given node
+    private static int countIds(Trie node) {
+        int count = node.id >= 0 ? 1 : 0;
+        for (Trie child : node.children) {
+            count += countIds(child);
+        }
+        return count;
+    }
+
+    // Helper method to drop the repeated ids among the first size ids, returning the distinct ids in a new array
+    private static int[] removeDuplicates(int[] ids, int size) {
+        BitSet seen = new BitSet();
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (!seen.get(ids[i])) {
+                seen.set(ids[i]);
+                ids[count++] = ids[i];
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    // Helper method to collect the ids starting from a given node, returning the number of ids collected so far
+    private static int collectIds(Trie node, int[] ids, int count) {
+        if (node.id >= 0) {
+            ids[count++] = node.id;
+        }
+        for (Trie child : node.children) {
+            count = collectIds(child, ids, count);
+        }
+        return count;
+    }
+
+    /**
+     * The state of a search for the words starting within an edit distance of a prefix: one row of the edit
+     * distance table per character of the current path, and the ids collected so far.
+     */
+    private static final class FuzzySearch {
+        private final char[] prefix;
+        private final int exactLength;
+        private final int maxDistance;
+        private int[][] rows; // rows[d][j] is the edit distance between the first d characters of the path and of the prefix
+        private int[] ids = new int[16];
+        private int size;
+
+        FuzzySearch(String prefix, int exactLength, int maxDistance) {
+            this.prefix = prefix.toCharArray();
+            this.exactLength = exactLength;
+            this.maxDistance = maxDistance;
+            this.rows = new int[16][prefix.length() + 1];
+            for (int j = 0; j <= prefix.length(); j++) {
+                this.rows[0][j] = j;
+            }
+        }
+
+        // Searches the children of a node reached through a path of the given length
+        void searchChildren(Trie node, int depth) {
+            for (Trie child : node.children) {
+                search(child, depth);
+            }
+        }
+
+        // Extends the path with the label of the child, one character at a time
+        private void search(Trie child, int depth) {
+            int n = this.prefix.length;
+            int k = this.maxDistance;
+            for (char c : child.label) {
+                if (depth < this.exactLength && c != this.prefix[depth]) {
+                    return;
+                }
+                if (depth + 1 == this.rows.length) {
+                    this.rows = Arrays.copyOf(this.rows, 2 * this.rows.length);
+                }
+                if (this.rows[depth + 1] == null) {
+                    this.rows[depth + 1] = new int[n + 1];
+                }
+                int[] previous = this.rows[depth];
+                int[] row = this.rows[++depth];
+
+                // Only the entries within k of the diagonal can be within the distance, as the distance between
+                // strings is at least the difference of their lengths; the entries around them are set above it
+                int low = Math.max(1, depth - k);
+                int high = Math.min(n, depth + k);
+                row[0] = depth;
+                row[low - 1] = low == 1 ? depth : k + 1;
+                int min = row[low - 1];
+                for (int j = low; j <= high; j++) {
+                    int substitution = previous[j - 1] + (this.prefix[j - 1] == c ? 0 : 1);
+                    row[j] = Math.min(substitution, Math.min(previous[j], row[j - 1]) + 1);
+                    min = Math.min(min, row[j]);
+                }
+                if (high < n) {
+                    row[high + 1] = k + 1;
+                }
+
+                // The whole prefix is matched: every word below starts within the distance
+                if (high == n && row[n] <= k && depth >= this.exactLength) {
+                    addIds(child);
+                    return;
+                }
+                // No extension of the path can get back within the distance
+                if (min > k) {
+                    return;
+                }
+            }
+            // A word ending at this node is too far from the prefix, as its last row shows
+            searchChildren(child, depth);
+        }
+
+        // Adds the ids of every word in the subtree of a node
+        private void addIds(Trie node) {
+            int count = countIds(node);
+            if (this.size + count > this.ids.length) {
+                this.ids = Arrays.copyOf(this.ids, Math.max(2 * this.ids.length, this.size + count));
+            }
+            this.size = collectIds(node, this.ids, this.size);
+        }
+    }
+
+    // Helper method to keep the best words starting from a given node in a bounded heap, the path holding the
+    // characters up to it
+    private void collectTopWords(Trie node, StringBuilder path, int limit, Comparator<String> order,
+                                 PriorityQueue<String> heap) {
+        if (node.word) {
+            String word = path.toString();
+            if (heap.size() < limit) {
+                heap.add(word);
+            } else if (order.compare(word, heap.peek()) < 0) {
+                // Replace the worst word kept so far
+                heap.poll();
+                heap.add(word);
+            }
         }
         // Recur for all children
-        for (Map.Entry<Character, Trie> entry : node.children.entrySet()) {
-            prefix.append(entry.getKey()); // Add the child character to the prefix
-            collectAllWords(entry.getValue(), prefix, result); // Recur to the child
-            prefix.deleteCharAt(prefix.length() - 1); // Backtrack by removing the last character
+        for (Trie child : node.children) {
+            path.append(child.label);
+            collectTopWords(child, path, limit, order, heap);
+            path.setLength(path.length() - child.label.length);
         }
     }
-}
\ No newline at end of file
+}
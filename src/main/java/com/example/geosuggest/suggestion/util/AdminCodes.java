@@ -0,0 +1,164 @@
+package com.example.geosuggest.suggestion.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Resolves the administrative codes of the GeoNames cities, a country code and an admin1 code such as "CA" and
+ * "08", into the names of their region and country, such as "Ontario" and "Canada".
+ *
+ * The regions are read once from the GeoNames {@code admin1CodesASCII.txt} file, and the countries from the
+ * {@code countryInfo.txt} file, then shared by every city parsed. Each region is given a dense id: its index in a
+ * sorted array of "country.admin1" keys, next to an array of names, so the lookup holds two arrays and no object
+ * per entry, and each lookup is a binary search. Codes that are not found resolve to themselves.
+ */
+public final class AdminCodes {
+
+    private static final String[] NONE = new String[0];
+
+    private final String[] regionKeys; // The "country.admin1" key of each region, sorted, so the index is the region id
+    private final String[] regionNames; // The name of each region, by region id
+    private final String[] countryCodes; // The ISO codes of the countries, sorted
+    private final String[] countryNames; // The name of each country, in the same order as the codes
+    private final long fingerprint;
+
+    private AdminCodes(Map<String, String> regions, Map<String, String> countries) {
+        this.regionKeys = regions.keySet().toArray(NONE);
+        this.regionNames = regions.values().toArray(NONE);
+        this.countryCodes = countries.keySet().toArray(NONE);
+        this.countryNames = countries.values().toArray(NONE);
+
+        // String hash codes are specified, so the fingerprint is the same from one run to the next
+        long fingerprint = 1;
+        for (String[] strings : new String[][] {this.regionKeys, this.regionNames, this.countryCodes, this.countryNames}) {
+            fingerprint = 31 * fingerprint + strings.length;
+            for (String string : strings) {
+                fingerprint = 31 * fingerprint + string.hashCode();
+            }
+        }
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Builds the codes of the Canadian provinces and territories of {@link FIPSMapper}, which is all the bundled
+     * dataset needs. Countries resolve to their codes.
+     *
+     * @return The codes of the Canadian provinces and territories.
+     */
+    public static AdminCodes fips() {
+        Map<String, String> regions = new TreeMap<>();
+        FIPSMapper.getRegionsByFIPS().forEach((code, name) -> regions.put("CA." + code, name));
+        return new AdminCodes(regions, new TreeMap<>());
+    }
+
+    /**
+     * Reads the codes from GeoNames files. The files are expected in UTF-8, with tab-separated columns.
+     *
+     * @param admin1Codes The content of {@code admin1CodesASCII.txt}, whose lines start with a "country.admin1"
+     *                    code and the name of the region, or null to resolve no region.
+     * @param countryInfo The content of {@code countryInfo.txt}, whose lines start with the ISO code of the country
+     *                    and have its name in the fifth column, skipping comment lines starting with '#', or null
+     *                    to resolve countries to their codes.
+     * @return The codes read.
+     * @throws IOException if an error occurs while reading the files.
+     * @throws IllegalArgumentException if a line has too few columns.
+     */
+    public static AdminCodes read(InputStream admin1Codes, InputStream countryInfo) throws IOException {
+        Map<String, String> regions = new TreeMap<>();
+        if (admin1Codes != null) {
+            readColumns(admin1Codes, 1, regions);
+        }
+        Map<String, String> countries = new TreeMap<>();
+        if (countryInfo != null) {
+            readColumns(countryInfo, 4, countries);
+        }
+        return new AdminCodes(regions, countries);
+    }
+
+    // Maps the first column of each line to the given column, skipping empty and comment lines
+    private static void readColumns(InputStream in, int valueColumn, Map<String, String> values) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isEmpty() || line.charAt(0) == '#') {
+                continue;
+            }
+            String[] columns = line.split("\t", valueColumn + 2);
+            if (columns.length <= valueColumn) {
+                throw new IllegalArgumentException("Expected " + (valueColumn + 1) + " columns at line " + lineNumber);
+            }
+            values.put(columns[0], columns[valueColumn]);
+        }
+    }
+
+    /**
+     * Looks up the id of a region.
+     *
+     * @param countryCode The ISO code of the country of the region, such as "CA".
+     * @param adminCode   The admin1 code of the region within its country, such as "08".
+     * @return The id of the region, between 0 and {@link #getRegionCount()} exclusive, or -1 if it is not known.
+     */
+    public int getRegionId(String countryCode, String adminCode) {
+        int index = Arrays.binarySearch(this.regionKeys, countryCode + '.' + adminCode);
+        return index < 0 ? -1 : index;
+    }
+
+    /**
+     * Retrieves the name of a region.
+     *
+     * @param regionId The id of the region, as returned by {@link #getRegionId}.
+     * @return The name of the region.
+     */
+    public String getRegionName(int regionId) {
+        return this.regionNames[regionId];
+    }
+
+    /**
+     * Resolves the name of a region from its codes.
+     *
+     * @param countryCode The ISO code of the country of the region, such as "CA".
+     * @param adminCode   The admin1 code of the region within its country, such as "08".
+     * @return The name of the region, or the admin1 code if the region is not known.
+     */
+    public String getRegionName(String countryCode, String adminCode) {
+        int regionId = getRegionId(countryCode, adminCode);
+        return regionId < 0 ? adminCode : this.regionNames[regionId];
+    }
+
+    /**
+     * Resolves the name of a country from its code.
+     *
+     * @param countryCode The ISO code of the country, such as "CA".
+     * @return The name of the country, or its code if the country is not known.
+     */
+    public String getCountryName(String countryCode) {
+        int index = Arrays.binarySearch(this.countryCodes, countryCode);
+        return index < 0 ? countryCode : this.countryNames[index];
+    }
+
+    /**
+     * Counts the regions.
+     *
+     * @return The number of regions known.
+     */
+    public int getRegionCount() {
+        return this.regionKeys.length;
+    }
+
+    /**
+     * Fingerprints the codes, so that names resolved with other codes can be told apart, such as in a snapshot.
+     *
+     * @return A value that only changes when the regions or the countries change.
+     */
+    public long getFingerprint() {
+        return this.fingerprint;
+    }
+}
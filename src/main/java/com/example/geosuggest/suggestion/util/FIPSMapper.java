@@ -1,5 +1,6 @@
 package com.example.geosuggest.suggestion.util;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -40,4 +41,9 @@ public class FIPSMapper {
     public static String getRegionByFIPS(String fipsCode) {
         return fipsToRegionMap.getOrDefault(fipsCode, fipsCode);
     }
+
+    // The whole mapping, read-only, to build the default AdminCodes from
+    static Map<String, String> getRegionsByFIPS() {
+        return Collections.unmodifiableMap(fipsToRegionMap);
+    }
 }
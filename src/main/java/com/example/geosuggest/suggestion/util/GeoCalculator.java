@@ -4,6 +4,9 @@ package com.example.geosuggest.suggestion.util;
 import static java.lang.Math.*;
 
 public final class GeoCalculator {
+    // Radius of Earth in kilometers. For miles, use 3956
+    private static final double EARTH_RADIUS = 6371;
+
     private GeoCalculator() {}
 
     /**
@@ -26,23 +29,48 @@ public final class GeoCalculator {
      * @return The distance between the two points in kilometers.
      */
     public static double haversineDistance(double lon1, double lat1, double lon2, double lat2) {
-        // Radius of Earth in kilometers. For miles, use 3956
-        final double R = 6371;
-
         // Convert decimal degrees to radians
         lon1 = toRadians(lon1);
         lat1 = toRadians(lat1);
         lon2 = toRadians(lon2);
         lat2 = toRadians(lat2);
 
+        // Calculate the distance
+        return haversineToDistance(haversine(lat1, cos(lat1), lon1, lat2, cos(lat2), lon2));
+    }
+
+    /**
+     * Calculates the haversine of the central angle between two points on the Earth's surface, specified by their
+     * latitude and longitude in radians along with the cosine of their latitude.
+     *
+     * The haversine grows with the distance between the points, so it can be used to rank points by distance
+     * without computing the distance itself. Taking the cosines from the caller lets points whose coordinates
+     * do not change (e.g., cities) have them computed once instead of on every call.
+     *
+     * @param lat1    The latitude of the first point in radians.
+     * @param cosLat1 The cosine of the latitude of the first point.
+     * @param lon1    The longitude of the first point in radians.
+     * @param lat2    The latitude of the second point in radians.
+     * @param cosLat2 The cosine of the latitude of the second point.
+     * @param lon2    The longitude of the second point in radians.
+     * @return The haversine of the central angle between the two points, between 0 and 1.
+     */
+    public static double haversine(double lat1, double cosLat1, double lon1, double lat2, double cosLat2, double lon2) {
         // Haversine formula
         double dlon = lon2 - lon1;
         double dlat = lat2 - lat1;
-        double a = sin(dlat / 2) * sin(dlat / 2) +
-                cos(lat1) * cos(lat2) * sin(dlon / 2) * sin(dlon / 2);
-        double c = 2 * asin(sqrt(a));
+        return sin(dlat / 2) * sin(dlat / 2) +
+                cosLat1 * cosLat2 * sin(dlon / 2) * sin(dlon / 2);
+    }
 
-        // Calculate the distance
-        return R * c;
+    /**
+     * Converts the haversine of a central angle, as computed by {@link #haversine}, into a distance in kilometers.
+     *
+     * @param haversine The haversine of the central angle between two points.
+     * @return The distance between the two points in kilometers.
+     */
+    public static double haversineToDistance(double haversine) {
+        double c = 2 * asin(sqrt(haversine));
+        return EARTH_RADIUS * c;
     }
-}
\ No newline at end of file
+}
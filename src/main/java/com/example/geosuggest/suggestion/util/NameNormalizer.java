@@ -0,0 +1,141 @@
+package com.example.geosuggest.suggestion.util;
+
+import java.text.Normalizer;
+
+public class NameNormalizer {
+    private NameNormalizer() {}
+
+    private static final char DROPPED = 0; // Marks the characters removed from names, such as apostrophes
+    private static final char SEPARATOR = ' '; // Marks the characters separating words, such as commas and hyphens
+
+    // The normalized form of each ASCII character
+    private static final char[] ASCII = new char[128];
+
+    static {
+        for (char c = 0; c < ASCII.length; c++) {
+            if (c >= 'a' && c <= 'z' || c >= '0' && c <= '9') {
+                ASCII[c] = c;
+            } else if (c >= 'A' && c <= 'Z') {
+                ASCII[c] = (char) (c - 'A' + 'a');
+            } else if (c == '\'' || c == '.') {
+                ASCII[c] = DROPPED;
+            } else {
+                ASCII[c] = SEPARATOR;
+            }
+        }
+    }
+
+    /**
+     * Normalizes a city name or a search query, so names match regardless of case, accents and punctuation
+     * (e.g., "Montr&eacute;al" and "st. john's" become "montreal" and "st johns").
+     *
+     * Letters are lowercased and stripped of their diacritics, apostrophes and periods are removed, and any other
+     * run of characters that are neither letters nor digits becomes a single space. Leading separators are removed,
+     * but a trailing separator is kept as a single space, so a query ending with a complete word ("new ") only
+     * matches names that continue with another word. Letters without an ASCII equivalent, such as those of other
+     * scripts, are only lowercased.
+     *
+     * The name is scanned once, with a table lookup per ASCII character, and decomposed first only if it has other
+     * characters. A name that is already normalized is returned as is, without copying it.
+     *
+     * @param name The name to normalize.
+     * @return The normalized name.
+     */
+    public static String normalize(String name) {
+        if (isNormalized(name)) {
+            return name;
+        }
+
+        String decomposed = name;
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) >= ASCII.length) {
+                // Split accented letters into a base letter and combining marks, which are then dropped
+                decomposed = Normalizer.normalize(name, Normalizer.Form.NFD);
+                break;
+            }
+        }
+
+        StringBuilder normalized = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (c < ASCII.length) {
+                append(normalized, ASCII[c]);
+            } else {
+                appendNonAscii(normalized, c);
+            }
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * Tells if a normalized name has only ASCII characters, as the names of cities indexed under their
+     * alternate names must.
+     *
+     * @param normalized The normalized name.
+     * @return True if every character of the name is an ASCII character.
+     */
+    public static boolean isAscii(String normalized) {
+        for (int i = 0; i < normalized.length(); i++) {
+            if (normalized.charAt(i) >= ASCII.length) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Tells if a name is made of normalized ASCII characters and single spaces, not starting with a space
+    private static boolean isNormalized(String name) {
+        char previous = SEPARATOR;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c >= ASCII.length || c == DROPPED || ASCII[c] != c || (c == SEPARATOR && previous == SEPARATOR)) {
+                return false;
+            }
+            previous = c;
+        }
+        return true;
+    }
+
+    // Appends a normalized character, merging separators and dropping the leading ones
+    private static void append(StringBuilder normalized, char c) {
+        if (c == DROPPED) {
+            return;
+        }
+        if (c == SEPARATOR) {
+            int length = normalized.length();
+            if (length == 0 || normalized.charAt(length - 1) == SEPARATOR) {
+                return;
+            }
+        }
+        normalized.append(c);
+    }
+
+    // Appends the normalized form of a decomposed character outside of ASCII
+    private static void appendNonAscii(StringBuilder normalized, char c) {
+        switch (c) {
+            // Letters that do not decompose into an ASCII letter and a mark
+            case '\u00df' -> normalized.append("ss");
+            case '\u00e6', '\u00c6' -> normalized.append("ae");
+            case '\u0153', '\u0152' -> normalized.append("oe");
+            case '\u00f8', '\u00d8' -> normalized.append('o');
+            case '\u0142', '\u0141' -> normalized.append('l');
+            case '\u0111', '\u0110', '\u00f0', '\u00d0' -> normalized.append('d');
+            case '\u00fe', '\u00de' -> normalized.append("th");
+            case '\u0131' -> normalized.append('i');
+            // Typographic apostrophes, like ASCII ones
+            case '\u2018', '\u2019', '\u02bb', '\u02bc' -> {}
+            default -> {
+                int type = Character.getType(c);
+                if (type == Character.NON_SPACING_MARK || type == Character.ENCLOSING_MARK
+                        || type == Character.COMBINING_SPACING_MARK) {
+                    return;
+                }
+                if (Character.isLetterOrDigit(c) || Character.isSurrogate(c)) {
+                    normalized.append(Character.toLowerCase(c));
+                } else {
+                    append(normalized, SEPARATOR);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.geosuggest.suggestion.util;
+
+public final class ParallelArraySorter {
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private ParallelArraySorter() {}
+
+    /**
+     * Sorts an array of keys in ascending order, applying the same permutation to an array of values.
+     *
+     * This lets values be sorted by a key computed once per value (decorate-sort-undecorate) while staying in
+     * primitive arrays, instead of recomputing the key in a comparator or boxing each value with its key.
+     * The sort is not stable.
+     *
+     * @param keys   The keys to sort by.
+     * @param values The values to reorder along with their keys; must be as long as the keys.
+     */
+    public static void sort(double[] keys, int[] values) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("Keys and values must have the same length");
+        }
+        sort(keys, values, 0, keys.length - 1);
+    }
+
+    // Quicksort of the range from low to high (inclusive), switching to insertion sort for small ranges
+    private static void sort(double[] keys, int[] values, int low, int high) {
+        while (high - low >= INSERTION_SORT_THRESHOLD) {
+            double pivot = keys[(low + high) >>> 1];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (Double.compare(keys[i], pivot) < 0) {
+                    i++;
+                }
+                while (Double.compare(keys[j], pivot) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(keys, values, i++, j--);
+                }
+            }
+            // Recur into the smaller range and loop over the larger one to bound the stack depth
+            if (j - low < high - i) {
+                sort(keys, values, low, j);
+                low = i;
+            } else {
+                sort(keys, values, i, high);
+                high = j;
+            }
+        }
+
+        for (int i = low + 1; i <= high; i++) {
+            double key = keys[i];
+            int value = values[i];
+            int j = i - 1;
+            while (j >= low && Double.compare(keys[j], key) > 0) {
+                keys[j + 1] = keys[j];
+                values[j + 1] = values[j];
+                j--;
+            }
+            keys[j + 1] = key;
+            values[j + 1] = value;
+        }
+    }
+
+    private static void swap(double[] keys, int[] values, int i, int j) {
+        double key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        int value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+}
@@ -26,6 +26,22 @@ public class ScoreCalculator {
             max = Math.max(max, num.doubleValue());
         }
 
+        return maxNormalized(numbers, max);
+    }
+
+    /**
+     * Normalizes a list of numeric values to a range between 0 and 1 based on a known maximum value.
+     *
+     * This method behaves like {@link #maxNormalized(List)}, but takes the maximum from the caller instead of
+     * computing it from the list. This lets callers that only hold part of the values (e.g., the first page of
+     * a ranking) score them exactly as if the whole list had been normalized.
+     *
+     * @param numbers A list of numeric values to be normalized.
+     * @param max     The maximum value the numbers are normalized against.
+     * @return A list of normalized values, where each value is divided by the maximum plus one. The order of the
+     *         returned list corresponds to the order of the input list.
+     */
+    public static List<Double> maxNormalized(List<? extends Number> numbers, double max) {
         // Normalize the numbers
         List<Double> scores = new ArrayList<>();
         for (Number num : numbers) {
@@ -34,4 +50,67 @@ public class ScoreCalculator {
 
         return scores;
     }
+
+    /**
+     * Normalizes an array of values like {@link #maxNormalized(List)}, without boxing them.
+     *
+     * @param values The values to be normalized.
+     * @return A new array of normalized values, in the order of the input array.
+     */
+    public static double[] maxNormalized(double[] values) {
+        double max = 0;
+        for (double value : values) {
+            max = Math.max(max, value);
+        }
+
+        return maxNormalized(values, max);
+    }
+
+    /**
+     * Normalizes an array of values against a known maximum value like {@link #maxNormalized(List, double)},
+     * without boxing them.
+     *
+     * @param values The values to be normalized.
+     * @param max    The maximum value the values are normalized against.
+     * @return A new array of normalized values, in the order of the input array.
+     */
+    public static double[] maxNormalized(double[] values, double max) {
+        double[] scores = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            scores[i] = values[i] / (max + 1);
+        }
+
+        return scores;
+    }
+
+    /**
+     * Scores the proximity of a city between 0 and 1 from its distance, independently of the other cities: a city
+     * at the given location scores 1, a city at {@code distanceScale} kilometers scores 0.5, and farther cities
+     * score less and less. Unlike a score normalized against the farthest city, it does not require knowing the
+     * distance to every city, so the nearest cities can be scored as they are found.
+     *
+     * @param distance      The distance to the city in kilometers.
+     * @param distanceScale The distance in kilometers at which the score is halved.
+     * @return The proximity score, between 0 (exclusive) and 1.
+     */
+    public static double proximityScore(double distance, double distanceScale) {
+        return distanceScale / (distanceScale + distance);
+    }
+
+    /**
+     * Blends a population score and a proximity score into a single score between 0 and 1, as their weighted
+     * average, so a large city a little farther away can rank before a small city nearby.
+     *
+     * The blend grows with both scores, so a city can score no better than the blend of the best population score
+     * and the best proximity score it could still have, which lets rankings stop before scoring every city.
+     *
+     * @param populationScore  The population score of the city, between 0 and 1.
+     * @param proximityScore   The proximity score of the city, between 0 and 1.
+     * @param populationWeight The weight of the population score between 0 and 1, the proximity score weighing
+     *                         the rest.
+     * @return The blended score, between 0 and 1.
+     */
+    public static double blend(double populationScore, double proximityScore, double populationWeight) {
+        return populationWeight * populationScore + (1 - populationWeight) * proximityScore;
+    }
 }
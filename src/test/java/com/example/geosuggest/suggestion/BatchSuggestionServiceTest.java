@@ -0,0 +1,156 @@
+package com.example.geosuggest.suggestion;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchSuggestionServiceTest {
+
+    private BatchSuggestionService batchSuggestionService;
+
+    // The threads that answered queries
+    private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+    // Counted down when a query waiting for ever starts waiting, and when it is interrupted
+    private final CountDownLatch waiting = new CountDownLatch(1);
+    private final CountDownLatch interrupted = new CountDownLatch(1);
+
+    @BeforeEach
+    public void setUp() {
+        batchSuggestionService = new BatchSuggestionService();
+        ReflectionTestUtils.setField(batchSuggestionService, "suggestionService", new EchoSuggestionService());
+        ReflectionTestUtils.setField(batchSuggestionService, "threads", 4);
+        batchSuggestionService.startExecutor();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        batchSuggestionService.stopExecutor();
+    }
+
+    // Suggests a single city named after the query and the parameters it was called with
+    private class EchoSuggestionService implements SuggestionService {
+        @Override
+        public Iterable<SuggestionDTO> getCitiesSuggestions(String query) {
+            return suggestion(query);
+        }
+
+        @Override
+        public Iterable<SuggestionDTO> getCitiesSuggestions(String query, double latitude, double longitude) {
+            return suggestion(query + "@" + latitude + "," + longitude);
+        }
+
+        @Override
+        public Iterable<SuggestionDTO> getCitiesSuggestions(String query, int limit) {
+            return suggestion(query + "#" + limit);
+        }
+
+        @Override
+        public Iterable<SuggestionDTO> getCitiesSuggestions(String query, double latitude, double longitude, int limit) {
+            return suggestion(query + "@" + latitude + "," + longitude + "#" + limit);
+        }
+
+        // Fails for the query "fail" once a query is waiting, and never answers the query "wait" unless interrupted
+        private List<SuggestionDTO> suggestion(String name) {
+            threads.add(Thread.currentThread());
+            try {
+                if (name.equals("fail") && waiting.await(10, TimeUnit.SECONDS)) {
+                    throw new IllegalArgumentException("Failed to answer " + name);
+                }
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            if (name.equals("wait")) {
+                waiting.countDown();
+                try {
+                    new CountDownLatch(1).await();
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                    Thread.currentThread().interrupt();
+                }
+            }
+            SuggestionDTO dto = new SuggestionDTO();
+            dto.setName(name);
+            return List.of(dto);
+        }
+    }
+
+    private static String name(Iterable<SuggestionDTO> suggestions) {
+        return suggestions.iterator().next().getName();
+    }
+
+    @Test
+    public void testGetCitiesSuggestions_eachQueryLikeASingleRequest() {
+        List<Iterable<SuggestionDTO>> suggestions = batchSuggestionService.getCitiesSuggestions(List.of(
+                new SuggestionQueryDTO("tor", null, null, null),
+                new SuggestionQueryDTO("tor", null, null, 5),
+                new SuggestionQueryDTO("tor", 43.7, -79.4, null),
+                new SuggestionQueryDTO("tor", 43.7, -79.4, 5),
+                new SuggestionQueryDTO("tor", 43.7, null, 5)));
+
+        assertEquals(5, suggestions.size());
+        assertEquals("tor", name(suggestions.get(0)));
+        assertEquals("tor#5", name(suggestions.get(1)));
+        assertEquals("tor@43.7,-79.4", name(suggestions.get(2)));
+        assertEquals("tor@43.7,-79.4#5", name(suggestions.get(3)));
+        // A query with a single coordinate is ranked by population, as a single request is
+        assertEquals("tor#5", name(suggestions.get(4)));
+    }
+
+    @Test
+    public void testGetCitiesSuggestions_inTheOrderOfTheQueries() {
+        List<SuggestionQueryDTO> queries = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            queries.add(new SuggestionQueryDTO("q" + i, null, null, null));
+        }
+
+        List<Iterable<SuggestionDTO>> suggestions = batchSuggestionService.getCitiesSuggestions(queries);
+
+        assertEquals(1000, suggestions.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("q" + i, name(suggestions.get(i)));
+        }
+        // The queries were split between the threads of the pool and the calling thread
+        assertTrue(threads.size() > 1);
+        assertTrue(threads.contains(Thread.currentThread()));
+    }
+
+    @Test
+    public void testGetCitiesSuggestions_smallBatchAnsweredByTheCallingThread() {
+        List<Iterable<SuggestionDTO>> suggestions = batchSuggestionService.getCitiesSuggestions(List.of(
+                new SuggestionQueryDTO("van", null, null, 1), new SuggestionQueryDTO("mon", null, null, 1)));
+
+        assertEquals("van#1", name(suggestions.get(0)));
+        assertEquals("mon#1", name(suggestions.get(1)));
+        assertEquals(Set.of(Thread.currentThread()), threads);
+    }
+
+    @Test
+    public void testGetCitiesSuggestions_failedQueryCancelsTheOtherSlices() throws InterruptedException {
+        ReflectionTestUtils.setField(batchSuggestionService, "threads", 1);
+        batchSuggestionService.startExecutor();
+
+        // Two slices: the first one waits on a thread of the executor, the last one fails on the calling thread
+        List<SuggestionQueryDTO> queries = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            queries.add(new SuggestionQueryDTO(i < 32 ? "wait" : "fail", null, null, null));
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> batchSuggestionService.getCitiesSuggestions(queries));
+        assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testGetCitiesSuggestions_emptyBatch() {
+        assertEquals(0, batchSuggestionService.getCitiesSuggestions(List.of()).size());
+    }
+}
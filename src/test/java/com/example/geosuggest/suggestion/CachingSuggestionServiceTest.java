@@ -0,0 +1,166 @@
+package com.example.geosuggest.suggestion;
+
+import static org.mockito.Mockito.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class CachingSuggestionServiceTest {
+
+    @Mock
+    private SuggestionServiceImpl suggestionServiceImpl;
+
+    @Mock
+    private SuggestionDAO suggestionDAO;
+
+    @Mock
+    private CityIndex cityIndex;
+
+    @InjectMocks
+    private CachingSuggestionService suggestionService;
+
+    @BeforeEach
+    public void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(suggestionDAO.getCityIndex()).thenReturn(cityIndex);
+        suggestionService.createCache();
+    }
+
+    private static List<SuggestionDTO> suggestions(String... names) {
+        return List.of(names).stream().map(name -> {
+            SuggestionDTO dto = new SuggestionDTO();
+            dto.setName(name);
+            return dto;
+        }).toList();
+    }
+
+    @Test
+    public void testGetCitiesSuggestions_cachedByQueryAndLimit() {
+        List<SuggestionDTO> top2 = suggestions("Paris", "Parma");
+        List<SuggestionDTO> top1 = suggestions("Paris");
+        when(suggestionServiceImpl.getCitiesSuggestions("par", 2)).thenReturn(top2);
+        when(suggestionServiceImpl.getCitiesSuggestions("par", 1)).thenReturn(top1);
+
+        assertEquals(top2, suggestionService.getCitiesSuggestions("Par", 2));
+        assertEquals(top2, suggestionService.getCitiesSuggestions("Par", 2));
+        assertEquals(top1, suggestionService.getCitiesSuggestions("Par", 1));
+
+        // Only the first request of each limit is computed
+        verify(suggestionServiceImpl, times(1)).getCitiesSuggestions("par", 2);
+        verify(suggestionServiceImpl, times(1)).getCitiesSuggestions("par", 1);
+        assertEquals(1, suggestionService.getCacheStats().hitCount());
+        assertEquals(2, suggestionService.getCacheStats().missCount());
+    }
+
+    @Test
+    public void testGetCitiesSuggestions_cachedByNormalizedQuery() {
+        List<SuggestionDTO> suggestions = suggestions("Saint-J\u00e9r\u00f4me");
+        when(suggestionServiceImpl.getCitiesSuggestions("saint jer")).thenReturn(suggestions);
+
+        assertEquals(suggestions, suggestionService.getCitiesSuggestions("Saint-J\u00e9r"));
+        assertEquals(suggestions, suggestionService.getCitiesSuggestions("saint jer"));
+
+        // The query is normalized before the cache is looked up, and the delegate gets it normalized
+        verify(suggestionServiceImpl, times(1)).getCitiesSuggestions("saint jer");
+        assertEquals(1, suggestionService.getCacheStats().hitCount());
+    }
+
+    @Test
+    public void testGetCitiesSuggestions_invalidatedOnReload() {
+        when(suggestionServiceImpl.getCitiesSuggestions("par")).thenReturn(suggestions("Paris"));
+        suggestionService.getCitiesSuggestions("Par");
+
+        // The cities are reloaded into a new index
+        CityIndex reloadedIndex = mock(CityIndex.class);
+        when(suggestionDAO.getCityIndex()).thenReturn(reloadedIndex);
+        List<SuggestionDTO> reloaded = suggestions("Paris", "Parma");
+        when(suggestionServiceImpl.getCitiesSuggestions("par")).thenReturn(reloaded);
+
+        assertEquals(reloaded, suggestionService.getCitiesSuggestions("Par"));
+        verify(suggestionServiceImpl, times(2)).getCitiesSuggestions("par");
+    }
+
+    @Test
+    public void testGetCitiesSuggestions_notCachedWhenReloadedWhileComputed() {
+        CityIndex reloadedIndex = mock(CityIndex.class);
+        when(suggestionServiceImpl.getCitiesSuggestions("par")).thenAnswer(invocation -> {
+            // The cities are reloaded while the suggestions of the previous index are computed
+            when(suggestionDAO.getCityIndex()).thenReturn(reloadedIndex);
+            return suggestions("Paris");
+        });
+
+        // The suggestions are returned, but not cached under the previous index, which they would keep alive
+        assertEquals(suggestions("Paris"), suggestionService.getCitiesSuggestions("Par"));
+        assertEquals(0, suggestionService.getCachedQueryCount());
+    }
+
+    @Test
+    public void testGetCitiesSuggestions_collapsedInvalidatedOnReload() {
+        ReflectionTestUtils.setField(suggestionService, "gridCellDegrees", 0.0);
+        when(suggestionServiceImpl.getCitiesSuggestions("par")).thenReturn(suggestions("Paris"));
+        when(suggestionServiceImpl.getCitiesSuggestions(eq("par"), anyDouble(), anyDouble())).thenReturn(suggestions("Paris"));
+        suggestionService.getCitiesSuggestions("Par");
+        assertEquals(1, suggestionService.getCachedQueryCount());
+
+        // A reload only seen by proximity queries, which are not cached, still releases the previous index
+        when(suggestionDAO.getCityIndex()).thenReturn(mock(CityIndex.class));
+        suggestionService.getCitiesSuggestions("Par", 48.8566, 2.3522);
+        assertEquals(0, suggestionService.getCachedQueryCount());
+    }
+
+    @Test
+    public void testGetCitiesSuggestions_proximitySnappedToGrid() {
+        when(suggestionServiceImpl.getCitiesSuggestions(eq("par"), anyDouble(), anyDouble(), eq(5)))
+                .thenReturn(suggestions("Paris"));
+
+        // Both locations are in the cell from (48.85, 2.35) to (48.86, 2.36)
+        suggestionService.getCitiesSuggestions("Par", 48.8566, 2.3522, 5);
+        suggestionService.getCitiesSuggestions("Par", 48.8511, 2.3599, 5);
+
+        // Suggestions are computed once, for the center of the cell
+        verify(suggestionServiceImpl, times(1)).getCitiesSuggestions(eq("par"), anyDouble(), anyDouble(), eq(5));
+        verify(suggestionServiceImpl).getCitiesSuggestions(eq("par"), doubleThat(latitude -> Math.abs(latitude - 48.855) < 1e-9),
+                doubleThat(longitude -> Math.abs(longitude - 2.355) < 1e-9), eq(5));
+
+        // Another cell is computed separately
+        suggestionService.getCitiesSuggestions("Par", 48.8766, 2.3522, 5);
+        verify(suggestionServiceImpl, times(2)).getCitiesSuggestions(eq("par"), anyDouble(), anyDouble(), eq(5));
+    }
+
+    @Test
+    public void testGetCitiesSuggestions_concurrentMissesComputedOnce() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<SuggestionDTO> computed = suggestions("Paris");
+        when(suggestionServiceImpl.getCitiesSuggestions("par", 5)).thenAnswer(invocation -> {
+            started.countDown();
+            release.await();
+            return computed;
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Iterable<SuggestionDTO>> first = executor.submit(() -> suggestionService.getCitiesSuggestions("Par", 5));
+            started.await();
+            Future<Iterable<SuggestionDTO>> second = executor.submit(() -> suggestionService.getCitiesSuggestions("par", 5));
+            release.countDown();
+
+            // Whether the second request waits for the first or finds its suggestions in the cache, they are shared
+            assertEquals(computed, first.get());
+            assertEquals(computed, second.get());
+        } finally {
+            executor.shutdownNow();
+        }
+        verify(suggestionServiceImpl, times(1)).getCitiesSuggestions("par", 5);
+    }
+}
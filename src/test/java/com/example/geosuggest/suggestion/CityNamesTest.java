@@ -0,0 +1,50 @@
+package com.example.geosuggest.suggestion;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CityNamesTest {
+
+    @Test
+    public void testDivisionsShared() {
+        CityNames names = new CityNames.Builder()
+                .add("Toronto, Ontario, CA")
+                .add("Tampa, FL, US")
+                .add("Ottawa, Ontario, CA")
+                .build();
+
+        assertEquals(3, names.size());
+        assertEquals(2, names.getDivisionCount());
+        assertEquals("Toronto, Ontario, CA", names.get(0));
+        assertEquals("Tampa, FL, US", names.get(1));
+        assertEquals("Ottawa, Ontario, CA", names.get(2));
+    }
+
+    @Test
+    public void testNamesOutsideOfAscii() {
+        CityNames names = new CityNames.Builder()
+                .add("Montr\u00e9al, Quebec, CA")
+                .add("\u6771\u4eac, Tokyo, JP")
+                .add("\ud83c\udf38 City, Kyoto, JP")
+                .build();
+
+        assertEquals("Montr\u00e9al, Quebec, CA", names.get(0));
+        assertEquals("\u6771\u4eac, Tokyo, JP", names.get(1));
+        assertEquals("\ud83c\udf38 City, Kyoto, JP", names.get(2));
+    }
+
+    @Test
+    public void testNamesWithoutDivision() {
+        CityNames names = new CityNames.Builder()
+                .add("Monaco")
+                .add("")
+                .add("Singapore")
+                .build();
+
+        assertEquals(1, names.getDivisionCount());
+        assertEquals("Monaco", names.get(0));
+        assertEquals("", names.get(1));
+        assertEquals("Singapore", names.get(2));
+    }
+}
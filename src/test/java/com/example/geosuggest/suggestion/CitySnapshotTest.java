@@ -0,0 +1,120 @@
+package com.example.geosuggest.suggestion;
+
+import com.example.geosuggest.suggestion.token.TokenIndex;
+import com.example.geosuggest.suggestion.trie.OffHeapTrie;
+import com.example.geosuggest.suggestion.trie.Trie;
+import com.example.geosuggest.suggestion.util.NameNormalizer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CitySnapshotTest {
+
+    @TempDir
+    private Path directory;
+
+    private Path snapshot;
+    private CitySnapshot cities;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        snapshot = directory.resolve("snapshot/cities.snapshot");
+
+        String[] names = {"Toronto, Ontario, Canada", "Tampa, Florida, USA", "Montr\u00e9al, Quebec, Canada"};
+        long[] populations = {3000000, 400000, 1700000};
+        Trie trie = new Trie();
+        TokenIndex.Builder tokens = new TokenIndex.Builder();
+        for (int id = 0; id < names.length; id++) {
+            trie.insert(NameNormalizer.normalize(names[id]), id);
+            tokens.add(NameNormalizer.normalize(names[id]), id);
+        }
+        CityNames.Builder cityNames = new CityNames.Builder();
+        for (String name : names) {
+            cityNames.add(name);
+        }
+        cities = new CitySnapshot(99L, cityNames.build(), populations, new double[] {43.7, 27.95, 45.5},
+                new double[] {-79.42, -82.46, -73.56}, trie, tokens.build(names.length));
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        cities.write(snapshot, 1000, 42, 7L);
+        CitySnapshot restored = CitySnapshot.read(snapshot, 1000, 42, 7L);
+
+        assertNotNull(restored);
+        assertEquals(99L, restored.sourceDigest);
+        assertEquals(3, restored.names.size());
+        assertEquals("Toronto, Ontario, Canada", restored.names.get(0));
+        assertEquals("Montr\u00e9al, Quebec, Canada", restored.names.get(2));
+        assertEquals(cities.names.getDivisionCount(), restored.names.getDivisionCount());
+        assertArrayEquals(cities.populations, restored.populations);
+        assertArrayEquals(cities.latitudes, restored.latitudes);
+        assertArrayEquals(cities.longitudes, restored.longitudes);
+
+        // The restored trie keeps its keys
+        assertArrayEquals(new int[] {2}, restored.trie.getIdsStartingWith("mon"));
+        assertEquals(1, restored.trie.getId("tampa florida usa"));
+
+        // The restored token index keeps its posting lists
+        assertEquals(cities.tokens.getTokenCount(), restored.tokens.getTokenCount());
+        assertArrayEquals(new int[] {0, 2}, restored.tokens.search("canada", 10));
+        assertArrayEquals(new int[] {2}, restored.tokens.search("queb", 10));
+    }
+
+    @Test
+    public void testReadOffHeap() throws IOException {
+        cities.write(snapshot, 1000, 42, 7L);
+        CitySnapshot restored = CitySnapshot.read(snapshot, 1000, 42, 7L, true);
+
+        assertNotNull(restored);
+        assertInstanceOf(OffHeapTrie.class, restored.trie);
+        assertEquals(1, restored.trie.getId("tampa florida usa"));
+        assertArrayEquals(new int[] {0, 1}, sorted(restored.trie.getIdsStartingWith("t")));
+        assertArrayEquals(new int[] {0, 2}, restored.tokens.search("canada", 10));
+
+        // The index restored outside of the heap is written back as it was read
+        CityIndex index = CityIndex.fromSnapshot(restored, true);
+        assertEquals("Montr\u00e9al, Quebec, Canada", index.getCityName(2));
+        assertEquals(1700000, index.getCityPopulation(2));
+        index.toSnapshot(99L).write(snapshot, 1000, 42, 7L);
+        assertEquals(2, CitySnapshot.read(snapshot, 1000, 42, 7L).trie.getId("montreal quebec canada"));
+    }
+
+    private static int[] sorted(int[] ids) {
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    @Test
+    public void testReadMissingSnapshot() throws IOException {
+        assertNull(CitySnapshot.read(snapshot, 1000, 42, 7L));
+    }
+
+    @Test
+    public void testReadStaleSnapshot() throws IOException {
+        cities.write(snapshot, 1000, 42, 7L);
+
+        // Built from another source
+        assertNull(CitySnapshot.read(snapshot, 1001, 42, 7L));
+        assertNull(CitySnapshot.read(snapshot, 1000, 43, 7L));
+
+        // Built with other administrative codes
+        assertNull(CitySnapshot.read(snapshot, 1000, 42, 8L));
+    }
+
+    @Test
+    public void testReadCorruptedSnapshot() throws IOException {
+        cities.write(snapshot, 1000, 42, 7L);
+        byte[] bytes = Files.readAllBytes(snapshot);
+        Files.write(snapshot, Arrays.copyOf(bytes, bytes.length / 2));
+
+        assertThrows(IOException.class, () -> CitySnapshot.read(snapshot, 1000, 42, 7L));
+    }
+}
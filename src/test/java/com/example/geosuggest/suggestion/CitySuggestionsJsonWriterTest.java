@@ -0,0 +1,99 @@
+package com.example.geosuggest.suggestion;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CitySuggestionsJsonWriterTest {
+
+    private CityIndex cityIndex;
+
+    @BeforeEach
+    public void setUp() {
+        CityIndex.Builder builder = new CityIndex.Builder();
+        builder.addCity("Toronto, Ontario, Canada", 43.70011, -79.4163, 2600000);
+        builder.addCity("Montr\u00e9al, Quebec, Canada", 45.50884, -73.58781, 1600000);
+        builder.addCity("\"Quoted\" \\ City\t\u0001, \u6771\u4eac \ud83c\udf38, Japan", 35.6895, 139.69171, 8300000);
+        cityIndex = builder.build();
+    }
+
+    private static String write(CitySuggestions suggestions) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CitySuggestionsJsonWriter.write(suggestions, out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testWrite() throws IOException {
+        int toronto = cityIndex.getCityId("Toronto, Ontario, Canada");
+        CitySuggestions suggestions = new CitySuggestions(cityIndex, new int[] {toronto}, new double[] {0.9999996153847633});
+
+        assertEquals("[{\"name\":\"Toronto, Ontario, Canada\",\"latitude\":43.70011,\"longitude\":-79.4163,"
+                + "\"score\":0.9999996153847633}]", write(suggestions));
+        assertEquals("[]", write(new CitySuggestions(cityIndex, new int[0], new double[0])));
+    }
+
+    @Test
+    public void testWrite_escapedAndEncodedNames() throws IOException {
+        int montreal = cityIndex.getCityId("Montr\u00e9al, Quebec, Canada");
+        int quoted = cityIndex.getCityId("\"Quoted\" \\ City\t\u0001, \u6771\u4eac \ud83c\udf38, Japan");
+        CitySuggestions suggestions = new CitySuggestions(cityIndex, new int[] {montreal, quoted}, new double[] {0.5, 1.0E-4});
+
+        assertEquals("[{\"name\":\"Montr\u00e9al, Quebec, Canada\",\"latitude\":45.50884,\"longitude\":-73.58781,\"score\":0.5},"
+                + "{\"name\":\"\\\"Quoted\\\" \\\\ City\\t\\u0001, \u6771\u4eac \\uD83C\\uDF38, Japan\",\"latitude\":35.6895,"
+                + "\"longitude\":139.69171,\"score\":1.0E-4}]", write(suggestions));
+    }
+
+    @Test
+    public void testWrite_sameBytesAsJackson() throws IOException {
+        CitySuggestions suggestions = new CitySuggestions(cityIndex, new int[] {2, 0, 1}, new double[] {1.0, 1.0 / 3, 0.0});
+
+        // The DTOs built by the list are serialized by Jackson as the service's responses used to be
+        byte[] jackson = new ObjectMapper().writeValueAsBytes(new ArrayList<>(suggestions));
+        assertEquals(new String(jackson, StandardCharsets.UTF_8), write(suggestions));
+    }
+
+    @Test
+    public void testWrite_largerThanTheBuffer() throws IOException {
+        int[] cityIds = new int[1000];
+        double[] scores = new double[1000];
+        StringBuilder expected = new StringBuilder("[");
+        for (int i = 0; i < cityIds.length; i++) {
+            cityIds[i] = i % 3;
+            scores[i] = i / 1000.0;
+            expected.append(i > 0 ? "," : "").append(json(cityIds[i], scores[i]));
+        }
+        expected.append(']');
+
+        // The buffer is flushed many times, without splitting the bytes of a character
+        assertEquals(expected.toString(), write(new CitySuggestions(cityIndex, cityIds, scores)));
+    }
+
+    // Formats a suggestion as it is expected in JSON, escaping the few special characters of the test names
+    private String json(int cityId, double score) {
+        String name = cityIndex.getCityName(cityId).replace("\\", "\\\\").replace("\"", "\\\"")
+                .replace("\t", "\\t").replace("\u0001", "\\u0001")
+                .replace("\ud83c\udf38", "\\uD83C\\uDF38");
+        return "{\"name\":\"" + name + "\",\"latitude\":" + cityIndex.getCityLatitude(cityId)
+                + ",\"longitude\":" + cityIndex.getCityLongitude(cityId) + ",\"score\":" + score + "}";
+    }
+
+    @Test
+    public void testCitySuggestions_listOfSuggestions() {
+        CitySuggestions suggestions = new CitySuggestions(cityIndex, new int[] {0}, new double[] {0.25});
+
+        assertEquals(1, suggestions.size());
+        assertEquals("Toronto, Ontario, Canada", suggestions.get(0).getName());
+        assertEquals(43.70011, suggestions.get(0).getLatitude());
+        assertEquals(-79.4163, suggestions.get(0).getLongitude());
+        assertEquals(0.25, suggestions.get(0).getScore());
+        assertThrows(UnsupportedOperationException.class, () -> suggestions.add(new SuggestionDTO()));
+    }
+}
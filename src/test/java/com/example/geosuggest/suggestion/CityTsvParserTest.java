@@ -0,0 +1,159 @@
+package com.example.geosuggest.suggestion;
+
+import com.example.geosuggest.suggestion.util.AdminCodes;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CityTsvParserTest {
+
+    private static final String HEADER = "id\tname\tascii\talt_name\tlat\tlong\tfeat_class\tfeat_code\tcountry\tcc2"
+            + "\tadmin1\tadmin2\tadmin3\tadmin4\tpopulation\televation\tdem\ttz\tmodified_at\n";
+
+    private static String line(String name, String latitude, String longitude, String country, String admin, String population) {
+        return "1\t" + name + "\t" + name + "\t\t" + latitude + "\t" + longitude + "\tP\tPPL\t" + country + "\t\t" + admin
+                + "\t\t\t\t" + population + "\t\t90\tAmerica/Montreal\t2013-04-22\n";
+    }
+
+    private static ByteBuffer bytes(String content) {
+        return ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static InputStream bytesIn(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testParse() {
+        String tsv = HEADER
+                + line("Toronto", "43.70011", "-79.4163", "CA", "08", "4612191")
+                + line("Montr\u00e9al", "45.50884", "-73.58781", "CA", "10", "3268513")
+                + line("Tampa", "27.94752", "-82.45843", "US", "FL", "335709");
+
+        CityTsvParser.Chunk[] chunks = CityTsvParser.parse(bytes(tsv));
+
+        assertEquals(1, chunks.length);
+        CityTsvParser.Chunk chunk = chunks[0];
+        assertEquals(3, chunk.size);
+        assertEquals("Toronto, Ontario, CA", chunk.names[0]);
+        assertEquals("Montr\u00e9al, Quebec, CA", chunk.names[1]);
+        assertEquals("Tampa, FL, US", chunk.names[2]);
+        assertEquals(43.70011, chunk.latitudes[0]);
+        assertEquals(-79.4163, chunk.longitudes[0]);
+        assertEquals(4612191L, chunk.populations[0]);
+        assertEquals(335709L, chunk.populations[2]);
+    }
+
+    @Test
+    public void testParseWithAdminCodes() throws IOException {
+        AdminCodes adminCodes = AdminCodes.read(
+                bytesIn("CA.08\tOntario\tOntario\t6093943\nFR.84\tAuvergne-Rh\u00f4ne-Alpes\tAuvergne-Rhone-Alpes\t11071625\n"),
+                bytesIn("#ISO\tISO3\tISO-Numeric\tfips\tCountry\nCA\tCAN\t124\tCA\tCanada\nFR\tFRA\t250\tFR\tFrance\n"));
+        String tsv = HEADER
+                + line("Toronto", "43.70011", "-79.4163", "CA", "08", "4612191")
+                + line("Lyon", "45.74846", "4.84671", "FR", "84", "522969")
+                + line("Tampa", "27.94752", "-82.45843", "US", "FL", "335709");
+
+        // Every chunk resolves the codes from the same lookup
+        for (int chunkCount = 1; chunkCount <= 3; chunkCount++) {
+            List<String> names = new ArrayList<>();
+            for (CityTsvParser.Chunk chunk : CityTsvParser.parse(bytes(tsv), chunkCount, adminCodes)) {
+                names.addAll(Arrays.asList(chunk.names).subList(0, chunk.size));
+            }
+            assertEquals(List.of("Toronto, Ontario, Canada", "Lyon, Auvergne-Rh\u00f4ne-Alpes, France", "Tampa, FL, US"), names);
+        }
+    }
+
+    @Test
+    public void testParseAliases() {
+        String tsv = HEADER
+                + "1\tMontr\u00e9al\tMontreal\tMontreal,YMQ,,Montr\u00e9al\t45.50884\t-73.58781\tP\tPPL\tCA\t\t10"
+                + "\t\t\t\t3268513\t\t90\tAmerica/Montreal\t2013-04-22\n"
+                + line("Toronto", "43.70011", "-79.4163", "CA", "08", "4612191");
+
+        CityTsvParser.Chunk chunk = CityTsvParser.parse(bytes(tsv))[0];
+
+        // Empty names and names equal to the city name are skipped, repeated alternate names are not
+        assertArrayEquals(new String[] {"Montreal, Quebec, CA", "Montreal, Quebec, CA", "YMQ, Quebec, CA"},
+                chunk.aliases[0]);
+        assertArrayEquals(new String[0], chunk.aliases[1]);
+    }
+
+    @Test
+    public void testParseInChunks() {
+        StringBuilder tsv = new StringBuilder(HEADER);
+        for (int i = 0; i < 100; i++) {
+            tsv.append(line("City" + i, "1." + i, "-2." + i, "US", "NY", String.valueOf(i)));
+        }
+
+        CityTsvParser.Chunk[] chunks = CityTsvParser.parse(bytes(tsv.toString()), 7);
+
+        // Every line is parsed once, in file order
+        assertEquals(7, chunks.length);
+        List<String> names = new ArrayList<>();
+        for (CityTsvParser.Chunk chunk : chunks) {
+            for (int i = 0; i < chunk.size; i++) {
+                names.add(chunk.names[i]);
+                assertEquals(names.size() - 1, chunk.populations[i]);
+            }
+        }
+        assertEquals(100, names.size());
+        assertEquals("City42, NY, US", names.get(42));
+    }
+
+    @Test
+    public void testParseLineEndings() {
+        // Windows line endings, a line ending right after the population, and a trailing empty line
+        String tsv = HEADER.replace("\n", "\r\n")
+                + line("Toronto", "43.7", "-79.42", "CA", "08", "3000000").replace("\n", "\r\n")
+                + "1\tTampa\tTampa\t\t27.95\t-82.46\tP\tPPL\tUS\t\tFL\t\t\t\t400000\r\n"
+                + "\r\n";
+
+        CityTsvParser.Chunk chunk = CityTsvParser.parse(bytes(tsv))[0];
+
+        assertEquals(2, chunk.size);
+        assertEquals("Toronto, Ontario, CA", chunk.names[0]);
+        assertEquals("Tampa, FL, US", chunk.names[1]);
+        assertEquals(400000L, chunk.populations[1]);
+    }
+
+    @Test
+    public void testParseMissingColumns() {
+        String tsv = HEADER + "1\tToronto\tToronto\n";
+        assertThrows(IllegalArgumentException.class, () -> CityTsvParser.parse(bytes(tsv)));
+    }
+
+    @Test
+    public void testParseDouble() {
+        String[] values = {"0", "-0.0", "43.70011", "-79.4163", "+1.5", "12", "1e3", "0.12345678901234567"};
+        for (String value : values) {
+            assertEquals(Double.parseDouble(value), CityTsvParser.parseDouble(bytes(value), 0, value.length()), value);
+        }
+
+        // Coordinates with up to eight decimals are parsed exactly as Double.parseDouble does
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            String value = String.format(Locale.ROOT, "%.8f", (random.nextDouble() - 0.5) * 360);
+            assertEquals(Double.parseDouble(value), CityTsvParser.parseDouble(bytes(value), 0, value.length()), value);
+        }
+    }
+
+    @Test
+    public void testParseLong() {
+        assertEquals(4612191L, CityTsvParser.parseLong(bytes("4612191"), 0, 7));
+        assertEquals(-5L, CityTsvParser.parseLong(bytes("-5"), 0, 2));
+        assertEquals(0L, CityTsvParser.parseLong(bytes(""), 0, 0));
+        assertThrows(NumberFormatException.class, () -> CityTsvParser.parseLong(bytes("12a"), 0, 3));
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.geosuggest.suggestion;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionSuggestionServiceTest {
+
+    private SuggestionDAO suggestionDAO;
+    private SuggestionServiceImpl suggestionService;
+    private SessionSuggestionService sessionService;
+
+    @BeforeEach
+    public void setUp() {
+        suggestionDAO = new SuggestionDAO();
+        suggestionDAO.setCityIndex(buildIndex(2600000));
+
+        suggestionService = new SuggestionServiceImpl();
+        ReflectionTestUtils.setField(suggestionService, "suggestionDAO", suggestionDAO);
+
+        sessionService = new SessionSuggestionService();
+        ReflectionTestUtils.setField(sessionService, "suggestionService", suggestionService);
+        ReflectionTestUtils.setField(sessionService, "suggestionDAO", suggestionDAO);
+        sessionService.createSessions();
+    }
+
+    private static CityIndex buildIndex(long torontoPopulation) {
+        CityIndex.Builder builder = new CityIndex.Builder();
+        builder.addCity("Toronto, Ontario, Canada", 43.7, -79.42, torontoPopulation);
+        builder.addCity("Tampa, Florida, USA", 27.95, -82.46, 400000);
+        builder.addCity("North Toronto, Ontario, Canada", 43.72, -79.4, 90000);
+        builder.addCity("Torrance, California, USA", 33.84, -118.34, 145000);
+        builder.addCity("Vancouver, British Columbia, Canada", 49.28, -123.12, 2300000);
+        return builder.build();
+    }
+
+    // Lists the names and scores of suggestions, to compare them
+    private static List<String> describe(Iterable<SuggestionDTO> suggestions) {
+        List<String> descriptions = new ArrayList<>();
+        for (SuggestionDTO suggestion : suggestions) {
+            descriptions.add(suggestion.getName() + " " + suggestion.getScore());
+        }
+        return descriptions;
+    }
+
+    @Test
+    public void testOpenSession() {
+        String sessionId = sessionService.openSession("");
+        assertNotNull(sessionId);
+
+        // A session is only known once it has answered a query
+        assertNotEquals(sessionId, sessionService.openSession(sessionId));
+        sessionService.getCitiesSuggestions(sessionId, "t", 10);
+        assertEquals(sessionId, sessionService.openSession(sessionId));
+        assertNotEquals("unknown", sessionService.openSession("unknown"));
+    }
+
+    @Test
+    public void testGetCitiesSuggestions_sameAsWithoutSession() {
+        String sessionId = sessionService.openSession(null);
+        for (String query : new String[] {"T", "To", "Tor", "Toro", "Toronto", "Toronto ", "Toronto O", "To", "Tor"}) {
+            assertEquals(describe(suggestionService.getCitiesSuggestions(query)),
+                    describe(sessionService.getCitiesSuggestions(sessionId, query, Integer.MAX_VALUE)), query);
+            assertEquals(describe(suggestionService.getCitiesSuggestions(query, 2)),
+                    describe(sessionService.getCitiesSuggestions(sessionId, query, 2)), query);
+            assertEquals(describe(suggestionService.getCitiesSuggestions(query, 33.8, -118.3)),
+                    describe(sessionService.getCitiesSuggestions(sessionId, query, 33.8, -118.3, Integer.MAX_VALUE)), query);
+            assertEquals(describe(suggestionService.getCitiesSuggestions(query, 33.8, -118.3, 1)),
+                    describe(sessionService.getCitiesSuggestions(sessionId, query, 33.8, -118.3, 1)), query);
+        }
+    }
+
+    @Test
+    public void testGetCitiesSuggestions_narrowsDownThePreviousQuery() {
+        String sessionId = sessionService.openSession(null);
+        sessionService.getCitiesSuggestions(sessionId, "tor", Integer.MAX_VALUE);
+
+        // Vancouver does not match "tor", so it cannot be found by a query extending it in the same session
+        assertEquals(List.of(), describe(sessionService.getCitiesSuggestions(sessionId, "torvancouver", 10)));
+        // A query that does not extend the previous one searches every city
+        assertEquals("Vancouver, British Columbia, Canada",
+                sessionService.getCitiesSuggestions(sessionId, "van", 10).iterator().next().getName());
+    }
+
+    @Test
+    public void testGetCitiesSuggestions_misspelledQuery() {
+        String sessionId = sessionService.openSession(null);
+        sessionService.getCitiesSuggestions(sessionId, "Toront", 10);
+
+        // No city matches the query, so the misspelled query is corrected as without a session
+        assertEquals(describe(suggestionService.getCitiesSuggestions("Torontp", 10)),
+                describe(sessionService.getCitiesSuggestions(sessionId, "Torontp", 10)));
+        assertEquals("Toronto, Ontario, Canada",
+                sessionService.getCitiesSuggestions(sessionId, "Torontp", 10).iterator().next().getName());
+    }
+
+    @Test
+    public void testGetCitiesSuggestions_afterReload() {
+        String sessionId = sessionService.openSession(null);
+        sessionService.getCitiesSuggestions(sessionId, "t", Integer.MAX_VALUE);
+
+        // The ranks of the previous index are not reused: Toronto is now the least populated city
+        suggestionDAO.setCityIndex(buildIndex(1000));
+        assertEquals(describe(suggestionService.getCitiesSuggestions("to")),
+                describe(sessionService.getCitiesSuggestions(sessionId, "to", Integer.MAX_VALUE)));
+        assertEquals("North Toronto, Ontario, Canada",
+                sessionService.getCitiesSuggestions(sessionId, "toronto", 1).iterator().next().getName());
+    }
+}
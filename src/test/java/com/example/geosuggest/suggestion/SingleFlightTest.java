@@ -0,0 +1,114 @@
+package com.example.geosuggest.suggestion;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SingleFlightTest {
+
+    private Counter collapsed;
+    private SingleFlight<String, String> singleFlight;
+
+    @BeforeEach
+    public void setUp() {
+        collapsed = new SimpleMeterRegistry().counter("collapsed");
+        singleFlight = new SingleFlight<>(collapsed);
+    }
+
+    @Test
+    public void testExecute_concurrentCallsCollapsed() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger computations = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        try {
+            // The first call computes the value until it is released
+            Future<String> first = executor.submit(() -> singleFlight.execute("tor", () -> {
+                computations.incrementAndGet();
+                started.countDown();
+                await(release);
+                return "Toronto";
+            }));
+            started.await();
+
+            // The other calls wait for it
+            List<Future<String>> others = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                others.add(executor.submit(() -> singleFlight.execute("tor", () -> {
+                    computations.incrementAndGet();
+                    return "Torrance";
+                })));
+            }
+            while (collapsed.count() < 4) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            assertEquals("Toronto", first.get());
+            for (Future<String> other : others) {
+                assertEquals("Toronto", other.get());
+            }
+            assertEquals(1, computations.get());
+            assertEquals(0, singleFlight.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testExecute_computedAgainOnceCompleted() {
+        assertEquals("Toronto", singleFlight.execute("tor", () -> "Toronto"));
+        assertEquals("Torrance", singleFlight.execute("tor", () -> "Torrance"));
+        assertEquals(0, collapsed.count());
+        assertEquals(0, singleFlight.size());
+    }
+
+    @Test
+    public void testExecute_exceptionShared() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = executor.submit(() -> singleFlight.execute("tor", () -> {
+                started.countDown();
+                await(release);
+                throw new IllegalStateException("No cities");
+            }));
+            started.await();
+            Future<String> other = executor.submit(() -> singleFlight.execute("tor", () -> "Toronto"));
+            while (collapsed.count() < 1) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            // Both calls fail with the exception of the computation
+            Exception firstFailure = assertThrows(Exception.class, first::get);
+            Exception otherFailure = assertThrows(Exception.class, other::get);
+            assertInstanceOf(IllegalStateException.class, firstFailure.getCause());
+            assertSame(firstFailure.getCause(), otherFailure.getCause());
+            assertEquals(0, singleFlight.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Waits for a latch, failing on interruption
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,9 +1,19 @@
 package com.example.geosuggest.suggestion;
 
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 
@@ -28,6 +38,15 @@ public class SuggestionControllerTest {
     @Mock
     private SuggestionService suggestionService;
 
+    @Mock
+    private BatchSuggestionService batchSuggestionService;
+
+    @Mock
+    private SessionSuggestionService sessionSuggestionService;
+
+    @Mock
+    private SuggestionDAO suggestionDAO;
+
     @InjectMocks
     private SuggestionController suggestionController;
 
@@ -108,5 +127,208 @@ public class SuggestionControllerTest {
                 .andExpect(status().isOk());
     }
 
+    @Test
+    public void testGetSuggestions_WithLimit() throws Exception {
+        // Prepare mock data
+        SuggestionDTO dto1 = new SuggestionDTO();
+        dto1.setName("Toronto");
+        dto1.setLatitude(43.7);
+        dto1.setLongitude(-79.42);
+        dto1.setScore(1.0);
+
+        List<SuggestionDTO> mockSuggestions = Arrays.asList(dto1);
+
+        // Mock the service call
+        when(suggestionService.getCitiesSuggestions(anyString(), anyInt())).thenReturn(mockSuggestions);
+
+        // Perform the request with a limit
+        mockMvc.perform(get("/suggestions")
+                        .param("q", "to")
+                        .param("limit", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].name").value("Toronto"));
+    }
+
+    @Test
+    public void testGetSuggestions_WithInvalidLimit() throws Exception {
+        // Perform the request with a limit that cannot return any suggestion
+        mockMvc.perform(get("/suggestions")
+                        .param("q", "to")
+                        .param("limit", "0"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void testGetSuggestions_WithSession() throws Exception {
+        // Prepare mock data
+        SuggestionDTO dto1 = new SuggestionDTO();
+        dto1.setName("Toronto");
+        dto1.setLatitude(43.7);
+        dto1.setLongitude(-79.42);
+        dto1.setScore(1.0);
+
+        // Mock the service calls, an unknown session being replaced by a new one
+        when(sessionSuggestionService.openSession("new")).thenReturn("session-1");
+        when(sessionSuggestionService.getCitiesSuggestions(eq("session-1"), anyString(), anyInt()))
+                .thenReturn(List.of(dto1));
+
+        // Perform the request, which returns the id of the session
+        mockMvc.perform(get("/suggestions")
+                        .param("q", "tor")
+                        .param("limit", "5")
+                        .header(SuggestionController.SESSION_HEADER, "new"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(SuggestionController.SESSION_HEADER, "session-1"))
+                .andExpect(jsonPath("$[0].name").value("Toronto"));
+    }
+
+    @Test
+    public void testGetSuggestions_WithETag() throws Exception {
+        SuggestionDTO dto1 = new SuggestionDTO();
+        dto1.setName("Toronto");
+        when(suggestionService.getCitiesSuggestions(anyString(), anyInt())).thenReturn(List.of(dto1));
+        when(suggestionDAO.getDatasetVersion()).thenReturn(42L);
+
+        String eTag = mockMvc.perform(get("/suggestions")
+                        .param("q", "Tor")
+                        .param("limit", "5"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Cache-Control", "max-age=60, public"))
+                .andExpect(jsonPath("$[0].name").value("Toronto"))
+                .andReturn().getResponse().getHeader("ETag");
+        assertNotNull(eTag);
+        assertTrue(eTag.startsWith("\"2a-"), eTag);
+
+        // The same normalized query is not modified, and the cities are not searched again
+        mockMvc.perform(get("/suggestions")
+                        .param("q", "tor")
+                        .param("limit", "5")
+                        .header("If-None-Match", eTag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", eTag))
+                .andExpect(header().string("Cache-Control", "max-age=60, public"));
+        verify(suggestionService, times(1)).getCitiesSuggestions(anyString(), anyInt());
+
+        // Another limit has another ETag
+        mockMvc.perform(get("/suggestions")
+                        .param("q", "tor")
+                        .param("limit", "6")
+                        .header("If-None-Match", eTag))
+                .andExpect(status().isOk());
+
+        // Reloaded cities have another version, so the suggestions are searched again
+        when(suggestionDAO.getDatasetVersion()).thenReturn(43L);
+        mockMvc.perform(get("/suggestions")
+                        .param("q", "tor")
+                        .param("limit", "5")
+                        .header("If-None-Match", eTag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].name").value("Toronto"));
+        verify(suggestionService, times(3)).getCitiesSuggestions(anyString(), anyInt());
+    }
+
+    @Test
+    public void testGetSuggestions_WithETagAndOtherSettings() throws Exception {
+        when(suggestionService.getCitiesSuggestions(anyString(), anyInt())).thenReturn(List.of());
+        when(suggestionDAO.getDatasetVersion()).thenReturn(42L);
+
+        String eTag = mockMvc.perform(get("/suggestions")
+                        .param("q", "tor")
+                        .param("limit", "5"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+        assertNotNull(eTag);
+
+        // Settings that change the suggestions change the ETag, but not the dataset version it starts with
+        when(suggestionService.getSettingsFingerprint()).thenReturn(7L);
+        String otherETag = mockMvc.perform(get("/suggestions")
+                        .param("q", "tor")
+                        .param("limit", "5")
+                        .header("If-None-Match", eTag))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+        assertNotNull(otherETag);
+        assertTrue(otherETag.startsWith("\"2a-"), otherETag);
+        verify(suggestionService, times(2)).getCitiesSuggestions(anyString(), anyInt());
+    }
+
+    @Test
+    public void testGetSuggestions_WithSessionAndETag() throws Exception {
+        when(sessionSuggestionService.openSession("new")).thenReturn("session-1");
+        when(sessionSuggestionService.getCitiesSuggestions(eq("session-1"), anyString(), anyInt())).thenReturn(List.of());
+
+        // Suggestions of a session depend on its previous queries, so they are not revalidated
+        mockMvc.perform(get("/suggestions")
+                        .param("q", "tor")
+                        .header(SuggestionController.SESSION_HEADER, "new")
+                        .header("If-None-Match", "*"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("ETag"))
+                .andExpect(header().string("Cache-Control", "no-store"));
+        verify(suggestionService, never()).getCitiesSuggestions(anyString());
+    }
+
+    @Test
+    public void testGetSuggestions_WithSessionNotStored() throws Exception {
+        when(sessionSuggestionService.openSession("session-1")).thenReturn("session-1");
+        when(sessionSuggestionService.getCitiesSuggestions(eq("session-1"), anyString(), anyDouble(), anyDouble(),
+                anyInt())).thenReturn(List.of());
+
+        // The next query of the session narrows down this one, so no cache may answer it
+        mockMvc.perform(get("/suggestions")
+                        .param("q", "toro")
+                        .param("latitude", "43.7")
+                        .param("longitude", "-79.42")
+                        .header(SuggestionController.SESSION_HEADER, "session-1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Cache-Control", "no-store"))
+                .andExpect(header().string(SuggestionController.SESSION_HEADER, "session-1"));
+    }
+
+    @Test
+    public void testGetBatchSuggestions() throws Exception {
+        SuggestionDTO toronto = new SuggestionDTO();
+        toronto.setName("Toronto");
+        SuggestionDTO vancouver = new SuggestionDTO();
+        vancouver.setName("Vancouver");
+
+        when(batchSuggestionService.getMaxQueries()).thenReturn(10);
+        when(batchSuggestionService.getCitiesSuggestions(anyList()))
+                .thenReturn(List.of(List.of(toronto), List.of(vancouver)));
+
+        // The suggestions of each query come back in the order of the queries
+        mockMvc.perform(post("/suggestions/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"q\": \"to\", \"limit\": 1}, {\"q\": \"va\", \"latitude\": 49.2, \"longitude\": -123.1}]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0][0].name").value("Toronto"))
+                .andExpect(jsonPath("$[1][0].name").value("Vancouver"));
+    }
+
+    @Test
+    public void testGetBatchSuggestions_WithInvalidQuery() throws Exception {
+        when(batchSuggestionService.getMaxQueries()).thenReturn(10);
+
+        // A single invalid query rejects the whole batch
+        mockMvc.perform(post("/suggestions/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"q\": \"to\"}, {\"q\": \"va\", \"limit\": 0}]"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(post("/suggestions/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"limit\": 1}]"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void testGetBatchSuggestions_WithTooManyQueries() throws Exception {
+        when(batchSuggestionService.getMaxQueries()).thenReturn(1);
+
+        mockMvc.perform(post("/suggestions/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"q\": \"to\"}, {\"q\": \"va\"}]"))
+                .andExpect(status().isBadRequest());
+    }
+
     // Additional tests for edge cases can be added here
 }
\ No newline at end of file
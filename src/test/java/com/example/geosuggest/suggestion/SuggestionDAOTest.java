@@ -1,18 +1,25 @@
 package com.example.geosuggest.suggestion;
 
-import com.example.geosuggest.suggestion.trie.Trie;
+import com.example.geosuggest.suggestion.util.GeoCalculator;
+import com.example.geosuggest.suggestion.util.ScoreCalculator;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.InjectMocks;
 import org.mockito.MockitoAnnotations;
 import org.mockito.Spy;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.StringReader;
-import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.doNothing;
@@ -26,8 +33,10 @@ public class SuggestionDAOTest {
     @Spy
     private SuggestionDAO suggestionDAOSpy; // Declare a spy for SuggestionDAO
 
+    private CityIndex cityIndex; // The index the mock data is loaded into
+
     @BeforeEach
-    public void setUp() throws IOException, NoSuchFieldException, IllegalAccessException {
+    public void setUp() throws IOException {
         // Initialize mocks
         MockitoAnnotations.openMocks(this);
 
@@ -43,9 +52,10 @@ public class SuggestionDAOTest {
         loadMockData(suggestionDAOSpy); // Load mock data into the spy
 
         this.suggestionDAO = suggestionDAOSpy; // Set the spyDAO as the suggestionDAO instance
+        this.cityIndex = suggestionDAO.getCityIndex();
     }
 
-    private void loadMockData(SuggestionDAO dao) throws IOException, NoSuchFieldException, IllegalAccessException {
+    private void loadMockData(SuggestionDAO dao) throws IOException {
         String mockData = "City\tCountry\tRegion\tPopulation\tLatitude\tLongitude\n"
                 + "Toronto\tCanada\tOntario\t3000000\t43.7\t-79.42\n"
                 + "Tampa\tUSA\tFlorida\t400000\t27.95\t-82.46\n"
@@ -56,7 +66,8 @@ public class SuggestionDAOTest {
 
         BufferedReader reader = new BufferedReader(new StringReader(mockData));
 
-        // Directly insert mock data into the Trie and cities map
+        // Directly add mock data to a new index of the DAO
+        CityIndex.Builder builder = new CityIndex.Builder();
         String line;
         // Skip the first line
         reader.readLine();
@@ -71,37 +82,36 @@ public class SuggestionDAOTest {
             String administrativeDivision = province + ", " + country;
             String fullName = name + ", " + administrativeDivision;
 
-            // Accessing the citiesTrie field using reflection
-            Field trieField = SuggestionDAO.class.getDeclaredField("citiesTrie");
-            trieField.setAccessible(true); // Make the field accessible
-            Trie citiesTrie = (Trie) trieField.get(dao); // Get the Trie instance
-            citiesTrie.insert(fullName); // Insert city name into the Trie
-
-            // Accessing the cities field using reflection
-            Field citiesField = SuggestionDAO.class.getDeclaredField("cities");
-            citiesField.setAccessible(true); // Make the field accessible
-            @SuppressWarnings("unchecked") // Suppress unchecked warning for raw type
-            Map<String, GeoName> cities = (Map<String, GeoName>) citiesField.get(dao); // Get the cities map
-            GeoName geoName = new GeoName();
-            geoName.setName(fullName);
-            geoName.setLatitude(latitude);
-            geoName.setLongitude(longitude);
-            geoName.setPopulation(population);
-            cities.putIfAbsent(fullName, geoName); // Insert GeoName into cities map
+            builder.addCity(fullName, latitude, longitude, population); // Insert city into the Trie and columns
         }
+
+        // Build the token and spatial indexes over the mock data
+        dao.setCityIndex(builder.build());
+    }
+
+    // Maps city ids to their full names
+    private static List<String> getCityNames(CityIndex cities, int[] cityIds) {
+        return Arrays.stream(cityIds).mapToObj(cities::getCityName).toList();
+    }
+
+    // Computes the distance between a city and the given coordinates
+    private double getCityDistance(String city, double latitude, double longitude) {
+        int cityId = cityIndex.getCityId(city);
+        return GeoCalculator.haversineDistance(longitude, latitude,
+                cityIndex.getCityLongitude(cityId), cityIndex.getCityLatitude(cityId));
     }
 
     @Test
-    public void testGetCitiesStartingWithPrefixSortedByPopulation() {
-        List<String> cities = suggestionDAO.getCitiesStartingWithPrefixSortedByPopulation("T");
+    public void testGetCitiesMatchingWordsSortedByPopulation() {
+        List<String> cities = getCityNames(cityIndex, cityIndex.getCityIdsMatchingWordsSortedByPopulation("T"));
         assertEquals(2, cities.size());
         assertEquals("Toronto, Ontario, Canada", cities.get(0)); // Highest population
         assertEquals("Tampa, Florida, USA", cities.get(1));
     }
 
     @Test
-    public void testGetCitiesStartingWithPrefixNearest() {
-        List<String> cities = suggestionDAO.getCitiesStartingWithPrefixNearest("V", 49.25, -123.12);
+    public void testGetCitiesMatchingWordsNearest() {
+        List<String> cities = getCityNames(cityIndex, cityIndex.getNearestCitiesMatchingWords("V", 49.25, -123.12).getCityIds());
         assertEquals(2, cities.size());
         assertEquals("Vancouver, British Columbia, Canada", cities.get(0));
         assertEquals("Victoria, British Columbia, Canada", cities.get(1));
@@ -109,25 +119,294 @@ public class SuggestionDAOTest {
 
     @Test
     public void testGetCityPopulation() {
-        long population = suggestionDAO.getCityPopulation("Toronto, Ontario, Canada");
+        long population = cityIndex.getCityPopulation(cityIndex.getCityId("Toronto, Ontario, Canada"));
         assertEquals(3000000L, population);
     }
 
     @Test
     public void testGetCityLatitude() {
-        double latitude = suggestionDAO.getCityLatitude("Calgary, Alberta, Canada");
+        double latitude = cityIndex.getCityLatitude(cityIndex.getCityId("Calgary, Alberta, Canada"));
         assertEquals(51.04, latitude);
     }
 
     @Test
     public void testGetCityLongitude() {
-        double longitude = suggestionDAO.getCityLongitude("Montreal, Quebec, Canada");
+        double longitude = cityIndex.getCityLongitude(cityIndex.getCityId("Montreal, Quebec, Canada"));
         assertEquals(-73.56, longitude);
     }
 
     @Test
-    public void testGetCityRelativeDistance() {
-        double distance = suggestionDAO.getCityRelativeDistance("Toronto, Ontario, Canada", 49.25, -123.12);
-        assertTrue(distance >= 0); // Distance should be non-negative
+    public void testGetCitiesMatchingWordsSortedByPopulation_WithLimit() {
+        List<String> cities = getCityNames(cityIndex, cityIndex.getCityIdsMatchingWordsSortedByPopulation("V", 1));
+        assertEquals(1, cities.size());
+        assertEquals("Vancouver, British Columbia, Canada", cities.get(0)); // Highest population
+    }
+
+    @Test
+    public void testGetCitiesMatchingWordsNearest_WithLimit() {
+        List<String> cities = getCityNames(cityIndex, cityIndex.getNearestCitiesMatchingWords("V", 48.43, -123.37, 1).getCityIds());
+        assertEquals(1, cities.size());
+        assertEquals("Victoria, British Columbia, Canada", cities.get(0));
+    }
+
+    @Test
+    public void testGetNearestCitiesMatchingWords_MaxDistance() {
+        double maxDistance = cityIndex.getNearestCitiesMatchingWords("V", 48.43, -123.37, 1).getMaxDistance();
+        assertEquals(getCityDistance("Vancouver, British Columbia, Canada", 48.43, -123.37), maxDistance, 1e-9);
+        assertEquals(0.0, cityIndex.getNearestCitiesMatchingWords("X", 48.43, -123.37, 1).getMaxDistance());
+    }
+
+    @Test
+    public void testGetNearestCitiesMatchingWords_Distances() {
+        NearestCities nearestCities = cityIndex.getNearestCitiesMatchingWords("V", 49.25, -123.12);
+        int[] cityIds = nearestCities.getCityIds();
+        assertEquals(2, cityIds.length);
+        assertEquals("Vancouver, British Columbia, Canada", cityIndex.getCityName(cityIds[0]));
+        assertEquals("Victoria, British Columbia, Canada", cityIndex.getCityName(cityIds[1]));
+
+        // Distances are the ones the cities are ranked by, the farthest one being the maximum
+        double[] distances = nearestCities.getDistances();
+        assertEquals(getCityDistance("Vancouver, British Columbia, Canada", 49.25, -123.12), distances[0], 1e-9);
+        assertEquals(getCityDistance("Victoria, British Columbia, Canada", 49.25, -123.12), distances[1], 1e-9);
+        assertEquals(distances[1], nearestCities.getMaxDistance());
+    }
+
+    @Test
+    public void testGetNearestCitiesMatchingWords_WithLimit() {
+        NearestCities nearestCities = cityIndex.getNearestCitiesMatchingWords("V", 49.25, -123.12, 1);
+        assertEquals(1, nearestCities.getCityIds().length);
+        assertEquals("Vancouver, British Columbia, Canada", cityIndex.getCityName(nearestCities.getCityIds()[0]));
+        assertEquals(1, nearestCities.getDistances().length);
+
+        // The maximum distance still covers the cities that were not returned
+        double victoriaDistance = getCityDistance("Victoria, British Columbia, Canada", 49.25, -123.12);
+        assertEquals(victoriaDistance, nearestCities.getMaxDistance(), 1e-9);
+    }
+
+    @Test
+    public void testGetNearestCitiesMatchingWords_NoMatch() {
+        NearestCities nearestCities = cityIndex.getNearestCitiesMatchingWords("X", 49.25, -123.12, 3);
+        assertEquals(0, nearestCities.getCityIds().length);
+        assertEquals(0.0, nearestCities.getMaxDistance());
+    }
+
+    @Test
+    public void testGetCityIdsMatchingWordsSortedByPopulation_Columns() {
+        int[] cityIds = cityIndex.getCityIdsMatchingWordsSortedByPopulation("V");
+        assertEquals(2, cityIds.length);
+        assertEquals("Vancouver, British Columbia, Canada", cityIndex.getCityName(cityIds[0])); // Highest population
+        assertEquals(2300000L, cityIndex.getCityPopulation(cityIds[0]));
+        assertEquals(49.28, cityIndex.getCityLatitude(cityIds[0]));
+        assertEquals(-123.12, cityIndex.getCityLongitude(cityIds[0]));
+        assertEquals("Victoria, British Columbia, Canada", cityIndex.getCityName(cityIds[1]));
+
+        assertArrayEquals(new int[] {cityIds[0]}, cityIndex.getCityIdsMatchingWordsSortedByPopulation("V", 1));
+    }
+
+    @Test
+    public void testGetCityIdsStartingWithinEditsSortedByPopulation_TiesById() {
+        CityIndex cities = new CityIndex.Builder()
+                .addCity("Springfield, IL, US", 39.8, -89.65, 1000)
+                .addCity("Springfield, MA, US", 42.1, -72.59, 5000)
+                .addCity("Springfield, MO, US", 37.21, -93.29, 1000)
+                .addCity("Springfield, OR, US", 44.05, -123.02, 1000)
+                .build();
+
+        // Cities with the same population come in the order they were added
+        assertArrayEquals(new int[] {1, 0, 2, 3}, cities.getCityIdsStartingWithinEditsSortedByPopulation("Sprngfield", 1, 1, 10));
+        assertArrayEquals(new int[] {1, 0}, cities.getCityIdsStartingWithinEditsSortedByPopulation("Sprngfield", 1, 1, 2));
+    }
+
+    @Test
+    public void testGetCityIdsMatchingWordsSortedByPopulation() {
+        // Any word of the name matches, not only the first one
+        int[] cityIds = cityIndex.getCityIdsMatchingWordsSortedByPopulation("british");
+        assertEquals(2, cityIds.length);
+        assertEquals("Vancouver, British Columbia, Canada", cityIndex.getCityName(cityIds[0])); // Highest population
+        assertEquals("Victoria, British Columbia, Canada", cityIndex.getCityName(cityIds[1]));
+
+        assertArrayEquals(new int[] {cityIds[0]}, cityIndex.getCityIdsMatchingWordsSortedByPopulation("british", 1));
+        assertArrayEquals(new int[] {cityIds[1]}, cityIndex.getCityIdsMatchingWordsSortedByPopulation("Columbia, Vic"));
+        assertEquals(0, cityIndex.getCityIdsMatchingWordsSortedByPopulation("Canada, USA").length);
+    }
+
+    @Test
+    public void testGetNearestCitiesMatchingWords() {
+        NearestCities nearestCities = cityIndex.getNearestCitiesMatchingWords("Canada", 48.5, -123.4, 2);
+        int[] cityIds = nearestCities.getCityIds();
+        assertEquals(2, cityIds.length);
+        assertEquals("Victoria, British Columbia, Canada", cityIndex.getCityName(cityIds[0]));
+        assertEquals("Vancouver, British Columbia, Canada", cityIndex.getCityName(cityIds[1]));
+        assertEquals(5, cityIndex.getNearestCitiesMatchingWords("Canada", 48.5, -123.4).getCityIds().length);
+    }
+
+    @Test
+    public void testGetBlendedCitiesMatchingWords() {
+        // From Victoria, Vancouver is a little farther away but much more populated
+        BlendedCities blendedCities = cityIndex.getBlendedCitiesMatchingWords("british", 48.43, -123.37, 0.5, 100, 2);
+        int[] cityIds = blendedCities.getCityIds();
+        assertEquals("Vancouver, British Columbia, Canada", cityIndex.getCityName(cityIds[0]));
+        assertEquals("Victoria, British Columbia, Canada", cityIndex.getCityName(cityIds[1]));
+        assertTrue(blendedCities.getScores()[0] > blendedCities.getScores()[1]);
+
+        // Without the population, only the proximity counts
+        cityIds = cityIndex.getBlendedCitiesMatchingWords("british", 48.43, -123.37, 0, 100, 2).getCityIds();
+        assertEquals("Victoria, British Columbia, Canada", cityIndex.getCityName(cityIds[0]));
+        assertEquals(0, cityIndex.getBlendedCitiesMatchingWords("Canada, USA", 48.43, -123.37, 0.5, 100, 2).getCityIds().length);
+    }
+
+    @Test
+    public void testGetBlendedCitiesMatchingWords_SameAsScoringEveryCity() {
+        // Enough matching cities for the ranking to stop early
+        assertBlendedAsScoringEveryMatch(buildRandomIndex(2000), "c", 10);
+    }
+
+    @Test
+    public void testGetBlendedCitiesMatchingWords_SameAsScoringEveryMatch() {
+        // Only some cities match, and enough of them are read for the scored cities to outgrow their first table
+        assertBlendedAsScoringEveryMatch(buildRandomIndex(2000), "city 1", 10);
+        assertBlendedAsScoringEveryMatch(buildRandomIndex(2000), "city 1", 200);
+    }
+
+    private static void assertBlendedAsScoringEveryMatch(CityIndex cities, String query, int limit) {
+        Integer[] expectedIds = Arrays.stream(cities.getCityIdsMatchingWordsSortedByPopulation(query))
+                .boxed().toArray(Integer[]::new);
+        double maxPopulation = cities.getCityPopulation(expectedIds[0]);
+        double[] scores = new double[cities.getCityCount()];
+        for (int cityId : expectedIds) {
+            double distance = GeoCalculator.haversineDistance(-79.38, 43.65,
+                    cities.getCityLongitude(cityId), cities.getCityLatitude(cityId));
+            scores[cityId] = ScoreCalculator.blend(cities.getCityPopulation(cityId) / (maxPopulation + 1),
+                    ScoreCalculator.proximityScore(distance, 50), 0.3);
+        }
+        Arrays.sort(expectedIds, (a, b) -> scores[a] != scores[b] ? Double.compare(scores[b], scores[a]) : a - b);
+
+        BlendedCities blendedCities = cities.getBlendedCitiesMatchingWords(query, 43.65, -79.38, 0.3, 50, limit);
+        assertEquals(limit, blendedCities.getCityIds().length);
+        for (int i = 0; i < limit; i++) {
+            assertEquals(expectedIds[i].intValue(), blendedCities.getCityIds()[i]);
+            assertEquals(scores[expectedIds[i]], blendedCities.getScores()[i], 1e-9);
+        }
+    }
+
+    @Test
+    public void testGetNearestCitiesMatchingWords_MaxDistanceOfEveryMatch() {
+        // Enough matching cities for the farthest to be searched in the tree
+        CityIndex cities = buildRandomIndex(2000);
+        double maxDistance = cities.getNearestCitiesMatchingWords("c", 43.65, -79.38).getMaxDistance();
+        assertEquals(maxDistance, cities.getNearestCitiesMatchingWords("c", 43.65, -79.38, 10).getMaxDistance(), 1e-9);
+        assertEquals(maxDistance, cities.getNearestCitiesMatchingWords("c", 43.65, -79.38, 1000).getMaxDistance(), 1e-9);
+    }
+
+    @Test
+    public void testGetNearestCitiesMatchingWords_SameAsSortingEveryMatch() {
+        // Only some cities match, enough of them for the nearest and the farthest to be searched in the tree
+        CityIndex cities = buildRandomIndex(2000);
+        NearestCities everyMatch = cities.getNearestCitiesMatchingWords("city 1", 43.65, -79.38);
+        NearestCities nearestCities = cities.getNearestCitiesMatchingWords("city 1", 43.65, -79.38, 10);
+        assertArrayEquals(Arrays.copyOf(everyMatch.getCityIds(), 10), nearestCities.getCityIds());
+        assertEquals(everyMatch.getMaxDistance(), nearestCities.getMaxDistance(), 1e-9);
+    }
+
+    @Test
+    public void testOffHeapIndexAnswersAsOnHeap() {
+        CityIndex onHeap = buildRandomIndex(2000);
+        CityIndex offHeap = buildRandomIndex(2000, true);
+
+        for (String prefix : new String[] {"c", "city 1", "city 19", "citu 12"}) {
+            assertArrayEquals(onHeap.getCityIdsMatchingWordsSortedByPopulation(prefix),
+                    offHeap.getCityIdsMatchingWordsSortedByPopulation(prefix));
+            assertArrayEquals(onHeap.getCityIdsMatchingWordsSortedByPopulation(prefix, 10),
+                    offHeap.getCityIdsMatchingWordsSortedByPopulation(prefix, 10));
+            assertArrayEquals(onHeap.getCityIdsStartingWithinEditsSortedByPopulation(prefix, 1, 1, 10),
+                    offHeap.getCityIdsStartingWithinEditsSortedByPopulation(prefix, 1, 1, 10));
+            assertArrayEquals(onHeap.getNearestCitiesMatchingWords(prefix, 43.65, -79.38, 10).getCityIds(),
+                    offHeap.getNearestCitiesMatchingWords(prefix, 43.65, -79.38, 10).getCityIds());
+            assertArrayEquals(onHeap.getBlendedCitiesMatchingWords(prefix, 43.65, -79.38, 0.3, 50, 10).getCityIds(),
+                    offHeap.getBlendedCitiesMatchingWords(prefix, 43.65, -79.38, 0.3, 50, 10).getCityIds());
+        }
+        assertEquals(onHeap.getCityId("City 42"), offHeap.getCityId("City 42"));
+        assertEquals(onHeap.getCityLatitude(42), offHeap.getCityLatitude(42));
+    }
+
+    // Builds an index of cities named "City <n>", scattered over North America with random populations
+    private static CityIndex buildRandomIndex(int size) {
+        return buildRandomIndex(size, false);
+    }
+
+    private static CityIndex buildRandomIndex(int size, boolean offHeap) {
+        Random random = new Random(42);
+        CityIndex.Builder builder = new CityIndex.Builder(offHeap);
+        for (int i = 0; i < size; i++) {
+            builder.addCity("City " + i, 25 + 25 * random.nextDouble(), -125 + 55 * random.nextDouble(),
+                    (long) Math.pow(10, 2 + 5 * random.nextDouble()));
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void testGetCityId() {
+        assertEquals(6, cityIndex.getCityCount());
+        int cityId = cityIndex.getCityId("Calgary, Alberta, Canada");
+        assertEquals("Calgary, Alberta, Canada", cityIndex.getCityName(cityId));
+        assertThrows(IllegalArgumentException.class, () -> cityIndex.getCityId("Calgary"));
+    }
+
+    @Test
+    public void testReload(@TempDir Path directory) throws IOException {
+        String header = "id\tname\tascii\talt_name\tlat\tlong\tfeat_class\tfeat_code\tcountry\tcc2\tadmin1\tadmin2"
+                + "\tadmin3\tadmin4\tpopulation\televation\tdem\ttz\tmodified_at\n";
+        String toronto = "6167865\tToronto\tToronto\t\t43.70011\t-79.4163\tP\tPPLA\tCA\t\t08\t\t\t\t4612191\t\t175\tAmerica/Toronto\t2014-02-05\n";
+        String tampa = "4174757\tTampa\tTampa\t\t27.94752\t-82.45843\tP\tPPLA2\tUS\t\tFL\t057\t\t\t335709\t15\t7\tAmerica/New_York\t2011-05-14\n";
+        Path dataFile = directory.resolve("cities.tsv");
+        Files.writeString(dataFile, header + toronto);
+
+        SuggestionDAO dao = new SuggestionDAO();
+        ReflectionTestUtils.setField(dao, "dataSource", new FileSystemResource(dataFile));
+        dao.loadCities();
+        CityIndex previous = dao.getCityIndex();
+        assertEquals(1, previous.getCityCount());
+        long previousVersion = dao.getDatasetVersion();
+
+        Files.writeString(dataFile, header + toronto + tampa);
+        dao.reload();
+
+        // The new dataset has a new version, so the ETags of its suggestions change
+        assertNotEquals(previousVersion, dao.getDatasetVersion());
+
+        // The reload publishes a new index, and searches holding the previous one are not affected
+        CityIndex reloaded = dao.getCityIndex();
+        assertEquals(List.of("Toronto, Ontario, CA", "Tampa, FL, US"),
+                getCityNames(reloaded, reloaded.getCityIdsMatchingWordsSortedByPopulation("T")));
+        assertEquals(List.of("Toronto, Ontario, CA"),
+                getCityNames(previous, previous.getCityIdsMatchingWordsSortedByPopulation("T")));
+
+        // Replacing the index directly also gives it a new version
+        long reloadedVersion = dao.getDatasetVersion();
+        dao.setCityIndex(previous);
+        assertSame(previous, dao.getCityIndex());
+        assertNotEquals(reloadedVersion, dao.getDatasetVersion());
+    }
+
+    @Test
+    public void testDatasetVersion(@TempDir Path directory) throws IOException {
+        String header = "id\tname\tascii\talt_name\tlat\tlong\tfeat_class\tfeat_code\tcountry\tcc2\tadmin1\tadmin2"
+                + "\tadmin3\tadmin4\tpopulation\televation\tdem\ttz\tmodified_at\n";
+        String toronto = "6167865\tToronto\tToronto\t\t43.70011\t-79.4163\tP\tPPLA\tCA\t\t08\t\t\t\t4612191\t\t175\tAmerica/Toronto\t2014-02-05\n";
+        Path dataFile = Files.writeString(directory.resolve("cities.tsv"), header + toronto);
+        SuggestionDAO dao = new SuggestionDAO();
+        ReflectionTestUtils.setField(dao, "dataSource", new FileSystemResource(dataFile));
+        ReflectionTestUtils.setField(dao, "snapshotPath", directory.resolve("cities.snapshot").toString());
+        dao.loadCities();
+        long version = dao.getDatasetVersion();
+
+        // Restored from the snapshot, the index has the version it was parsed with
+        dao.reload();
+        assertEquals(version, dao.getDatasetVersion());
+
+        // A copy of the same content, modified at another time, as on another instance, has the same version
+        Files.setLastModifiedTime(dataFile, FileTime.fromMillis(0));
+        dao.reload();
+        assertEquals(version, dao.getDatasetVersion());
     }
 }
@@ -0,0 +1,87 @@
+package com.example.geosuggest.suggestion;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SuggestionMetricsTest {
+
+    private SimpleMeterRegistry registry;
+    private CityIndex cityIndex;
+
+    @BeforeEach
+    public void setUp() {
+        // Receives the meters of the global registry, as the registry of Spring Boot does
+        registry = new SimpleMeterRegistry();
+        Metrics.addRegistry(registry);
+
+        CityIndex.Builder builder = new CityIndex.Builder();
+        builder.addCity("Toronto, Ontario, Canada", 43.7, -79.42, 3000000);
+        builder.addCity("Tampa, Florida, USA", 27.95, -82.46, 400000);
+        builder.addCity("Vancouver, British Columbia, Canada", 49.28, -123.12, 2300000);
+        cityIndex = builder.build();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        Metrics.removeRegistry(registry);
+    }
+
+    private long stageCount(String stage) {
+        return registry.get("geosuggest.suggestion.stage").tag("stage", stage).timer().count();
+    }
+
+    private long candidateCount(String prefixLength) {
+        return registry.get("geosuggest.suggestion.candidates").tag("prefix.length", prefixLength).summary().count();
+    }
+
+    @Test
+    public void testWithinEditsRecordsStagesAndCandidates() {
+        cityIndex.getCityIdsStartingWithinEditsSortedByPopulation("T", 1, 0, 10);
+
+        assertEquals(1, stageCount("fuzzy"));
+        assertEquals(1, stageCount("rank"));
+        assertEquals(1, candidateCount("1"));
+        assertEquals(2.0, registry.get("geosuggest.suggestion.candidates").tag("prefix.length", "1").summary().totalAmount());
+    }
+
+    @Test
+    public void testNearestRecordsCandidatesByPrefixLength() {
+        cityIndex.getNearestCitiesMatchingWords("Vancouver, B", 49.25, -123.12, 1);
+
+        assertEquals(1, stageCount("tokens"));
+        assertEquals(1, stageCount("rank"));
+        assertEquals(1, candidateCount("6+"));
+    }
+
+    @Test
+    public void testMatchingWordsRecordsTokensAndCandidates() {
+        cityIndex.getCityIdsMatchingWordsSortedByPopulation("canada");
+
+        assertEquals(1, stageCount("tokens"));
+        assertEquals(0, stageCount("rank"));
+        assertEquals(1, candidateCount("6+"));
+        assertEquals(2.0, registry.get("geosuggest.suggestion.candidates").tag("prefix.length", "6+").summary().totalAmount());
+    }
+
+    @Test
+    public void testLimitedMatchingWordsRecordsNoCandidates() {
+        // The search stops at the first matching city, without counting the others
+        cityIndex.getCityIdsMatchingWordsSortedByPopulation("canada", 1);
+
+        assertEquals(1, stageCount("tokens"));
+        assertEquals(0, candidateCount("6+"));
+    }
+
+    @Test
+    public void testLimitedBlendRecordsCandidates() {
+        cityIndex.getBlendedCitiesMatchingWords("canada", 49.25, -123.12, 0.5, 100, 1);
+
+        assertEquals(1, candidateCount("6+"));
+        assertEquals(2.0, registry.get("geosuggest.suggestion.candidates").tag("prefix.length", "6+").summary().totalAmount());
+    }
+}
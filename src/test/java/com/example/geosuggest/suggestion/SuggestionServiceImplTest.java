@@ -9,6 +9,7 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockedStatic;
 import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
 import java.util.List;
 import java.util.Arrays;
 import com.example.geosuggest.suggestion.util.ScoreCalculator;
@@ -18,31 +19,38 @@ public class SuggestionServiceImplTest {
     @Mock
     private SuggestionDAO suggestionDAO;
 
+    @Mock
+    private CityIndex cityIndex;
+
     @InjectMocks
     private SuggestionServiceImpl suggestionService;
 
     @BeforeEach
     public void setUp() {
         MockitoAnnotations.initMocks(this);
+        when(suggestionDAO.getCityIndex()).thenReturn(cityIndex);
     }
 
     @Test
     public void testGetCitiesSuggestions_noLatLong() {
         // Mock data
         String query = "par";
-        List<String> mockCityNames = Arrays.asList("Paris", "Parma", "Park City");
+        int[] mockCityIds = {0, 1, 2};
         List<Long> mockPopulations = Arrays.asList(2000000L, 196000L, 9000L);
-        List<Double> mockScores = Arrays.asList(1.0, 0.5, 0.1);
+        double[] mockScores = {1.0, 0.5, 0.1};
 
         // Mock behavior
-        when(suggestionDAO.getCitiesStartingWithPrefixSortedByPopulation(query)).thenReturn(mockCityNames);
-        when(suggestionDAO.getCityPopulation("Paris")).thenReturn(mockPopulations.get(0));
-        when(suggestionDAO.getCityPopulation("Parma")).thenReturn(mockPopulations.get(1));
-        when(suggestionDAO.getCityPopulation("Park City")).thenReturn(mockPopulations.get(2));
-        when(suggestionDAO.getCityLatitude(anyString())).thenReturn(48.8566);
-        when(suggestionDAO.getCityLongitude(anyString())).thenReturn(2.3522);
+        when(cityIndex.getCityIdsMatchingWordsSortedByPopulation(query)).thenReturn(mockCityIds);
+        when(cityIndex.getCityName(0)).thenReturn("Paris");
+        when(cityIndex.getCityName(1)).thenReturn("Parma");
+        when(cityIndex.getCityName(2)).thenReturn("Park City");
+        when(cityIndex.getCityPopulation(0)).thenReturn(mockPopulations.get(0));
+        when(cityIndex.getCityPopulation(1)).thenReturn(mockPopulations.get(1));
+        when(cityIndex.getCityPopulation(2)).thenReturn(mockPopulations.get(2));
+        when(cityIndex.getCityLatitude(anyInt())).thenReturn(48.8566);
+        when(cityIndex.getCityLongitude(anyInt())).thenReturn(2.3522);
         MockedStatic<ScoreCalculator> mocked = mockStatic(ScoreCalculator.class);  // Mock static methods
-        when(ScoreCalculator.maxNormalized(mockPopulations)).thenReturn(mockScores);
+        when(ScoreCalculator.maxNormalized(new double[] {2000000, 196000, 9000})).thenReturn(mockScores);
 
         // Call the method to test
         Iterable<SuggestionDTO> suggestions = suggestionService.getCitiesSuggestions(query);
@@ -76,19 +84,20 @@ public class SuggestionServiceImplTest {
         String query = "par";
         double latitude = 48.8566;
         double longitude = 2.3522;
-        List<String> mockCityNames = Arrays.asList("Paris", "Parma", "Park City");
-        List<Double> mockDistances = Arrays.asList(10.0, 50.0, 100.0);
-        List<Double> mockScores = Arrays.asList(1.0, 0.8, 0.6);
+        int[] mockCityIds = {0, 1, 2};
+        double[] mockDistances = {10.0, 50.0, 100.0};
+        double[] mockScores = {1.0, 0.8, 0.6};
 
         // Mock behavior
-        when(suggestionDAO.getCitiesStartingWithPrefixNearest(query, latitude, longitude)).thenReturn(mockCityNames);
-        when(suggestionDAO.getCityRelativeDistance("Paris", latitude, longitude)).thenReturn(mockDistances.get(0));
-        when(suggestionDAO.getCityRelativeDistance("Parma", latitude, longitude)).thenReturn(mockDistances.get(1));
-        when(suggestionDAO.getCityRelativeDistance("Park City", latitude, longitude)).thenReturn(mockDistances.get(2));
-        when(suggestionDAO.getCityLatitude(anyString())).thenReturn(48.8566);
-        when(suggestionDAO.getCityLongitude(anyString())).thenReturn(2.3522);
+        when(cityIndex.getNearestCitiesMatchingWords(query, latitude, longitude))
+                .thenReturn(new NearestCities(mockCityIds, mockDistances, 100.0));
+        when(cityIndex.getCityName(0)).thenReturn("Paris");
+        when(cityIndex.getCityName(1)).thenReturn("Parma");
+        when(cityIndex.getCityName(2)).thenReturn("Park City");
+        when(cityIndex.getCityLatitude(anyInt())).thenReturn(48.8566);
+        when(cityIndex.getCityLongitude(anyInt())).thenReturn(2.3522);
         MockedStatic<ScoreCalculator> mocked = mockStatic(ScoreCalculator.class);  // Mock static methods
-        when(ScoreCalculator.maxNormalized(mockDistances)).thenReturn(mockScores);
+        when(ScoreCalculator.maxNormalized(mockDistances, 100.0)).thenReturn(mockScores);
 
         // Call the method to test
         Iterable<SuggestionDTO> suggestions = suggestionService.getCitiesSuggestions(query, latitude, longitude);
@@ -115,4 +124,132 @@ public class SuggestionServiceImplTest {
 
         mocked.close();
     }
+
+    @Test
+    public void testGetCitiesSuggestions_withLimit() {
+        // Mock data
+        String query = "par";
+        int[] mockCityIds = {0, 1};
+        List<Long> mockPopulations = Arrays.asList(2000000L, 196000L);
+        double[] mockScores = {1.0, 0.5};
+
+        // Mock behavior
+        when(cityIndex.getCityIdsMatchingWordsSortedByPopulation(query, 2)).thenReturn(mockCityIds);
+        when(cityIndex.getCityName(0)).thenReturn("Paris");
+        when(cityIndex.getCityName(1)).thenReturn("Parma");
+        when(cityIndex.getCityPopulation(0)).thenReturn(mockPopulations.get(0));
+        when(cityIndex.getCityPopulation(1)).thenReturn(mockPopulations.get(1));
+        MockedStatic<ScoreCalculator> mocked = mockStatic(ScoreCalculator.class);  // Mock static methods
+        when(ScoreCalculator.maxNormalized(new double[] {2000000, 196000})).thenReturn(mockScores);
+
+        // Call the method to test
+        List<SuggestionDTO> suggestionList = (List<SuggestionDTO>) suggestionService.getCitiesSuggestions(query, 2);
+
+        // Verify results
+        assertEquals(2, suggestionList.size());
+        assertEquals("Paris", suggestionList.get(0).getName());
+        assertEquals(1.0, suggestionList.get(0).getScore());
+        assertEquals("Parma", suggestionList.get(1).getName());
+        assertEquals(0.5, suggestionList.get(1).getScore());
+
+        mocked.close();
+    }
+
+    @Test
+    public void testGetCitiesSuggestions_withLatLongAndLimit() {
+        // Mock data
+        String query = "par";
+        double latitude = 48.8566;
+        double longitude = 2.3522;
+        int[] mockCityIds = {0, 1};
+        double[] mockDistances = {10.0, 50.0};
+        double[] mockScores = {0.1, 0.5};
+
+        // Mock behavior
+        when(cityIndex.getNearestCitiesMatchingWords(query, latitude, longitude, 2))
+                .thenReturn(new NearestCities(mockCityIds, mockDistances, 100.0));
+        when(cityIndex.getCityName(0)).thenReturn("Paris");
+        when(cityIndex.getCityName(1)).thenReturn("Parma");
+        MockedStatic<ScoreCalculator> mocked = mockStatic(ScoreCalculator.class);  // Mock static methods
+        when(ScoreCalculator.maxNormalized(mockDistances, 100.0)).thenReturn(mockScores);
+
+        // Call the method to test
+        List<SuggestionDTO> suggestionList = (List<SuggestionDTO>) suggestionService.getCitiesSuggestions(query, latitude, longitude, 2);
+
+        // Verify results, normalized against the farthest matching city
+        assertEquals(2, suggestionList.size());
+        assertEquals("Paris", suggestionList.get(0).getName());
+        assertEquals(1 - 0.1, suggestionList.get(0).getScore());
+        assertEquals("Parma", suggestionList.get(1).getName());
+        assertEquals(1 - 0.5, suggestionList.get(1).getScore());
+
+        mocked.close();
+    }
+
+    @Test
+    public void testGetCitiesSuggestions_misspelledQuery() {
+        // Mock data
+        String query = "Torontp";
+        int[] mockCityIds = {0};
+
+        // Mock behavior: no city starts with the query, one starts within 2 edits of it
+        when(cityIndex.getCityIdsMatchingWordsSortedByPopulation(query, 5)).thenReturn(new int[0]);
+        when(cityIndex.getCityIdsStartingWithinEditsSortedByPopulation(query, 1, 2, 5)).thenReturn(mockCityIds);
+        when(cityIndex.getCityName(0)).thenReturn("Toronto");
+        when(cityIndex.getCityPopulation(0)).thenReturn(2600000L);
+
+        // Call the method to test
+        List<SuggestionDTO> suggestionList = (List<SuggestionDTO>) suggestionService.getCitiesSuggestions(query, 5);
+
+        // Verify results
+        assertEquals(1, suggestionList.size());
+        assertEquals("Toronto", suggestionList.get(0).getName());
+    }
+
+    @Test
+    public void testGetCitiesSuggestions_shortQueryNotMisspelled() {
+        // Mock behavior: no city starts with the query
+        when(cityIndex.getCityIdsMatchingWordsSortedByPopulation("Xq", 5)).thenReturn(new int[0]);
+
+        // Call the method to test
+        List<SuggestionDTO> suggestionList = (List<SuggestionDTO>) suggestionService.getCitiesSuggestions("Xq", 5);
+
+        // Queries of 2 characters are too short to be corrected
+        assertTrue(suggestionList.isEmpty());
+        verify(cityIndex, never()).getCityIdsStartingWithinEditsSortedByPopulation(anyString(), anyInt(), anyInt(), anyInt());
+    }
+
+    @Test
+    public void testGetCitiesSuggestions_shortNormalizedQueryNotMisspelled() {
+        // Mock behavior: no city starts with the query
+        when(cityIndex.getCityIdsMatchingWordsSortedByPopulation("  a.", 5)).thenReturn(new int[0]);
+        when(cityIndex.getCityIdsMatchingWordsSortedByPopulation("\u00e9-", 5)).thenReturn(new int[0]);
+
+        // Call the method to test
+        suggestionService.getCitiesSuggestions("  a.", 5);
+        suggestionService.getCitiesSuggestions("\u00e9-", 5);
+
+        // Once normalized, the queries are 1 and 2 characters long, too short to be corrected
+        verify(cityIndex, never()).getCityIdsStartingWithinEditsSortedByPopulation(anyString(), anyInt(), anyInt(), anyInt());
+    }
+
+    @Test
+    public void testGetCitiesSuggestions_blended() {
+        // Rank by population as much as by proximity, proximity halving at 100 km
+        ReflectionTestUtils.setField(suggestionService, "populationWeight", 0.5);
+        when(cityIndex.getBlendedCitiesMatchingWords("tor", 43.6, -79.4, 0.5, 100, 2))
+                .thenReturn(new BlendedCities(new int[] {0, 1}, new double[] {0.9, 0.4}));
+        when(cityIndex.getCityName(0)).thenReturn("Toronto");
+        when(cityIndex.getCityName(1)).thenReturn("Torbay");
+
+        // Call the method to test
+        List<SuggestionDTO> suggestionList = (List<SuggestionDTO>) suggestionService.getCitiesSuggestions("tor", 43.6, -79.4, 2);
+
+        // The blended scores are returned as they are
+        assertEquals(2, suggestionList.size());
+        assertEquals("Toronto", suggestionList.get(0).getName());
+        assertEquals(0.9, suggestionList.get(0).getScore());
+        assertEquals(0.4, suggestionList.get(1).getScore());
+        verify(cityIndex, never()).getNearestCitiesMatchingWords(anyString(), anyDouble(), anyDouble(), anyInt());
+    }
 }
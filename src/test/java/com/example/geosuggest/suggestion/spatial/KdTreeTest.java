@@ -0,0 +1,80 @@
+package com.example.geosuggest.suggestion.spatial;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KdTreeTest {
+
+    // Toronto, Tampa, Vancouver, Victoria, Calgary, Montreal, Fiji (east of the antimeridian), Fiji (west of it)
+    private final double[] latitudes = {43.7, 27.95, 49.28, 48.43, 51.04, 45.5, -17.8, -16.5};
+    private final double[] longitudes = {-79.42, -82.46, -123.12, -123.37, -114.07, -73.56, 178.0, -179.9};
+
+    private KdTree tree;
+
+    @BeforeEach
+    public void setUp() {
+        tree = new KdTree(latitudes.length, id -> latitudes[id], id -> longitudes[id]);
+    }
+
+    @Test
+    public void testNearest_BestFirstOrder() {
+        // From Vancouver: Vancouver, Victoria, Calgary
+        int[] nearest = tree.nearest(49.25, -123.12, 3, id -> true);
+        assertArrayEquals(new int[] {2, 3, 4}, nearest);
+    }
+
+    @Test
+    public void testNearest_WithFilter() {
+        // From Vancouver, only considering the eastern cities: Toronto then Montreal
+        int[] nearest = tree.nearest(49.25, -123.12, 2, id -> id == 0 || id == 5);
+        assertArrayEquals(new int[] {0, 5}, nearest);
+    }
+
+    @Test
+    public void testNearest_FewerMatchesThanLimit() {
+        int[] nearest = tree.nearest(49.25, -123.12, 5, id -> id == 1);
+        assertArrayEquals(new int[] {1}, nearest);
+    }
+
+    @Test
+    public void testNearest_AcrossAntimeridian() {
+        // Just east of the antimeridian, the city across it is nearer than any city of North America
+        int[] nearest = tree.nearest(-16.6, 179.9, 2, id -> true);
+        assertArrayEquals(new int[] {7, 6}, nearest);
+    }
+
+    @Test
+    public void testNearest_AmongCandidates() {
+        // From Toronto, among Tampa, Montreal and Calgary
+        int[] nearest = tree.nearest(43.7, -79.42, 2, new int[] {1, 5, 4});
+        assertArrayEquals(new int[] {5, 1}, nearest);
+    }
+
+    @Test
+    public void testCursor_TakesPointsOneAtATime() {
+        // From Vancouver, only considering the western cities, until there is none left
+        KdTree.Cursor cursor = tree.cursor(49.25, -123.12, id -> id >= 2 && id <= 4);
+        assertEquals(2, cursor.next());
+        assertEquals(3, cursor.next());
+        assertEquals(4, cursor.next());
+        assertEquals(-1, cursor.next());
+        assertEquals(-1, new KdTree(0, id -> 0, id -> 0).cursor(43.7, -79.42, id -> true).next());
+    }
+
+    @Test
+    public void testFarthest() {
+        // From Vancouver: Fiji, Tampa among the North American cities, and Montreal among the Canadian ones
+        assertEquals(6, tree.farthest(49.25, -123.12, id -> true));
+        assertEquals(1, tree.farthest(49.25, -123.12, id -> id < 6));
+        assertEquals(5, tree.farthest(49.25, -123.12, id -> id != 1 && id < 6));
+        assertEquals(-1, tree.farthest(49.25, -123.12, id -> false));
+    }
+
+    @Test
+    public void testNearest_EmptyTree() {
+        KdTree emptyTree = new KdTree(0, id -> 0, id -> 0);
+        assertEquals(0, emptyTree.nearest(43.7, -79.42, 3, id -> true).length);
+    }
+}
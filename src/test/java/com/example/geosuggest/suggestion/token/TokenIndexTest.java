@@ -0,0 +1,116 @@
+package com.example.geosuggest.suggestion.token;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenIndexTest {
+
+    private TokenIndex index;
+
+    @BeforeEach
+    public void setUp() {
+        index = new TokenIndex.Builder()
+                .add("new york city new york usa", 0)
+                .add("toronto ontario canada", 1)
+                .add("north york ontario canada", 2)
+                .add("newark new jersey usa", 3)
+                .add("york pennsylvania usa", 4)
+                .add("nyc", 0)
+                .build(5);
+    }
+
+    @Test
+    public void testSearch_anyWordOfTheName() {
+        assertArrayEquals(new int[]{0, 2, 4}, index.search("york", 10));
+        assertArrayEquals(new int[]{1, 2}, index.search("ontario", 10));
+        assertArrayEquals(new int[]{0}, index.search("nyc", 10));
+    }
+
+    @Test
+    public void testSearch_lastWordIsAPrefix() {
+        assertArrayEquals(new int[]{0, 3}, index.search("ne", 10));
+        assertArrayEquals(new int[]{0, 2, 4}, index.search("yo", 10));
+        assertArrayEquals(new int[]{2}, index.search("york no", 10));
+    }
+
+    @Test
+    public void testSearch_wordsInAnyOrder() {
+        assertArrayEquals(new int[]{2}, index.search("north york", 10));
+        assertArrayEquals(new int[]{2}, index.search("york north", 10));
+        assertArrayEquals(new int[]{0, 3}, index.search("new usa", 10));
+    }
+
+    @Test
+    public void testSearch_trailingSpaceCompletesTheLastWord() {
+        assertArrayEquals(new int[]{0, 3}, index.search("new ", 10));
+        assertArrayEquals(new int[0], index.search("yor ", 10));
+    }
+
+    @Test
+    public void testSearch_noMatch() {
+        assertArrayEquals(new int[0], index.search("boston", 10));
+        assertArrayEquals(new int[0], index.search("paris york", 10));
+        assertArrayEquals(new int[0], index.search("toronto usa", 10));
+    }
+
+    @Test
+    public void testSearch_emptyQueryMatchesEveryName() {
+        assertArrayEquals(new int[]{0, 1, 2, 3, 4}, index.search("", 10));
+        assertArrayEquals(new int[]{0, 1}, index.search("", 2));
+    }
+
+    @Test
+    public void testSearch_limit() {
+        assertArrayEquals(new int[]{0, 2}, index.search("york", 2));
+        assertArrayEquals(new int[]{0}, index.search("n", 1));
+        assertArrayEquals(new int[]{0}, index.search("usa ne", 1));
+        assertArrayEquals(new int[0], index.search("york", 0));
+    }
+
+    @Test
+    public void testSearch_amongCandidates() {
+        // The names matching "n" narrow down to those matching "ne", then "new y"
+        int[] candidates = index.search("n", 10);
+        assertArrayEquals(new int[]{0, 2, 3}, candidates);
+        assertArrayEquals(new int[]{0, 3}, index.search("ne", candidates, 10));
+        assertArrayEquals(new int[]{0}, index.search("new y", new int[]{0, 3}, 10));
+        assertArrayEquals(new int[]{0}, index.search("ne", candidates, 1));
+        assertArrayEquals(new int[0], index.search("nx", candidates, 10));
+
+        // The candidates are left unchanged, and give the same ids as the posting lists
+        assertArrayEquals(new int[]{0, 2, 3}, candidates);
+        assertArrayEquals(index.search("new ", 10), index.search("new ", candidates, 10));
+    }
+
+    @Test
+    public void testGetTokenCount() {
+        // "new" and "york" are counted once, though they appear twice in the first name
+        assertEquals(12, index.getTokenCount());
+        assertTrue(index.getEstimatedBytes() > 0);
+    }
+
+    @Test
+    public void testWriteToAndReadFrom() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        index.writeTo(out);
+        out.writeInt(42);
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        TokenIndex restored = TokenIndex.readFrom(buffer);
+
+        // The buffer is left positioned after the index
+        assertEquals(42, buffer.getInt());
+        assertEquals(index.getTokenCount(), restored.getTokenCount());
+        assertArrayEquals(new int[]{0, 2, 4}, restored.search("york", 10));
+        assertArrayEquals(new int[]{2}, restored.search("north yo", 10));
+        assertArrayEquals(new int[]{0, 1, 2, 3, 4}, restored.search("", 10));
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.geosuggest.suggestion.trie;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OffHeapTrieTest {
+
+    private static final String[] PREFIXES = {"", "t", "to", "tor", "toronto", "toronto o", "van", "vancover", "x", "zz"};
+
+    private Trie trie;
+    private OffHeapTrie offHeapTrie;
+
+    @BeforeEach
+    public void setUp() {
+        trie = new Trie();
+        trie.insert("toronto ontario", 0);
+        trie.insert("toronto ohio", 1);
+        trie.insert("vancouver british columbia", 2);
+        trie.insert("tampa florida", 3);
+        trie.insert("tor", 4);
+        // An alternate name of the first city, and a word without id
+        trie.insert("the six", 0);
+        trie.insert("to");
+        offHeapTrie = OffHeapTrie.copyOf(trie);
+    }
+
+    private static int[] sorted(int[] ids) {
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    @Test
+    public void testGetId() {
+        assertEquals(0, offHeapTrie.getId("toronto ontario"));
+        assertEquals(0, offHeapTrie.getId("the six"));
+        assertEquals(4, offHeapTrie.getId("tor"));
+        assertEquals(-1, offHeapTrie.getId("to"));
+        assertEquals(-1, offHeapTrie.getId("toronto"));
+        assertEquals(-1, offHeapTrie.getId("toronto ontario canada"));
+        assertEquals(trie.getNodeCount(), offHeapTrie.getNodeCount());
+    }
+
+    @Test
+    public void testSearchesMatchTrie() {
+        for (String prefix : PREFIXES) {
+            assertArrayEquals(sorted(trie.getIdsStartingWith(prefix)), sorted(offHeapTrie.getIdsStartingWith(prefix)), prefix);
+            assertArrayEquals(sorted(trie.getIdsStartingWithin(prefix, 1, 1)),
+                    sorted(offHeapTrie.getIdsStartingWithin(prefix, 1, 1)), prefix);
+            assertArrayEquals(sorted(trie.getIdsStartingWithin(prefix, 0, 2)),
+                    sorted(offHeapTrie.getIdsStartingWithin(prefix, 0, 2)), prefix);
+        }
+    }
+
+    @Test
+    public void testRandomWordsMatchTrie() {
+        Random random = new Random(42);
+        Trie randomTrie = new Trie();
+        for (int id = 0; id < 2000; id++) {
+            StringBuilder word = new StringBuilder();
+            for (int length = 1 + random.nextInt(8); length > 0; length--) {
+                word.append((char) ('a' + random.nextInt(4)));
+            }
+            randomTrie.insert(word.toString(), id);
+        }
+        OffHeapTrie copy = OffHeapTrie.copyOf(randomTrie);
+
+        for (String prefix : new String[] {"", "a", "ab", "abc", "dcba", "abcdabcd"}) {
+            assertArrayEquals(sorted(randomTrie.getIdsStartingWith(prefix)), sorted(copy.getIdsStartingWith(prefix)));
+            assertArrayEquals(sorted(randomTrie.getIdsStartingWithin(prefix, 1, 2)),
+                    sorted(copy.getIdsStartingWithin(prefix, 1, 2)));
+        }
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        // What an off-heap trie writes is read back by a trie on the heap, and the other way around
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            offHeapTrie.writeTo(out);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        Trie restored = Trie.readFrom(buffer);
+        assertFalse(buffer.hasRemaining());
+
+        for (String prefix : PREFIXES) {
+            assertArrayEquals(sorted(trie.getIdsStartingWith(prefix)), sorted(restored.getIdsStartingWith(prefix)));
+        }
+        assertEquals(-1, restored.getId("to"));
+        assertEquals(trie.getLettersStartingWith(""), restored.getLettersStartingWith(""));
+
+        buffer.rewind();
+        OffHeapTrie reread = OffHeapTrie.readFrom(buffer);
+        assertFalse(buffer.hasRemaining());
+        assertEquals(trie.getNodeCount(), reread.getNodeCount());
+        assertArrayEquals(new int[] {0, 1, 3, 4}, sorted(reread.getIdsStartingWith("t")));
+    }
+
+    @Test
+    public void testReadCorrupted() {
+        ByteBuffer buffer = ByteBuffer.allocate(8).putInt(-1).putInt(0).flip();
+        assertThrows(IllegalArgumentException.class, () -> OffHeapTrie.readFrom(buffer));
+    }
+}
@@ -2,6 +2,12 @@ package com.example.geosuggest.suggestion.trie;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -81,4 +87,141 @@ public class TrieTest {
         List<String> result = trie.getLettersStartingWith("zoo");
         assertTrue(result.isEmpty());
     }
+
+    @Test
+    public void testGetTopLettersStartingWith() {
+        // Keep the two longest words starting with "app"
+        List<String> result = trie.getTopLettersStartingWith("app", 2, Comparator.comparingInt(String::length).reversed());
+        assertEquals(List.of("application", "apple"), result);
+    }
+
+    @Test
+    public void testGetTopLettersStartingWith_LimitLargerThanMatches() {
+        // All matching words are returned, sorted by the given order
+        List<String> result = trie.getTopLettersStartingWith("bat", 10, Comparator.naturalOrder());
+        assertEquals(List.of("bat", "batch", "batman"), result);
+    }
+
+    @Test
+    public void testGetTopLettersStartingWith_NonExistentPrefix() {
+        List<String> result = trie.getTopLettersStartingWith("cat", 3, Comparator.naturalOrder());
+        assertTrue(result.isEmpty());
+    }
+
+    @Test
+    public void testGetIdsStartingWithin() {
+        Trie fuzzyTrie = new Trie();
+        fuzzyTrie.insert("toronto", 0);
+        fuzzyTrie.insert("torino", 1);
+        fuzzyTrie.insert("vancouver", 2);
+        fuzzyTrie.insert("victoria", 3);
+
+        // A substitution, a deletion and a transposition (two edits)
+        assertArrayEquals(new int[] {0}, sorted(fuzzyTrie.getIdsStartingWithin("torontp", 0, 1)));
+        assertArrayEquals(new int[] {2}, sorted(fuzzyTrie.getIdsStartingWithin("vancover", 0, 1)));
+        assertArrayEquals(new int[0], sorted(fuzzyTrie.getIdsStartingWithin("vacnouver", 0, 1)));
+        assertArrayEquals(new int[] {2}, sorted(fuzzyTrie.getIdsStartingWithin("vacnouver", 0, 2)));
+
+        // Prefixes of the words match too, and exact matches are included
+        assertArrayEquals(new int[] {0, 1}, sorted(fuzzyTrie.getIdsStartingWithin("tori", 0, 1)));
+        assertArrayEquals(new int[] {0}, sorted(fuzzyTrie.getIdsStartingWithin("toro", 0, 0)));
+
+        // A prefix within the distance of the empty string matches every word
+        assertArrayEquals(new int[] {0, 1, 2, 3}, sorted(fuzzyTrie.getIdsStartingWithin("xy", 0, 2)));
+    }
+
+    @Test
+    public void testGetIdsStartingWithin_ExactLength() {
+        Trie fuzzyTrie = new Trie();
+        fuzzyTrie.insert("toronto", 0);
+        fuzzyTrie.insert("moronto", 1);
+
+        // The first character may be misspelled only if it is not required to match exactly
+        assertArrayEquals(new int[] {0, 1}, sorted(fuzzyTrie.getIdsStartingWithin("boronto", 0, 1)));
+        assertArrayEquals(new int[0], sorted(fuzzyTrie.getIdsStartingWithin("boronto", 1, 1)));
+        assertArrayEquals(new int[] {0}, sorted(fuzzyTrie.getIdsStartingWithin("torontp", 1, 1)));
+        assertArrayEquals(new int[] {1}, sorted(fuzzyTrie.getIdsStartingWithin("mo", 1, 2)));
+    }
+
+    private static int[] sorted(int[] ids) {
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    @Test
+    public void testGetId() {
+        Trie idTrie = new Trie();
+        idTrie.insert("apple", 0);
+        idTrie.insert("application", 1);
+
+        assertEquals(0, idTrie.getId("apple"));
+        assertEquals(1, idTrie.getId("application"));
+        // Prefixes, including one ending inside a compressed edge, are not words
+        assertEquals(-1, idTrie.getId("appl"));
+        assertEquals(-1, idTrie.getId("applic"));
+        assertEquals(-1, idTrie.getId("banana"));
+    }
+
+    @Test
+    public void testIdsSharedByWords() {
+        // A word known by several names, one of which also has its own id
+        Trie aliasTrie = new Trie();
+        aliasTrie.insert("new york", 0);
+        aliasTrie.insert("nyc", 0);
+        aliasTrie.insert("new amsterdam", 0);
+        aliasTrie.insert("newark", 1);
+
+        assertEquals(0, aliasTrie.getId("nyc"));
+        assertEquals(-1, aliasTrie.getId("new"));
+        assertArrayEquals(new int[] {0, 1}, sorted(aliasTrie.getIdsStartingWith("n")));
+        assertArrayEquals(new int[] {0}, aliasTrie.getIdsStartingWith("new "));
+        assertArrayEquals(new int[] {0, 1}, sorted(aliasTrie.getIdsStartingWithin("nea", 1, 1)));
+    }
+
+    @Test
+    public void testWriteToAndReadFrom() throws IOException {
+        String[] words = {"apple", "app", "application"};
+        Trie idTrie = new Trie();
+        for (int id = 0; id < words.length; id++) {
+            idTrie.insert(words[id], id);
+        }
+        idTrie.insert("bat");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        idTrie.writeTo(new DataOutputStream(bytes));
+        Trie restored = Trie.readFrom(ByteBuffer.wrap(bytes.toByteArray()));
+
+        assertEquals(idTrie.getNodeCount(), restored.getNodeCount());
+        assertEquals(List.of("app", "apple", "application"), restored.getLettersStartingWith("app"));
+        assertEquals(List.of("bat"), restored.getLettersStartingWith("b"));
+        assertEquals(2, restored.getId("application"));
+        assertArrayEquals(new int[] {0, 1, 2}, sorted(restored.getIdsStartingWith("")));
+        assertArrayEquals(new int[] {0, 2}, sorted(restored.getIdsStartingWith("appl")));
+    }
+
+    @Test
+    public void testSearchPrefixEndingInsideCompressedEdge() {
+        // "applic" ends inside the edge leading to "application"
+        assertEquals(List.of("application"), trie.getLettersStartingWith("applic"));
+        // "applix" diverges inside that edge
+        assertTrue(trie.getLettersStartingWith("applix").isEmpty());
+    }
+
+    @Test
+    public void testNodeCount() {
+        // Root, "app", "l", "e", "ication", "bat", "ch" and "man"
+        assertEquals(8, trie.getNodeCount());
+        assertTrue(trie.getEstimatedBytes() > 0);
+    }
+
+    @Test
+    public void testInsertSplitsCompressedEdge() {
+        // "appliance" splits the edge leading to "application"
+        trie.insert("appliance");
+        assertEquals(10, trie.getNodeCount());
+        List<String> result = trie.getLettersStartingWith("appli");
+        assertTrue(result.contains("application"));
+        assertTrue(result.contains("appliance"));
+        assertEquals(2, result.size());
+    }
 }
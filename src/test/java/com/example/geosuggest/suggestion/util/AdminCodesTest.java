@@ -0,0 +1,86 @@
+package com.example.geosuggest.suggestion.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+public class AdminCodesTest {
+
+    private static final String REGIONS = "CA.08\tOntario\tOntario\t6093943\n"
+            + "CA.10\tQuebec\tQuebec\t6115047\n"
+            + "US.NY\tNew York\tNew York\t5128638\n";
+
+    private static final String COUNTRIES = "# GeoNames countryInfo.txt\n"
+            + "#ISO\tISO3\tISO-Numeric\tfips\tCountry\tCapital\n"
+            + "CA\tCAN\t124\tCA\tCanada\tOttawa\n"
+            + "US\tUSA\t840\tUS\tUnited States\tWashington\n";
+
+    private static InputStream bytes(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testRead() throws IOException {
+        AdminCodes adminCodes = AdminCodes.read(bytes(REGIONS), bytes(COUNTRIES));
+
+        assertEquals(3, adminCodes.getRegionCount());
+        assertEquals("Ontario", adminCodes.getRegionName("CA", "08"));
+        assertEquals("New York", adminCodes.getRegionName("US", "NY"));
+        assertEquals("Canada", adminCodes.getCountryName("CA"));
+        assertEquals("United States", adminCodes.getCountryName("US"));
+    }
+
+    @Test
+    public void testRegionIds() throws IOException {
+        AdminCodes adminCodes = AdminCodes.read(bytes(REGIONS), null);
+
+        int ontario = adminCodes.getRegionId("CA", "08");
+        int quebec = adminCodes.getRegionId("CA", "10");
+        assertTrue(ontario >= 0 && ontario < adminCodes.getRegionCount());
+        assertNotEquals(ontario, quebec);
+        assertEquals("Ontario", adminCodes.getRegionName(ontario));
+        assertEquals("Quebec", adminCodes.getRegionName(quebec));
+
+        // The admin1 code is only unique within its country
+        assertEquals(-1, adminCodes.getRegionId("US", "08"));
+    }
+
+    @Test
+    public void testUnknownCodes() throws IOException {
+        AdminCodes adminCodes = AdminCodes.read(bytes(REGIONS), null);
+
+        assertEquals("FL", adminCodes.getRegionName("US", "FL"));
+        assertEquals("CA", adminCodes.getCountryName("CA"));
+        assertEquals("", adminCodes.getRegionName("CA", ""));
+    }
+
+    @Test
+    public void testFips() {
+        AdminCodes adminCodes = AdminCodes.fips();
+
+        assertEquals("Ontario", adminCodes.getRegionName("CA", "08"));
+        assertEquals("Nunavut", adminCodes.getRegionName("CA", "14"));
+        assertEquals("NY", adminCodes.getRegionName("US", "NY"));
+        assertEquals("US", adminCodes.getCountryName("US"));
+    }
+
+    @Test
+    public void testFingerprint() throws IOException {
+        long fingerprint = AdminCodes.read(bytes(REGIONS), bytes(COUNTRIES)).getFingerprint();
+
+        assertEquals(fingerprint, AdminCodes.read(bytes(REGIONS), bytes(COUNTRIES)).getFingerprint());
+        assertNotEquals(fingerprint, AdminCodes.read(bytes(REGIONS), null).getFingerprint());
+        assertNotEquals(fingerprint, AdminCodes.read(bytes(REGIONS.replace("Quebec\t", "Qu\u00e9bec\t")), bytes(COUNTRIES))
+                .getFingerprint());
+        assertNotEquals(fingerprint, AdminCodes.fips().getFingerprint());
+    }
+
+    @Test
+    public void testReadMissingColumns() {
+        assertThrows(IllegalArgumentException.class, () -> AdminCodes.read(bytes("CA.08\n"), null));
+    }
+}
@@ -64,5 +64,36 @@ public class GeoCalculatorTest {
         // Verify distance with a small delta
         assertEquals(expectedDistance, GeoCalculator.haversineDistance(lon1, lat1, lon2, lat2), 0.001);
     }
+
+    @Test
+    public void testHaversine_matchesHaversineDistance() {
+        // Coordinates for Toronto
+        double lat1 = Math.toRadians(43.65107);
+        double lon1 = Math.toRadians(-79.347015);
+
+        // Coordinates for Montreal
+        double lat2 = Math.toRadians(45.50884);
+        double lon2 = Math.toRadians(-73.58781);
+
+        double haversine = GeoCalculator.haversine(lat1, Math.cos(lat1), lon1, lat2, Math.cos(lat2), lon2);
+
+        // Converting the haversine gives exactly the distance computed from decimal degrees
+        assertEquals(GeoCalculator.haversineDistance(-79.347015, 43.65107, -73.58781, 45.50884),
+                GeoCalculator.haversineToDistance(haversine));
+    }
+
+    @Test
+    public void testHaversine_growsWithDistance() {
+        double lat = Math.toRadians(43.65107);
+        double lon = Math.toRadians(-79.347015);
+
+        // Montreal is nearer to Toronto than Los Angeles
+        double montreal = GeoCalculator.haversine(lat, Math.cos(lat), lon,
+                Math.toRadians(45.50884), Math.cos(Math.toRadians(45.50884)), Math.toRadians(-73.58781));
+        double losAngeles = GeoCalculator.haversine(lat, Math.cos(lat), lon,
+                Math.toRadians(34.052235), Math.cos(Math.toRadians(34.052235)), Math.toRadians(-118.243683));
+
+        assertTrue(montreal < losAngeles);
+    }
 }
 
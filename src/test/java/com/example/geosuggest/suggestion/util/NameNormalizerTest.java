@@ -0,0 +1,41 @@
+package com.example.geosuggest.suggestion.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+public class NameNormalizerTest {
+
+    @Test
+    public void testNormalize_caseAndAccents() {
+        assertEquals("montreal quebec ca", NameNormalizer.normalize("Montr\u00e9al, Quebec, CA"));
+        assertEquals("saint jerome", NameNormalizer.normalize("SAINT-J\u00c9R\u00d4ME"));
+        assertEquals("strasse", NameNormalizer.normalize("Stra\u00dfe"));
+    }
+
+    @Test
+    public void testNormalize_punctuation() {
+        // Apostrophes and periods are removed, other separators become a single space
+        assertEquals("st johns", NameNormalizer.normalize("St. John's"));
+        assertEquals("st johns", NameNormalizer.normalize("St John\u2019s"));
+        assertEquals("new york", NameNormalizer.normalize("  New -- York"));
+    }
+
+    @Test
+    public void testNormalize_trailingSeparatorKept() {
+        assertEquals("new ", NameNormalizer.normalize("New "));
+        assertEquals("toronto ", NameNormalizer.normalize("Toronto, "));
+    }
+
+    @Test
+    public void testNormalize_normalizedNameNotCopied() {
+        String name = "new york";
+        assertSame(name, NameNormalizer.normalize(name));
+        assertEquals("", NameNormalizer.normalize(""));
+    }
+
+    @Test
+    public void testIsAscii() {
+        assertTrue(NameNormalizer.isAscii(NameNormalizer.normalize("Montr\u00e9al")));
+        assertFalse(NameNormalizer.isAscii(NameNormalizer.normalize("\u041c\u043e\u043d\u0440\u0435\u0430\u043b\u044c")));
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.geosuggest.suggestion.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import java.util.Random;
+
+public class ParallelArraySorterTest {
+
+    @Test
+    public void testSort_reordersValuesWithKeys() {
+        double[] keys = {3.0, 1.0, 2.0};
+        int[] values = {30, 10, 20};
+
+        ParallelArraySorter.sort(keys, values);
+
+        assertArrayEquals(new double[] {1.0, 2.0, 3.0}, keys, 0.0);
+        assertArrayEquals(new int[] {10, 20, 30}, values);
+    }
+
+    @Test
+    public void testSort_largeRandomArray() {
+        // Large enough to go through the quicksort partitioning, with duplicate keys
+        Random random = new Random(42);
+        double[] keys = new double[1000];
+        int[] values = new int[1000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextInt(100);
+            values[i] = i;
+        }
+        double[] originalKeys = keys.clone();
+
+        ParallelArraySorter.sort(keys, values);
+
+        for (int i = 0; i < keys.length; i++) {
+            if (i > 0) {
+                assertTrue(keys[i - 1] <= keys[i]);
+            }
+            // Each value still carries its own key
+            assertEquals(originalKeys[values[i]], keys[i], 0.0);
+        }
+    }
+
+    @Test
+    public void testSort_emptyArrays() {
+        double[] keys = {};
+        int[] values = {};
+
+        ParallelArraySorter.sort(keys, values);
+
+        assertEquals(0, keys.length);
+    }
+
+    @Test
+    public void testSort_mismatchedLengths() {
+        assertThrows(IllegalArgumentException.class, () -> ParallelArraySorter.sort(new double[2], new int[1]));
+    }
+}
@@ -73,4 +73,29 @@ public class ScoreCalculatorTest {
         // Verify the normalized score
         assertEquals(expectedScores.get(0), actualScores.get(0), 0.0001);
     }
+
+    @Test
+    public void testMaxNormalized_withArray() {
+        double[] values = {10, 20, 30};
+
+        // Same scores as the list of the same values, (10 / 31), (20 / 31), (30 / 31)
+        assertArrayEquals(new double[] {10.0 / 31, 20.0 / 31, 30.0 / 31}, ScoreCalculator.maxNormalized(values));
+        assertArrayEquals(new double[] {10.0 / 101, 20.0 / 101, 30.0 / 101}, ScoreCalculator.maxNormalized(values, 100));
+        assertEquals(0, ScoreCalculator.maxNormalized(new double[0]).length);
+    }
+
+    @Test
+    public void testProximityScore() {
+        // 1 at the location itself, halved at the distance scale
+        assertEquals(1.0, ScoreCalculator.proximityScore(0, 50), 0.0001);
+        assertEquals(0.5, ScoreCalculator.proximityScore(50, 50), 0.0001);
+        assertTrue(ScoreCalculator.proximityScore(500, 50) < ScoreCalculator.proximityScore(100, 50));
+    }
+
+    @Test
+    public void testBlend() {
+        assertEquals(0.8, ScoreCalculator.blend(0.8, 0.2, 1), 0.0001);
+        assertEquals(0.2, ScoreCalculator.blend(0.8, 0.2, 0), 0.0001);
+        assertEquals(0.35, ScoreCalculator.blend(0.5, 0.3, 0.25), 0.0001);
+    }
 }